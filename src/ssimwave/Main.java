@@ -1,10 +1,17 @@
 package ssimwave;
 
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.net.InetSocketAddress;
 
+import ssimwave.job.ElasticPolicy;
 import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.RetryPolicy;
+import ssimwave.job.impl.RemoteNode;
+import ssimwave.job.impl.SleepWork;
+import ssimwave.util.AsyncLogWriter;
 import ssimwave.util.Logger;
 
 public class Main
@@ -21,7 +28,45 @@ public class Main
 		System.out.println("    -h           prints this help message and exits");
 		System.out.println("    -l<logfile>  to specify logging file; default is 'logger.txt'");
 		System.out.println("    -a           indicates that we should append to the logging file");
+		System.out.println("    -b[<size>]   buffers up to <size> log records and writes them on a");
+		System.out.println("                 background thread; default size is " + AsyncLogWriter.DEFAULT_CAPACITY);
+		System.out.println("    -o<policy>   what to do with log records when the -b buffer is full:");
+		System.out.println("                 'block' (default), 'drop' or 'count'");
+		System.out.println("    -m<seconds>  logs job metrics every <seconds> seconds");
+		System.out.println("    -j<dir>      journals jobs in <dir> and recovers those left unfinished there");
+		System.out.println("                 by a previous run");
+		System.out.println("    -k<file>     checkpoints pending jobs to <file> on a fast shutdown ('f') and");
+		System.out.println("                 reloads them from there on the next start.  Not supported with -j");
+		System.out.println("    -r<retries>  retries a failing job up to <retries> times, waiting longer");
+		System.out.println("                 before each retry; default is " + RetryPolicy.DEFAULT_MAX_RETRIES);
+		System.out.println("    -t<millis>   interrupts and fails a job still running after <millis>");
+		System.out.println("                 milliseconds; by default jobs may run for as long as they take");
+		System.out.println("    -p<policy>   order in which jobs are dispatched: 'longest_first' (default),");
+		System.out.println("                 'shortest_first', 'fifo', 'weighted_fair' (jobs up to 100ms,");
+		System.out.println("                 up to 1000ms and longer share workers equally) or");
+		System.out.println("                 'earliest_deadline_first'");
+		System.out.println("    -g<rate>     ages waiting jobs: each second a job waits counts as <rate>");
+		System.out.println("                 milliseconds more work length, so short jobs are not starved.");
+		System.out.println("                 Only supported with -plongest_first or -pshortest_first");
+		System.out.println("    -w<min>      grows and shrinks each manager's workers with the backlog,");
+		System.out.println("                 between <min> and <workers>; idle workers are retired after");
+		System.out.println("                 " + ElasticPolicy.DEFAULT_KEEP_ALIVE_MILLIS / 1000 + " seconds.  Not supported with -e, -s or -v");
+		System.out.println("    -c<port>     also leases jobs to nodes connecting on <port>");
+		System.out.println("    -i<millis>   requeues the jobs of a node not heard from for <millis>");
+		System.out.println("                 milliseconds; default is " + JobPublisher.DEFAULT_LEASE_MILLIS);
+		System.out.println("    -n<host>:<port>  runs as a node with <workers> workers, leasing jobs from");
+		System.out.println("                 the coordinator at <host>:<port> until it disconnects");
+		System.out.println("    -q<shards>   spreads jobs over <shards> queues, each with its share of the");
+		System.out.println("                 managers, which steal from each other when idle; at most");
+		System.out.println("                 <managers>");
 		System.out.println("    -e           indicates that program should use executor service");
+		System.out.println("    -f           indicates that workers should fetch their next job themselves");
+		System.out.println("                 instead of waiting for their manager to assign it");
+		System.out.println("    -s           indicates that program should use work-stealing workers");
+		System.out.println("    -x           keeps queued jobs off the Java heap, for very large backlogs.");
+		System.out.println("                 Only supported with -plongest_first or -pshortest_first");
+		System.out.println("    -v           indicates that program should run each job on a virtual thread;");
+		System.out.println("                 <workers> becomes the number of jobs each manager runs at once");
 	}
 
 	/**
@@ -34,7 +79,24 @@ public class Main
 		String logfile = "logger.txt";
 		boolean append = false;
 		boolean setDebug = false;
-		boolean useExecutorService = false;
+		int asyncLogCapacity = 0;
+		int metricsIntervalSeconds = 0;
+		AsyncLogWriter.OverflowPolicy overflowPolicy =
+			AsyncLogWriter.OverflowPolicy.BLOCK;
+		JobPublisher.ManagerType managerType = JobPublisher.ManagerType.THREADED;
+		JobPublisher.QueueType queueType = JobPublisher.QueueType.ON_HEAP;
+		String journalDirectory = null;
+		String snapshotFile = null;
+		int coordinatorPort = -1;
+		long leaseMillis = JobPublisher.DEFAULT_LEASE_MILLIS;
+		InetSocketAddress coordinator = null; // set to run as a node
+		int numberOfShards = 1;
+		int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+		long jobTimeoutMillis = 0;
+		double agingRate = 0;
+		int minWorkers = 0; // 0 for a fixed pool of workers
+		JobPublisher.SchedulingPolicy schedulingPolicy =
+			JobPublisher.SchedulingPolicy.LONGEST_FIRST;
 
 		int numberOfManagers = JobPublisher.DEFAULT_NUMBER_OF_MANAGERS;
 		int numberOfWorkersPerManager = JobPublisher.DEFAULT_NUMBER_OF_WORKERS;
@@ -64,7 +126,277 @@ public class Main
 
 			if ("-e".equals(arg))
 			{
-				useExecutorService = true;
+				managerType = JobPublisher.ManagerType.EXECUTOR;
+				continue;
+			}
+
+			if ("-f".equals(arg))
+			{
+				managerType = JobPublisher.ManagerType.HANDOFF;
+				continue;
+			}
+
+			if ("-s".equals(arg))
+			{
+				managerType = JobPublisher.ManagerType.STEALING;
+				continue;
+			}
+
+			if ("-v".equals(arg))
+			{
+				managerType = JobPublisher.ManagerType.VIRTUAL;
+				continue;
+			}
+
+			if ("-x".equals(arg))
+			{
+				queueType = JobPublisher.QueueType.OFF_HEAP;
+				continue;
+			}
+
+			if (arg.startsWith("-b"))
+			{
+				try
+				{
+					asyncLogCapacity = arg.length() == 2 ?
+						AsyncLogWriter.DEFAULT_CAPACITY :
+						Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					asyncLogCapacity = 0;
+				}
+				if (asyncLogCapacity <= 0)
+				{
+					System.out.println("Invalid log buffer size specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-o"))
+			{
+				try
+				{
+					overflowPolicy = AsyncLogWriter.OverflowPolicy.valueOf(
+						arg.substring(2).toUpperCase());
+				}
+				catch(IllegalArgumentException iae)
+				{
+					System.out.println("Invalid overflow policy specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-m"))
+			{
+				try
+				{
+					metricsIntervalSeconds = Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					metricsIntervalSeconds = 0;
+				}
+				if (metricsIntervalSeconds <= 0)
+				{
+					System.out.println("Invalid metrics interval specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-r"))
+			{
+				try
+				{
+					maxRetries = Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					maxRetries = -1;
+				}
+				if (maxRetries < 0)
+				{
+					System.out.println("Invalid retry count specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-t"))
+			{
+				try
+				{
+					jobTimeoutMillis = Long.parseLong(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					jobTimeoutMillis = -1;
+				}
+				if (jobTimeoutMillis <= 0)
+				{
+					System.out.println("Invalid job timeout specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-p"))
+			{
+				try
+				{
+					schedulingPolicy = JobPublisher.SchedulingPolicy.valueOf(
+						arg.substring(2).toUpperCase());
+				}
+				catch(IllegalArgumentException iae)
+				{
+					System.out.println("Invalid scheduling policy specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-w"))
+			{
+				try
+				{
+					minWorkers = Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					minWorkers = -1;
+				}
+				if (minWorkers < 1)
+				{
+					System.out.println("Invalid minimum workers specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-g"))
+			{
+				try
+				{
+					agingRate = Double.parseDouble(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					agingRate = -1;
+				}
+				if (!(agingRate >= 0))
+				{
+					System.out.println("Invalid aging rate specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-j"))
+			{
+				if (arg.length() == 2)
+				{
+					System.out.println("Invalid journal directory specified: " + arg);
+					printUsage();
+					return;
+				}
+				journalDirectory = arg.substring(2);
+				continue;
+			}
+
+			if (arg.startsWith("-c"))
+			{
+				try
+				{
+					coordinatorPort = Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					coordinatorPort = -1;
+				}
+				if (coordinatorPort < 0 || coordinatorPort > 65535)
+				{
+					System.out.println("Invalid coordinator port specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-i"))
+			{
+				try
+				{
+					leaseMillis = Long.parseLong(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					leaseMillis = -1;
+				}
+				if (leaseMillis <= 0)
+				{
+					System.out.println("Invalid lease specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-q"))
+			{
+				try
+				{
+					numberOfShards = Integer.parseInt(arg.substring(2));
+				}
+				catch(NumberFormatException nfe)
+				{
+					numberOfShards = 0;
+				}
+				if (numberOfShards < 1)
+				{
+					System.out.println("Invalid number of shards specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-n"))
+			{
+				int colon = arg.lastIndexOf(':');
+				try
+				{
+					coordinator = new InetSocketAddress(arg.substring(2, colon),
+						Integer.parseInt(arg.substring(colon + 1)));
+				}
+				catch(RuntimeException re)
+				{
+					System.out.println("Invalid coordinator address specified: " + arg);
+					printUsage();
+					return;
+				}
+				continue;
+			}
+
+			if (arg.startsWith("-k"))
+			{
+				if (arg.length() == 2)
+				{
+					System.out.println("Invalid snapshot file specified: " + arg);
+					printUsage();
+					return;
+				}
+				snapshotFile = arg.substring(2);
 				continue;
 			}
 
@@ -127,16 +459,68 @@ public class Main
 			}
 		}
 
+		if (minWorkers > numberOfWorkersPerManager)
+		{
+			System.out.println("Minimum workers must not exceed " +
+				numberOfWorkersPerManager + ": -w" + minWorkers);
+			printUsage();
+			return;
+		}
+		if (minWorkers > 0 &&
+			managerType != JobPublisher.ManagerType.THREADED &&
+			managerType != JobPublisher.ManagerType.HANDOFF)
+		{
+			System.out.println("-w is not supported with -e, -s or -v");
+			printUsage();
+			return;
+		}
+		if (numberOfShards > numberOfManagers)
+		{
+			System.out.println("Number of shards must not exceed " +
+				numberOfManagers + ": -q" + numberOfShards);
+			printUsage();
+			return;
+		}
+		if (coordinator != null && coordinatorPort >= 0)
+		{
+			System.out.println("-n is not supported with -c");
+			printUsage();
+			return;
+		}
+		if ((queueType == JobPublisher.QueueType.OFF_HEAP || agingRate > 0) &&
+			schedulingPolicy != JobPublisher.SchedulingPolicy.LONGEST_FIRST &&
+			schedulingPolicy != JobPublisher.SchedulingPolicy.SHORTEST_FIRST)
+		{
+			System.out.println("-x and -g are not supported with -p" +
+				schedulingPolicy.toString().toLowerCase());
+			printUsage();
+			return;
+		}
+		if (snapshotFile != null && journalDirectory != null)
+		{
+			System.out.println("-k is not supported with -j");
+			printUsage();
+			return;
+		}
+
 		// initialize logger
 		try
 		{
-			Logger.init(new PrintStream(
-				new FileOutputStream(logfile, append)));
+			if (asyncLogCapacity > 0)
+			{
+				Logger.initAsync(logfile, append, asyncLogCapacity,
+					overflowPolicy);
+			}
+			else
+			{
+				Logger.init(new PrintStream(
+					new FileOutputStream(logfile, append)));
+			}
 			if (setDebug) Logger.setDebug(true);
 		}
-		catch (FileNotFoundException fnfe)
+		catch (IOException ioe)
 		{
-			System.out.println("Failed to open logfile: " + fnfe.getMessage());
+			System.out.println("Failed to open logfile: " + ioe.getMessage());
 			return;
 		}
 		catch(SecurityException se)
@@ -146,11 +530,53 @@ public class Main
 			return;
 		}
 
+		// run as a node until the coordinator disconnects
+		if (coordinator != null)
+		{
+			try
+			{
+				System.out.println("Running jobs for " + coordinator);
+				new RemoteNode(coordinator, numberOfWorkersPerManager,
+					SleepWork.CODEC).run();
+				System.out.println("Disconnected from " + coordinator);
+			}
+			catch (IOException ioe)
+			{
+				Logger.throwable("Node failed: ", ioe);
+				System.out.println("Node failed: " + ioe.getMessage());
+			}
+			return;
+		}
+
 		// initialize and call runLoop for JobPublisher
 		try
 		{
-			JobPublisher.getJobPublisher(numberOfManagers, 
-				numberOfWorkersPerManager, useExecutorService).runLoop();
+			JobPublisherOptions options = new JobPublisherOptions();
+			options.setNumberOfManagers(numberOfManagers);
+			options.setNumberOfWorkersPerManager(numberOfWorkersPerManager);
+			options.setManagerType(managerType);
+			options.setQueueType(queueType);
+			options.setJournalDirectory(journalDirectory);
+			options.setSnapshotFile(snapshotFile);
+			options.setRetryPolicy(new RetryPolicy(maxRetries,
+				RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS,
+				RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+			options.setJobTimeoutMillis(jobTimeoutMillis);
+			options.setAgingRate(agingRate);
+			options.setSchedulingPolicy(schedulingPolicy);
+			options.setCoordinatorPort(coordinatorPort);
+			options.setLeaseMillis(leaseMillis);
+			options.setNumberOfShards(numberOfShards);
+			if (minWorkers > 0)
+			{
+				options.setElasticPolicy(new ElasticPolicy(minWorkers));
+			}
+			JobPublisher publisher = JobPublisher.getJobPublisher(options);
+			if (metricsIntervalSeconds > 0)
+			{
+				publisher.startMetricsReporter(metricsIntervalSeconds * 1000L);
+			}
+			publisher.runLoop();
 		}
 		catch (Throwable t)
 		{
@@ -0,0 +1,16 @@
+package ssimwave.job;
+
+/**
+ * Work that should be done by a deadline.  Under the
+ * EARLIEST_DEADLINE_FIRST policy it is dispatched in deadline order, taking
+ * getWorkLength() as its expected run time in milliseconds.  Other Work can
+ * be given a deadline through DeadlineWorkAdapter.
+ */
+public interface DeadlineWork extends Work
+{
+	/**
+	 * @return time, in milliseconds since the epoch, by which the work should
+	 *	be done
+	 */
+	public long getDeadline();
+}
@@ -0,0 +1,56 @@
+package ssimwave.job;
+
+/**
+ * Gives existing Work a deadline.
+ */
+public class DeadlineWorkAdapter implements DeadlineWork
+{
+	private final Work work;
+	private final long deadline;
+
+	/**
+	 * @param work the work to be done
+	 * @param deadline time, in milliseconds since the epoch, by which the
+	 *	work should be done
+	 * @throws IllegalArgumentException if work is null
+	 */
+	public DeadlineWorkAdapter(Work work, long deadline)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		this.work = work;
+		this.deadline = deadline;
+	}
+
+	/**
+	 * @return the adapted work
+	 */
+	public Work getWork()
+	{
+		return work;
+	}
+
+	public long getDeadline()
+	{
+		return deadline;
+	}
+
+	public void doWork() throws Exception
+	{
+		work.doWork();
+	}
+
+	public void setId(int id)
+	{
+		work.setId(id);
+	}
+
+	public int getId()
+	{
+		return work.getId();
+	}
+
+	public long getWorkLength()
+	{
+		return work.getWorkLength();
+	}
+}
@@ -0,0 +1,76 @@
+package ssimwave.job;
+
+/**
+ * How a manager resizes its pool of workers between a minimum and the
+ * configured number of workers per manager.  A manager starts with the
+ * minimum.  Once work has stayed queued for growAfterMillis with every
+ * worker busy, or at once if as much work is queued per manager as the pool
+ * has workers, it adds a worker per job queued per manager, at most doubling
+ * the pool.  It retires workers that stayed idle for a whole keep-alive
+ * period.  Growing quickly and shrinking only after a long quiet period
+ * keeps the pool from oscillating.
+ */
+public class ElasticPolicy
+{
+	/**
+	 * Default time a surplus worker stays idle before it is retired
+	 */
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60 * 1000;
+
+	/**
+	 * Default time work waits with every worker busy before the pool grows
+	 */
+	public static final long DEFAULT_GROW_AFTER_MILLIS = 10;
+
+	private final int minWorkers;
+	private final long keepAliveMillis;
+	private final long growAfterMillis;
+
+	/**
+	 * @param minWorkers workers each manager keeps even when idle
+	 */
+	public ElasticPolicy(int minWorkers)
+	{
+		this(minWorkers, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_GROW_AFTER_MILLIS);
+	}
+
+	/**
+	 * @param minWorkers workers each manager keeps even when idle
+	 * @param keepAliveMillis time a surplus worker stays idle before it is
+	 *	retired
+	 * @param growAfterMillis time work stays queued with every worker busy
+	 *	before the pool grows
+	 * @throws IllegalArgumentException if minWorkers is below 1 or a time is
+	 *	not positive
+	 */
+	public ElasticPolicy(int minWorkers, long keepAliveMillis,
+		long growAfterMillis)
+	{
+		if (minWorkers < 1)
+		{
+			throw new IllegalArgumentException("minWorkers must be at least 1");
+		}
+		if (keepAliveMillis <= 0 || growAfterMillis <= 0)
+		{
+			throw new IllegalArgumentException("times must be positive");
+		}
+		this.minWorkers = minWorkers;
+		this.keepAliveMillis = keepAliveMillis;
+		this.growAfterMillis = growAfterMillis;
+	}
+
+	public int getMinWorkers()
+	{
+		return minWorkers;
+	}
+
+	public long getKeepAliveMillis()
+	{
+		return keepAliveMillis;
+	}
+
+	public long getGrowAfterMillis()
+	{
+		return growAfterMillis;
+	}
+}
@@ -1,6 +1,11 @@
 package ssimwave.job;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import ssimwave.job.impl.JobPublisherImpl;
+import ssimwave.job.impl.ShardedJobPublisher;
 
 /**
  * Abstracted class that will provide a publisher via getJobPublisher().
@@ -19,12 +24,98 @@ public abstract class JobPublisher
 	 */
 	public static final int DEFAULT_NUMBER_OF_WORKERS = 10;
 
+	/**
+	 * Default time shutdown(ShutdownMode) allows before stopping what is left
+	 */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 30 * 1000;
+
+	/**
+	 * Default time a remote node may go unheard before its jobs are requeued
+	 */
+	public static final long DEFAULT_LEASE_MILLIS = 3 * 1000;
+
 	/**
 	 * Waits for user input to specify how many SleepWork objects to inject
 	 * into the work queue.
 	 */
 	public abstract void runLoop();
 
+	/**
+	 * Enqueues work for the managers; safe to call from any thread.  The
+	 * publisher assigns the work its ID.
+	 * @param work the work to be done
+	 * @return completed with the work once its doWork() has returned
+	 * @throws IllegalArgumentException if work is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	public abstract CompletableFuture<Work> submit(Work work);
+
+	/**
+	 * Enqueues a batch of work for the managers; safe to call from any
+	 * thread.  The publisher assigns each work item its ID.
+	 * @param works the work to be done
+	 * @return completion handles in the iteration order of works
+	 * @throws IllegalArgumentException if any work is null
+	 * @throws IllegalStateException if the publisher is shutting down; work
+	 *	of the batch enqueued before then is handled by the shutdown
+	 */
+	public abstract List<CompletableFuture<Work>> submitAll(
+		Collection<? extends Work> works);
+
+	/**
+	 * Cancels a job: removes it if it is queued or waiting to be retried, and
+	 * interrupts it if it is running.  Its completion handle, if it was
+	 * submitted, is cancelled.
+	 * @param jobId the ID the publisher assigned the job
+	 * @return true if the job was found and cancelled; false if it was done,
+	 *	given up on or unknown
+	 */
+	public abstract boolean cancel(int jobId);
+
+	/**
+	 * Shuts the publisher down, allowing DEFAULT_SHUTDOWN_TIMEOUT_MILLIS.
+	 * @param mode whether to drain pending work or checkpoint it
+	 * @return see shutdown(ShutdownMode, long)
+	 */
+	public CompletableFuture<Integer> shutdown(ShutdownMode mode)
+	{
+		return shutdown(mode, DEFAULT_SHUTDOWN_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Shuts the publisher down on a background thread; new work is refused
+	 * at once.  Calling it again returns the same handle, though a FAST call
+	 * cuts short a DRAIN in progress.
+	 * @param mode whether to drain pending work or checkpoint it
+	 * @param timeoutMillis time DRAIN has to finish pending work, or FAST
+	 *	has for interrupted work to return, before what is left is
+	 *	checkpointed where it is
+	 * @return completed once every manager is stopped, with the number of
+	 *	jobs not done, which are checkpointed if a snapshot file is set and
+	 *	left in the journal if one is; 0 if nothing was left
+	 */
+	public abstract CompletableFuture<Integer> shutdown(ShutdownMode mode,
+		long timeoutMillis);
+
+	/**
+	 * @return current job metrics: wait and run time distributions, job
+	 *	counters and per-manager utilization
+	 */
+	public abstract MetricsSnapshot getMetrics();
+
+	/**
+	 * Removes and returns the work given up on after exhausting its retries.
+	 * Only the most recent dead letters are kept.
+	 * @return dead-lettered work, oldest first
+	 */
+	public abstract List<Work> drainDeadLetters();
+
+	/**
+	 * Logs a metrics snapshot at a fixed interval on a daemon thread.
+	 * @param intervalMillis time between snapshots
+	 */
+	public abstract void startMetricsReporter(long intervalMillis);
+
 	/**
 	 * Retrieves new generic job publisher.
 	 */
@@ -43,7 +134,157 @@ public abstract class JobPublisher
 	public static JobPublisher getJobPublisher(int numberOfManagers,
 		int numberOfWorkersPerManager, boolean useExecutorService)
 	{
-		return new JobPublisherImpl(numberOfManagers, 
-			numberOfWorkersPerManager);
+		return getJobPublisher(numberOfManagers, numberOfWorkersPerManager,
+			useExecutorService ? ManagerType.EXECUTOR : ManagerType.THREADED);
+	}
+
+	/**
+	 * Retrieves new generic job publisher that meets the parameter criteria.
+	 * @param numberOfManagers the number of managers to assign to publisher
+	 * @param numberOfWorkersPerManager the number of worker that each manager
+	 *	should have.
+	 * @param managerType the kind of manager dispatching work to workers
+	 */
+	public static JobPublisher getJobPublisher(int numberOfManagers,
+		int numberOfWorkersPerManager, ManagerType managerType)
+	{
+		return new JobPublisherImpl(numberOfManagers,
+			numberOfWorkersPerManager, managerType);
+	}
+
+	/**
+	 * Retrieves new generic job publisher that meets the parameter criteria.
+	 * @param numberOfManagers the number of managers to assign to publisher
+	 * @param numberOfWorkersPerManager the number of worker that each manager
+	 *	should have.
+	 * @param managerType the kind of manager dispatching work to workers
+	 * @param queueType where pending work is kept
+	 */
+	public static JobPublisher getJobPublisher(int numberOfManagers,
+		int numberOfWorkersPerManager, ManagerType managerType,
+		QueueType queueType)
+	{
+		return new JobPublisherImpl(numberOfManagers,
+			numberOfWorkersPerManager, managerType, queueType);
+	}
+
+	/**
+	 * Retrieves new generic job publisher configured by options; a
+	 * ShardedJobPublisher if it has more than one shard.
+	 * @param options the publisher's settings
+	 */
+	public static JobPublisher getJobPublisher(JobPublisherOptions options)
+	{
+		return options.getNumberOfShards() > 1 ?
+			new ShardedJobPublisher(options) : new JobPublisherImpl(options);
+	}
+
+	/**
+	 * The kinds of managers a publisher can dispatch work through.
+	 */
+	public enum ManagerType
+	{
+		/**
+		 * Manager thread assigns work to dedicated Worker threads
+		 */
+		THREADED,
+
+		/**
+		 * As THREADED, but a Worker finishing a job claims its next job from
+		 *	the publisher itself; the manager thread only starts idle Workers
+		 */
+		HANDOFF,
+
+		/**
+		 * Manager thread submits work to a java.util.concurrent.ExecutorService
+		 */
+		EXECUTOR,
+
+		/**
+		 * Workers claim work from the publisher in batches and steal from
+		 *	each other; no manager thread is on the dispatch path
+		 */
+		STEALING,
+
+		/**
+		 * Manager thread starts each work item on a virtual thread; the
+		 *	number of workers becomes a limit on concurrently running work
+		 */
+		VIRTUAL
+	}
+
+	/**
+	 * The order in which a publisher dispatches pending work.
+	 */
+	public enum SchedulingPolicy
+	{
+		/**
+		 * Work with the highest getWorkLength() first
+		 */
+		LONGEST_FIRST,
+
+		/**
+		 * Work with the lowest getWorkLength() first, which minimizes the
+		 *	mean time to complete a batch
+		 */
+		SHORTEST_FIRST,
+
+		/**
+		 * Work in the order it was enqueued.  Pending work is kept on the
+		 *	Java heap whatever the QueueType
+		 */
+		FIFO,
+
+		/**
+		 * Work split into bands by getWorkLength(), each band receiving a
+		 *	weighted share of the work length dispatched and served in the
+		 *	order it was enqueued.  Pending work is kept on the Java heap
+		 *	whatever the QueueType
+		 */
+		WEIGHTED_FAIR,
+
+		/**
+		 * DeadlineWork with the earliest deadline first, deprioritizing work
+		 *	that can no longer meet its deadline; work without a deadline
+		 *	follows.  Pending work is kept on the Java heap whatever the
+		 *	QueueType
+		 */
+		EARLIEST_DEADLINE_FIRST
+	}
+
+	/**
+	 * How a publisher shuts down.  Either way, work that is not done is
+	 * checkpointed to the snapshot file, if one is configured, and its
+	 * completion handle, if it was submitted, is cancelled.
+	 */
+	public enum ShutdownMode
+	{
+		/**
+		 * Pending work, including work waiting to be retried, is finished by
+		 *	every worker before the managers are stopped
+		 */
+		DRAIN,
+
+		/**
+		 * Running work is interrupted and, with pending work, checkpointed
+		 */
+		FAST
+	}
+
+	/**
+	 * Where a publisher keeps work that has not yet been dispatched.
+	 */
+	public enum QueueType
+	{
+		/**
+		 * Work objects are kept in a lock-free tree on the Java heap
+		 */
+		ON_HEAP,
+
+		/**
+		 * Work is kept as fixed-size records in direct memory and rebuilt
+		 *	when dispatched; suits very large backlogs
+		 */
+		OFF_HEAP
 	}
 }
\ No newline at end of file
@@ -0,0 +1,362 @@
+package ssimwave.job;
+
+import ssimwave.job.impl.SleepWork;
+
+/**
+ * Settings for JobPublisher.getJobPublisher(JobPublisherOptions).  Every
+ * setting starts at its default, so only those that differ need to be set.
+ */
+public class JobPublisherOptions
+{
+	private int numberOfManagers;
+	private int numberOfWorkersPerManager;
+	private JobPublisher.ManagerType managerType;
+	private JobPublisher.QueueType queueType;
+	private String journalDirectory;
+	private String snapshotFile;
+	private RetryPolicy retryPolicy;
+	private long jobTimeoutMillis;
+	private double agingRate;
+	private JobPublisher.SchedulingPolicy schedulingPolicy;
+	private int[] fairShareWeights;
+	private ElasticPolicy elasticPolicy;
+	private int coordinatorPort;
+	private long leaseMillis;
+	private int numberOfShards;
+	private WorkCodec workCodec;
+
+	public JobPublisherOptions()
+	{
+		numberOfManagers = JobPublisher.DEFAULT_NUMBER_OF_MANAGERS;
+		numberOfWorkersPerManager = JobPublisher.DEFAULT_NUMBER_OF_WORKERS;
+		managerType = JobPublisher.ManagerType.THREADED;
+		queueType = JobPublisher.QueueType.ON_HEAP;
+		journalDirectory = null;
+		snapshotFile = null;
+		retryPolicy = new RetryPolicy();
+		jobTimeoutMillis = 0;
+		agingRate = 0;
+		schedulingPolicy = JobPublisher.SchedulingPolicy.LONGEST_FIRST;
+		fairShareWeights = null;
+		elasticPolicy = null;
+		coordinatorPort = -1;
+		leaseMillis = JobPublisher.DEFAULT_LEASE_MILLIS;
+		numberOfShards = 1;
+		workCodec = SleepWork.CODEC;
+	}
+
+	/**
+	 * @param options settings to copy
+	 */
+	public JobPublisherOptions(JobPublisherOptions options)
+	{
+		numberOfManagers = options.numberOfManagers;
+		numberOfWorkersPerManager = options.numberOfWorkersPerManager;
+		managerType = options.managerType;
+		queueType = options.queueType;
+		journalDirectory = options.journalDirectory;
+		snapshotFile = options.snapshotFile;
+		retryPolicy = options.retryPolicy;
+		jobTimeoutMillis = options.jobTimeoutMillis;
+		agingRate = options.agingRate;
+		schedulingPolicy = options.schedulingPolicy;
+		fairShareWeights = options.fairShareWeights;
+		elasticPolicy = options.elasticPolicy;
+		coordinatorPort = options.coordinatorPort;
+		leaseMillis = options.leaseMillis;
+		numberOfShards = options.numberOfShards;
+		workCodec = options.workCodec;
+	}
+
+	/**
+	 * @return the number of managers to assign to the publisher
+	 */
+	public int getNumberOfManagers()
+	{
+		return numberOfManagers;
+	}
+
+	/**
+	 * @param numberOfManagers the number of managers to assign to publisher
+	 */
+	public void setNumberOfManagers(int numberOfManagers)
+	{
+		this.numberOfManagers = numberOfManagers;
+	}
+
+	/**
+	 * @return the number of workers that each manager should have
+	 */
+	public int getNumberOfWorkersPerManager()
+	{
+		return numberOfWorkersPerManager;
+	}
+
+	/**
+	 * @param numberOfWorkersPerManager the number of workers that each
+	 *	manager should have
+	 */
+	public void setNumberOfWorkersPerManager(int numberOfWorkersPerManager)
+	{
+		this.numberOfWorkersPerManager = numberOfWorkersPerManager;
+	}
+
+	/**
+	 * @return the kind of manager dispatching work to workers
+	 */
+	public JobPublisher.ManagerType getManagerType()
+	{
+		return managerType;
+	}
+
+	/**
+	 * @param managerType the kind of manager dispatching work to workers
+	 */
+	public void setManagerType(JobPublisher.ManagerType managerType)
+	{
+		this.managerType = managerType;
+	}
+
+	/**
+	 * @return the order in which pending work is dispatched
+	 */
+	public JobPublisher.SchedulingPolicy getSchedulingPolicy()
+	{
+		return schedulingPolicy;
+	}
+
+	/**
+	 * @param schedulingPolicy the order in which pending work is dispatched
+	 */
+	public void setSchedulingPolicy(JobPublisher.SchedulingPolicy schedulingPolicy)
+	{
+		this.schedulingPolicy = schedulingPolicy;
+	}
+
+	/**
+	 * @return share of dispatched work length each work length band receives
+	 *	under the WEIGHTED_FAIR policy, or null if the bands share equally
+	 */
+	public int[] getFairShareWeights()
+	{
+		return fairShareWeights == null ? null : fairShareWeights.clone();
+	}
+
+	/**
+	 * @param fairShareWeights positive share of dispatched work length each
+	 *	band receives under the WEIGHTED_FAIR policy: work up to 100 long, up
+	 *	to 1000 long and longer; null to share equally
+	 */
+	public void setFairShareWeights(int[] fairShareWeights)
+	{
+		this.fairShareWeights = fairShareWeights == null ? null :
+			fairShareWeights.clone();
+	}
+
+	/**
+	 * @return where pending work is kept
+	 */
+	public JobPublisher.QueueType getQueueType()
+	{
+		return queueType;
+	}
+
+	/**
+	 * @param queueType where pending work is kept.  OFF_HEAP is only
+	 *	supported with the LONGEST_FIRST and SHORTEST_FIRST scheduling
+	 *	policies; a publisher given it with another is rejected
+	 */
+	public void setQueueType(JobPublisher.QueueType queueType)
+	{
+		this.queueType = queueType;
+	}
+
+	/**
+	 * @return directory of the write-ahead journal, or null if work is not
+	 *	journaled
+	 */
+	public String getJournalDirectory()
+	{
+		return journalDirectory;
+	}
+
+	/**
+	 * @param journalDirectory directory in which to journal work, recovering
+	 *	any work journaled there by a previous run; null to not journal
+	 */
+	public void setJournalDirectory(String journalDirectory)
+	{
+		this.journalDirectory = journalDirectory;
+	}
+
+	/**
+	 * @return file that a fast shutdown checkpoints pending work to, or null
+	 *	if pending work is not checkpointed
+	 */
+	public String getSnapshotFile()
+	{
+		return snapshotFile;
+	}
+
+	/**
+	 * @param snapshotFile file that a fast shutdown checkpoints pending work
+	 *	to, and from which a new publisher reloads it; null to not checkpoint.
+	 *	Ignored while work is journaled, as the journal recovers pending work
+	 */
+	public void setSnapshotFile(String snapshotFile)
+	{
+		this.snapshotFile = snapshotFile;
+	}
+
+	/**
+	 * @return how work whose doWork() throws is retried
+	 */
+	public RetryPolicy getRetryPolicy()
+	{
+		return retryPolicy;
+	}
+
+	/**
+	 * @param retryPolicy how work whose doWork() throws is retried
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * @return milliseconds a job may run before it is interrupted; 0 for no
+	 *	limit
+	 */
+	public long getJobTimeoutMillis()
+	{
+		return jobTimeoutMillis;
+	}
+
+	/**
+	 * @param jobTimeoutMillis milliseconds a job may run before it is
+	 *	interrupted and failed with a TimeoutException; 0 for no limit.
+	 *	TimeLimitedWork sets its own limit instead
+	 */
+	public void setJobTimeoutMillis(long jobTimeoutMillis)
+	{
+		this.jobTimeoutMillis = jobTimeoutMillis;
+	}
+
+	/**
+	 * @return how much the priority of pending work rises per second it
+	 *	waits; 0 if work does not age
+	 */
+	public double getAgingRate()
+	{
+		return agingRate;
+	}
+
+	/**
+	 * @param agingRate how much the priority of pending work rises per
+	 *	second it waits, in getWorkLength() units; for SleepWork, work
+	 *	waiting one second ranks with work agingRate milliseconds longer.
+	 *	0 to order by work length alone.  Only supported with the
+	 *	LONGEST_FIRST and SHORTEST_FIRST scheduling policies; a publisher
+	 *	given a positive rate with another is rejected
+	 */
+	public void setAgingRate(double agingRate)
+	{
+		this.agingRate = agingRate;
+	}
+
+	/**
+	 * @return how each manager resizes its pool of workers; null if every
+	 *	manager keeps numberOfWorkersPerManager workers
+	 */
+	public ElasticPolicy getElasticPolicy()
+	{
+		return elasticPolicy;
+	}
+
+	/**
+	 * @param elasticPolicy how each manager resizes its pool of workers, with
+	 *	numberOfWorkersPerManager as the most it grows to; null for a fixed
+	 *	pool.  Only applies to the THREADED and HANDOFF manager types
+	 */
+	public void setElasticPolicy(ElasticPolicy elasticPolicy)
+	{
+		this.elasticPolicy = elasticPolicy;
+	}
+
+	/**
+	 * @return port on which remote nodes lease work, or -1 if work is only
+	 *	run locally
+	 */
+	public int getCoordinatorPort()
+	{
+		return coordinatorPort;
+	}
+
+	/**
+	 * @param coordinatorPort port on which RemoteNode processes lease work
+	 *	from the publisher, alongside its own managers; 0 for any free port,
+	 *	-1 to only run work locally
+	 */
+	public void setCoordinatorPort(int coordinatorPort)
+	{
+		this.coordinatorPort = coordinatorPort;
+	}
+
+	/**
+	 * @return time a remote node may go unheard before its jobs are requeued
+	 */
+	public long getLeaseMillis()
+	{
+		return leaseMillis;
+	}
+
+	/**
+	 * @param leaseMillis time a remote node may go unheard before its jobs
+	 *	are requeued; nodes heartbeat three times per lease
+	 */
+	public void setLeaseMillis(long leaseMillis)
+	{
+		this.leaseMillis = leaseMillis;
+	}
+
+	/**
+	 * @return number of independent queues, each with its own managers,
+	 *	that work is spread over
+	 */
+	public int getNumberOfShards()
+	{
+		return numberOfShards;
+	}
+
+	/**
+	 * @param numberOfShards number of independent queues, each with its
+	 *	own share of the managers, that work is spread over by a hash of its
+	 *	ID; a queue left without work steals from the most backlogged one.
+	 *	1 for a single queue; at most numberOfManagers
+	 */
+	public void setNumberOfShards(int numberOfShards)
+	{
+		this.numberOfShards = numberOfShards;
+	}
+
+	/**
+	 * @return how work is encoded when it is queued off-heap, journaled,
+	 *	checkpointed or sent to a remote node
+	 */
+	public WorkCodec getWorkCodec()
+	{
+		return workCodec;
+	}
+
+	/**
+	 * @param workCodec how work is encoded when it is queued off-heap,
+	 *	journaled, checkpointed to the snapshot file or sent to a remote node;
+	 *	work it cannot encode is kept on the heap, and is not journaled,
+	 *	checkpointed or sent.  SleepWork.CODEC by default
+	 */
+	public void setWorkCodec(WorkCodec workCodec)
+	{
+		this.workCodec = workCodec;
+	}
+}
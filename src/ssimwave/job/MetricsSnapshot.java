@@ -0,0 +1,431 @@
+package ssimwave.job;
+
+/**
+ * Point-in-time view of a JobPublisher's job metrics.  Durations are in
+ * nanoseconds.
+ */
+public class MetricsSnapshot
+{
+	private final long timestamp;
+	private final long done;
+	private final long notDone;
+	private final long retries;
+	private final long deadLettered;
+	private final long deadlinesMet;
+	private final long deadlinesMissed;
+	private final long infeasible;
+	private final long timedOut;
+	private final long cancelled;
+	private final Distribution wait;
+	private final Distribution run;
+	private final long[] lengthBands;
+	private final Distribution[] waitByLength;
+	private final int[] busyWorkers;
+	private final int[] workers;
+
+	private MetricsSnapshot(Builder builder)
+	{
+		this.timestamp = builder.timestamp;
+		this.done = builder.done;
+		this.notDone = builder.notDone;
+		this.retries = builder.retries;
+		this.deadLettered = builder.deadLettered;
+		this.deadlinesMet = builder.deadlinesMet;
+		this.deadlinesMissed = builder.deadlinesMissed;
+		this.infeasible = builder.infeasible;
+		this.timedOut = builder.timedOut;
+		this.cancelled = builder.cancelled;
+		this.wait = builder.wait;
+		this.run = builder.run;
+		this.lengthBands = builder.lengthBands.clone();
+		this.waitByLength = builder.waitByLength != null ?
+			builder.waitByLength.clone() : new Distribution[] { builder.wait };
+		this.busyWorkers = builder.busyWorkers.clone();
+		this.workers = builder.workers.clone();
+	}
+
+	public long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	public long getDone()
+	{
+		return done;
+	}
+
+	public long getNotDone()
+	{
+		return notDone;
+	}
+
+	public long getRetries()
+	{
+		return retries;
+	}
+
+	/**
+	 * @return number of failed jobs moved to the dead-letter queue after
+	 *	exhausting their retries
+	 */
+	public long getDeadLettered()
+	{
+		return deadLettered;
+	}
+
+	/**
+	 * @return number of jobs with a deadline that were done by it
+	 */
+	public long getDeadlinesMet()
+	{
+		return deadlinesMet;
+	}
+
+	/**
+	 * @return number of jobs with a deadline that were done after it
+	 */
+	public long getDeadlinesMissed()
+	{
+		return deadlinesMissed;
+	}
+
+	/**
+	 * @return number of jobs deprioritized by earliest-deadline-first
+	 *	scheduling because they could no longer meet their deadline
+	 */
+	public long getInfeasible()
+	{
+		return infeasible;
+	}
+
+	/**
+	 * @return number of jobs interrupted for running past their time limit
+	 */
+	public long getTimedOut()
+	{
+		return timedOut;
+	}
+
+	/**
+	 * @return number of jobs cancelled while queued, waiting to be retried or
+	 *	running
+	 */
+	public long getCancelled()
+	{
+		return cancelled;
+	}
+
+	/**
+	 * @return enqueue-to-dispatch time distribution
+	 */
+	public Distribution getWait()
+	{
+		return wait;
+	}
+
+	/**
+	 * @return doWork() duration distribution
+	 */
+	public Distribution getRun()
+	{
+		return run;
+	}
+
+	/**
+	 * @return number of work length bands wait times are reported by
+	 */
+	public int getLengthBands()
+	{
+		return waitByLength.length;
+	}
+
+	/**
+	 * @param band index of the band, shortest work first
+	 * @return inclusive upper limit of the band's work lengths;
+	 *	Long.MAX_VALUE for the last band
+	 */
+	public long getLengthBandLimit(int band)
+	{
+		return band < lengthBands.length ? lengthBands[band] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @param band index of the band, shortest work first
+	 * @return enqueue-to-dispatch time distribution of work in the band
+	 */
+	public Distribution getWaitByLength(int band)
+	{
+		return waitByLength[band];
+	}
+
+	/**
+	 * @return number of managers
+	 */
+	public int getManagers()
+	{
+		return workers.length;
+	}
+
+	/**
+	 * @param manager the manager's ID
+	 * @return fraction, between 0 and 1, of the manager's workers that were
+	 *	busy
+	 */
+	public double getUtilization(int manager)
+	{
+		return workers[manager] == 0 ? 0 :
+			(double)busyWorkers[manager] / workers[manager];
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append("done=").append(done)
+			.append(" notDone=").append(notDone)
+			.append(" retries=").append(retries)
+			.append(" deadLettered=").append(deadLettered)
+			.append(" timedOut=").append(timedOut)
+			.append(" cancelled=").append(cancelled);
+		if (deadlinesMet + deadlinesMissed > 0)
+		{
+			sb.append(" deadlinesMet=").append(deadlinesMet)
+				.append(" deadlinesMissed=").append(deadlinesMissed)
+				.append(" infeasible=").append(infeasible);
+		}
+		sb.append(" wait").append(wait)
+			.append(" p99WaitByLength[");
+		for (int i = 0 ; i < waitByLength.length ; i++)
+		{
+			if (i > 0) sb.append(',');
+			if (i < lengthBands.length) sb.append("<=").append(lengthBands[i]);
+			else if (i > 0) sb.append('>').append(lengthBands[i - 1]);
+			else sb.append("all");
+			sb.append(String.format(":%.3fms", waitByLength[i].getP99() / 1e6));
+		}
+		sb.append(']')
+			.append(" run").append(run)
+			.append(" utilization[");
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			if (i > 0) sb.append(',');
+			sb.append(busyWorkers[i]).append('/').append(workers[i]);
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Collects the values of a snapshot; counters not set are 0, wait and
+	 * run distributions not set are empty, and wait times are reported in a
+	 * single band unless length bands are set.
+	 */
+	public static class Builder
+	{
+		private static final Distribution EMPTY = new Distribution(0, 0, 0, 0, 0, 0);
+
+		private final long timestamp;
+		private long done;
+		private long notDone;
+		private long retries;
+		private long deadLettered;
+		private long deadlinesMet;
+		private long deadlinesMissed;
+		private long infeasible;
+		private long timedOut;
+		private long cancelled;
+		private Distribution wait = EMPTY;
+		private Distribution run = EMPTY;
+		private long[] lengthBands = new long[0];
+		private Distribution[] waitByLength;
+		private int[] busyWorkers = new int[0];
+		private int[] workers = new int[0];
+
+		/**
+		 * @param timestamp milliseconds since the epoch when taken
+		 */
+		public Builder(long timestamp)
+		{
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * @param done number of jobs completed
+		 */
+		public Builder setDone(long done)
+		{
+			this.done = done;
+			return this;
+		}
+
+		/**
+		 * @param notDone number of jobs that failed or were abandoned
+		 */
+		public Builder setNotDone(long notDone)
+		{
+			this.notDone = notDone;
+			return this;
+		}
+
+		/**
+		 * @param retries number of failed jobs enqueued again
+		 */
+		public Builder setRetries(long retries)
+		{
+			this.retries = retries;
+			return this;
+		}
+
+		/**
+		 * @param deadLettered number of failed jobs given up on
+		 */
+		public Builder setDeadLettered(long deadLettered)
+		{
+			this.deadLettered = deadLettered;
+			return this;
+		}
+
+		/**
+		 * @param met number of jobs with a deadline done by it
+		 * @param missed number of jobs with a deadline done after it
+		 * @param infeasible number of jobs deprioritized because they could
+		 *	no longer meet their deadline
+		 */
+		public Builder setDeadlines(long met, long missed, long infeasible)
+		{
+			this.deadlinesMet = met;
+			this.deadlinesMissed = missed;
+			this.infeasible = infeasible;
+			return this;
+		}
+
+		/**
+		 * @param timedOut number of jobs interrupted for running too long
+		 */
+		public Builder setTimedOut(long timedOut)
+		{
+			this.timedOut = timedOut;
+			return this;
+		}
+
+		/**
+		 * @param cancelled number of jobs cancelled
+		 */
+		public Builder setCancelled(long cancelled)
+		{
+			this.cancelled = cancelled;
+			return this;
+		}
+
+		/**
+		 * @param wait enqueue-to-dispatch time distribution
+		 * @param run doWork() duration distribution
+		 */
+		public Builder setDistributions(Distribution wait, Distribution run)
+		{
+			this.wait = wait;
+			this.run = run;
+			return this;
+		}
+
+		/**
+		 * @param lengthBands inclusive upper work length limit of each band
+		 *	but the last, ascending
+		 * @param waitByLength enqueue-to-dispatch time distribution of each
+		 *	work length band; one more than lengthBands
+		 * @throws IllegalArgumentException if the lengths do not match
+		 */
+		public Builder setWaitByLength(long[] lengthBands,
+			Distribution[] waitByLength)
+		{
+			if (waitByLength.length != lengthBands.length + 1)
+			{
+				throw new IllegalArgumentException("need one more wait " +
+					"distribution than length bands");
+			}
+			this.lengthBands = lengthBands;
+			this.waitByLength = waitByLength;
+			return this;
+		}
+
+		/**
+		 * @param busyWorkers busy workers per manager, indexed by manager ID
+		 * @param workers workers per manager, indexed by manager ID
+		 */
+		public Builder setWorkers(int[] busyWorkers, int[] workers)
+		{
+			this.busyWorkers = busyWorkers;
+			this.workers = workers;
+			return this;
+		}
+
+		/**
+		 * @return a snapshot of the values set; arrays are copied
+		 */
+		public MetricsSnapshot build()
+		{
+			return new MetricsSnapshot(this);
+		}
+	}
+
+	/**
+	 * Summary of a recorded distribution of durations.
+	 */
+	public static class Distribution
+	{
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long max;
+
+		public Distribution(long count, double mean, long p50, long p90,
+			long p99, long max)
+		{
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public double getMean()
+		{
+			return mean;
+		}
+
+		public long getP50()
+		{
+			return p50;
+		}
+
+		public long getP90()
+		{
+			return p90;
+		}
+
+		public long getP99()
+		{
+			return p99;
+		}
+
+		public long getMax()
+		{
+			return max;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format("[n=%d mean=%.3fms p50=%.3fms p90=%.3fms " +
+				"p99=%.3fms max=%.3fms]", count, mean / 1e6, p50 / 1e6,
+				p90 / 1e6, p99 / 1e6, max / 1e6);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package ssimwave.job;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a publisher retries Work whose doWork() throws.  Each retry waits an
+ * exponentially growing, jittered delay before the work is enqueued again;
+ * once the retries are used up the work moves to the dead-letter queue.
+ */
+public class RetryPolicy
+{
+	/**
+	 * Default number of times failed work is retried
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+
+	/**
+	 * Default delay before the first retry
+	 */
+	public static final long DEFAULT_INITIAL_DELAY_MILLIS = 100;
+
+	/**
+	 * Default limit on the delay between retries
+	 */
+	public static final long DEFAULT_MAX_DELAY_MILLIS = 30 * 1000;
+
+	private final int maxRetries;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+
+	public RetryPolicy()
+	{
+		this(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_DELAY_MILLIS,
+			DEFAULT_MAX_DELAY_MILLIS);
+	}
+
+	/**
+	 * @param maxRetries times failed work is retried before it is dead
+	 *	lettered; 0 to never retry
+	 * @param initialDelayMillis delay before the first retry; doubled for
+	 *	each further retry
+	 * @param maxDelayMillis limit on the delay between retries
+	 * @throws IllegalArgumentException if any value is negative
+	 */
+	public RetryPolicy(int maxRetries, long initialDelayMillis,
+		long maxDelayMillis)
+	{
+		if (maxRetries < 0 || initialDelayMillis < 0 || maxDelayMillis < 0)
+		{
+			throw new IllegalArgumentException("negative retry setting");
+		}
+		this.maxRetries = maxRetries;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public int getMaxRetries()
+	{
+		return maxRetries;
+	}
+
+	public long getInitialDelayMillis()
+	{
+		return initialDelayMillis;
+	}
+
+	public long getMaxDelayMillis()
+	{
+		return maxDelayMillis;
+	}
+
+	/**
+	 * @param retry the retry about to be scheduled, starting at 1
+	 * @return delay before the retry: between half and all of
+	 *	initialDelayMillis * 2^(retry - 1), capped at maxDelayMillis.  The
+	 *	jitter spreads out retries of work that failed together
+	 */
+	public long delayMillis(int retry)
+	{
+		int shift = Math.min(Math.max(0, retry - 1), 62);
+		long delay = initialDelayMillis > maxDelayMillis >> shift ?
+			maxDelayMillis : initialDelayMillis << shift;
+		long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+}
@@ -0,0 +1,16 @@
+package ssimwave.job;
+
+/**
+ * Work with its own time limit.  Work still running when its limit is up is
+ * interrupted, and once doWork() returns it is treated as failed with a
+ * java.util.concurrent.TimeoutException, so it is retried like any other
+ * failure.  Other Work runs under
+ * JobPublisherOptions.getJobTimeoutMillis().
+ */
+public interface TimeLimitedWork extends Work
+{
+	/**
+	 * @return milliseconds doWork() may run for; 0 for no limit
+	 */
+	public long getTimeoutMillis();
+}
@@ -0,0 +1,27 @@
+package ssimwave.job;
+
+/**
+ * Converts Work to and from a primitive payload so that it can be queued
+ * outside the Java heap, journaled, checkpointed to a snapshot and sent to
+ * remote nodes.  The Work's ID is stored separately.
+ */
+public interface WorkCodec
+{
+	/**
+	 * @return true if work can be rebuilt by decode() from its payload
+	 */
+	public boolean canEncode(Work work);
+
+	/**
+	 * @param work work for which canEncode() returned true
+	 * @return payload from which decode() rebuilds equivalent work
+	 */
+	public long encode(Work work);
+
+	/**
+	 * @param payload as returned by encode()
+	 * @param id the ID to assign the rebuilt work
+	 * @return newly created work
+	 */
+	public Work decode(long payload, int id);
+}
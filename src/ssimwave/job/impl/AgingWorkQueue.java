@@ -0,0 +1,84 @@
+package ssimwave.job.impl;
+
+import ssimwave.job.Work;
+
+/**
+ * WorkQueue that raises the priority of work the longer it waits, so that
+ * short work is not starved by a steady stream of long work.  Work waiting
+ * for t seconds is ordered as if its key were key + agingRate * t.  Since
+ * every waiting item ages at the same rate, that order equals the order of
+ * key - agingRate * (enqueue time), which is fixed when the work is
+ * enqueued; so the wrapped queue keeps its own cost per operation and
+ * nothing is ever re-sorted.
+ */
+public class AgingWorkQueue implements WorkQueue
+{
+	private final WorkQueue queue;
+	private final double ratePerNano;
+	private final long start;
+
+	/**
+	 * @param queue queue holding the work, ordered by aged key
+	 * @param agingRate key units a waiting item gains per second; for
+	 *	SleepWork, milliseconds of work length per second waited
+	 * @throws IllegalArgumentException if agingRate is negative
+	 */
+	public AgingWorkQueue(WorkQueue queue, double agingRate)
+	{
+		if (agingRate < 0)
+		{
+			throw new IllegalArgumentException("negative aging rate");
+		}
+		this.queue = queue;
+		this.ratePerNano = agingRate / 1e9;
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key priority of the work; higher keys are removed first
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		long credit = (long)((System.nanoTime() - start) * ratePerNano);
+		long aged = key - credit;
+		queue.put(aged > key ? Long.MIN_VALUE : aged, work);
+	}
+
+	/**
+	 * Remove highest aged key work item.
+	 * @return highest aged key work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		return queue.removeHighest();
+	}
+
+	/**
+	 * Removes the work with the given ID.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		return queue.remove(id);
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+}
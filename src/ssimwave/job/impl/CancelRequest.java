@@ -0,0 +1,61 @@
+package ssimwave.job.impl;
+
+/**
+ * A cancel() call's request that active work be cancelled, through which the
+ * call and the thread reporting the work agree on whether it was: cancel()
+ * returns true exactly when the work ends up cancelled.  The call either
+ * promises the request will be honored, when there is no run for it to stop,
+ * or withdraws it; the reporting thread settles it, honoring or disregarding
+ * it unless it was withdrawn first.
+ */
+final class CancelRequest
+{
+	private static final int PENDING = 0;
+	private static final int PROMISED = 1; // to be honored
+	private static final int WITHDRAWN = 2;
+	private static final int HONORED = 3;
+	private static final int DISREGARDED = 4;
+
+	// member variables to be accessed when synchronized
+	private int state;
+
+	CancelRequest()
+	{
+		state = PENDING;
+	}
+
+	/**
+	 * Promises the request will be honored unless it was already disregarded;
+	 * called by cancel() when there is no run to stop.
+	 * @return true if the work is or will be cancelled
+	 */
+	synchronized boolean promise()
+	{
+		if (state == PENDING) state = PROMISED;
+		return state != DISREGARDED;
+	}
+
+	/**
+	 * Withdraws the request unless it was already settled; called by cancel()
+	 * when the run could not be stopped.
+	 * @return true if the request was honored all the same
+	 */
+	synchronized boolean withdraw()
+	{
+		if (state == PENDING) state = WITHDRAWN;
+		return state == HONORED;
+	}
+
+	/**
+	 * Settles the request; called for the work once it is no longer active,
+	 * or is not to be started.  A promised request is honored regardless.
+	 * @param honor whether to honor a request neither promised nor withdrawn
+	 * @return true if the request is honored, now or already
+	 */
+	synchronized boolean settle(boolean honor)
+	{
+		if (state == PENDING) state = honor ? HONORED : DISREGARDED;
+		else if (state == PROMISED) state = HONORED;
+		return state == HONORED;
+	}
+}
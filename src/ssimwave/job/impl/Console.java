@@ -0,0 +1,168 @@
+package ssimwave.job.impl;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisher.ShutdownMode;
+import ssimwave.job.Work;
+import ssimwave.util.Logger;
+
+/**
+ * Console behind JobPublisher.runLoop(), reading commands from standard
+ * input: a number of SleepWork jobs to enqueue, 'c<id>' to cancel a job, 'm'
+ * to print metrics, 'd' to toggle debug logging, and 'q' or 'f' to shut down
+ * by draining or stopping pending jobs.  Publishers supply how jobs are
+ * enqueued.
+ */
+abstract class Console
+{
+	private static final int MAX_WORK_TIME_MILLIS = 5 * 1000;
+
+	private final JobPublisher publisher;
+	private final Random random;
+
+	/**
+	 * @param publisher the publisher commands apply to
+	 */
+	Console(JobPublisher publisher)
+	{
+		this.publisher = publisher;
+		random = new Random(System.currentTimeMillis());
+	}
+
+	/**
+	 * Enqueues work without completion handles and wakes managers for it.
+	 * @param works the work to enqueue
+	 */
+	abstract void enqueue(List<Work> works);
+
+	/**
+	 * Kills the publisher when standard input cannot be read.
+	 */
+	abstract void kill();
+
+	/**
+	 * @return where jobs not done by a shutdown are kept, for the user; null
+	 *	if they are not kept
+	 */
+	abstract String getNotDoneLocation();
+
+	/**
+	 * Runs a loop that will keep inputting integer values pertaining to the
+	 * number of jobs to add to the queue which will take a randomized amount
+	 * of time between 1 and 5 seconds. Entering 'q' will result in exiting
+	 * the loop and returning once the pending jobs are done, and 'f' in
+	 * returning once running jobs are interrupted and pending jobs
+	 * checkpointed.
+	 */
+	void run()
+	{
+		BufferedReader br = new BufferedReader(new InputStreamReader(
+			System.in));
+		String input = "";
+		int jobs;
+
+		for (;;)
+		{
+			// input number of jobs from user
+			System.out.println("Please enter jobs to request: ");
+			try
+			{
+				input = br.readLine();
+			}
+			catch(IOException ioe)
+			{
+				Logger.throwable(
+					"An I/O Exception has occurred during user input: ", ioe);
+				kill();
+				break;
+			}
+
+			// check if we should quit out nicely
+			if ("q".equals(input) || "f".equals(input))
+			{
+				ShutdownMode mode = "q".equals(input) ? ShutdownMode.DRAIN :
+					ShutdownMode.FAST;
+				Logger.info("User requested to quit: %s", mode);
+				System.out.println(mode == ShutdownMode.DRAIN ?
+					"Finishing pending jobs..." : "Stopping jobs...");
+				int left = publisher.shutdown(mode).join(); // BLOCKING: shutting down
+				String location = getNotDoneLocation();
+				System.out.println(left == 0 ? "All jobs done" :
+					left + " jobs not done" + (location != null ? ", " +
+					location : ""));
+				break;
+			}
+			else if ("d".equals(input))
+			{
+				Logger.setDebug(!Logger.getDebug());
+				continue;
+			}
+			else if ("m".equals(input))
+			{
+				System.out.println(publisher.getMetrics());
+				continue;
+			}
+			else if (input != null && input.startsWith("c"))
+			{
+				try
+				{
+					int jobId = Integer.parseInt(input.substring(1).trim());
+					System.out.println(publisher.cancel(jobId) ?
+						"Cancelled job " + jobId :
+						"Job " + jobId + " is not queued or running");
+				}
+				catch(NumberFormatException nfe)
+				{
+					System.out.println("Invalid job ID, must be c<number>.");
+				}
+				continue;
+			}
+
+			// pass on the number of jobs to the publisher
+			try
+			{
+				jobs = Integer.parseInt(input);
+				if (jobs <= 0)
+				{
+					System.out.println("Number must be greater than 0");
+					continue;
+				}
+			}
+			catch(NumberFormatException nfe)
+			{
+				System.out.println(
+					"Invalid input, must be a number (base 10).");
+				continue;
+			}
+
+			// enqueue jobs
+			Logger.info("User requested %d jobs", jobs);
+			enqueueJobs(jobs);
+		}
+	}
+
+	/**
+	 * @param numberOfJobsToEnqueue number of jobs to enqueue with a randomly
+	 *	assigned work time between 0 and 5 seconds
+	 */
+	private void enqueueJobs(int numberOfJobsToEnqueue)
+	{
+		List<Work> works = new ArrayList<Work>(numberOfJobsToEnqueue);
+		for (int i = 0 ; i < numberOfJobsToEnqueue ; i++)
+		{
+			works.add(new SleepWork(1 + random.nextInt(MAX_WORK_TIME_MILLIS)));
+		}
+		enqueue(works);
+		for (Work work : works)
+		{
+			Logger.info("SleepWork[%d,%d] enqueued", work.getId(),
+				work.getWorkLength());
+		}
+	}
+}
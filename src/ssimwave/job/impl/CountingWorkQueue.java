@@ -0,0 +1,87 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ssimwave.job.Work;
+
+/**
+ * WorkQueue that counts the work it holds, so that the shards of a
+ * ShardedJobPublisher can compare backlogs, and elastic managers size their
+ * pools by the backlog, without walking the queue.
+ * The count is one atomic update per put or removal on top of the wrapped
+ * queue, and briefly trails a put in progress.
+ */
+public class CountingWorkQueue implements WorkQueue
+{
+	private final WorkQueue queue;
+	private final AtomicInteger size;
+
+	/**
+	 * @param queue queue holding the work
+	 */
+	public CountingWorkQueue(WorkQueue queue)
+	{
+		this.queue = queue;
+		size = new AtomicInteger(0);
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key priority of the work; higher keys are removed first
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		queue.put(key, work);
+		size.incrementAndGet();
+	}
+
+	/**
+	 * Remove largest key value work item.
+	 * @return largest key value work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		Work work = queue.removeHighest();
+		if (work != null) size.decrementAndGet();
+		return work;
+	}
+
+	/**
+	 * Removes the work with the given ID.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		Work work = queue.remove(id);
+		if (work != null) size.decrementAndGet();
+		return work;
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+
+	/**
+	 * @return number of work items queued; may briefly be negative while a
+	 *	put races the removal of the same work
+	 */
+	public int size()
+	{
+		return size.get();
+	}
+}
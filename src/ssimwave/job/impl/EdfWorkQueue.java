@@ -0,0 +1,207 @@
+package ssimwave.job.impl;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import ssimwave.job.DeadlineWork;
+import ssimwave.job.Work;
+import ssimwave.util.StripedLongMap;
+
+/**
+ * Lock-free earliest-deadline-first queue of Work.  The key Work is enqueued
+ * with is ignored; Work is ordered by DeadlineWork.getDeadline(), then by ID,
+ * and Work without a deadline follows all Work with one.  When dispatched,
+ * Work that can no longer finish by its deadline, taking getWorkLength() as
+ * its run time in milliseconds, is deprioritized behind all Work that still
+ * can, so one late job does not make the jobs behind it late too.  Work is
+ * thus dispatched feasible first, then late, then without a deadline.  Work
+ * removed by ID is claimed, as in FifoWorkQueue, so that work moving from
+ * feasible to late is neither missed by remove(id) nor dispatched once
+ * removed.
+ */
+public class EdfWorkQueue implements WorkQueue
+{
+	private ConcurrentSkipListMap<DeadlineKey,Work> feasible;
+	private ConcurrentSkipListMap<DeadlineKey,Work> late;
+	private ConcurrentSkipListMap<DeadlineKey,Work> unbounded; // no deadline
+	private StripedLongMap<DeadlineKey> keys; // by ID, for remove(id)
+	private JobMetrics metrics;
+
+	public EdfWorkQueue()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param metrics records the time work spends in the queue and work
+	 *	deprioritized for missing its deadline; may be null
+	 */
+	public EdfWorkQueue(JobMetrics metrics)
+	{
+		feasible = new ConcurrentSkipListMap<DeadlineKey,Work>();
+		late = new ConcurrentSkipListMap<DeadlineKey,Work>();
+		unbounded = new ConcurrentSkipListMap<DeadlineKey,Work>();
+		keys = new StripedLongMap<DeadlineKey>();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key ignored; work is ordered by deadline
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		DeadlineKey deadlineKey = new DeadlineKey(deadlineOf(work), work,
+			metrics == null ? 0 : System.nanoTime());
+		keys.put(deadlineKey.id, deadlineKey);
+		if (deadlineKey.deadline == Long.MAX_VALUE) unbounded.put(deadlineKey, work);
+		else feasible.put(deadlineKey, work);
+	}
+
+	/**
+	 * Remove the work with the earliest deadline that can still be met, or
+	 * if there is none, the late work with the earliest deadline, or if
+	 * there is none, the work without a deadline enqueued first.
+	 * @return earliest deadline work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		long now = 0;
+		Map.Entry<DeadlineKey,Work> entry;
+		while ((entry = feasible.pollFirstEntry()) != null)
+		{
+			DeadlineKey key = entry.getKey();
+			if (key.isClaimed()) continue; // removed by ID
+			if (now == 0) now = System.currentTimeMillis();
+			if (now + entry.getValue().getWorkLength() <= key.deadline)
+			{
+				if (key.claim()) break;
+				continue;
+			}
+			late.put(key, entry.getValue());
+			if (metrics != null) metrics.recordInfeasible();
+		}
+		if (entry == null) entry = pollUnclaimed(late);
+		if (entry == null) entry = pollUnclaimed(unbounded);
+		if (entry == null) return null;
+		keys.remove(entry.getKey().id, entry.getKey());
+		if (metrics != null)
+		{
+			metrics.recordWait(System.nanoTime() - entry.getKey().enqueued,
+				entry.getValue().getWorkLength());
+		}
+		return entry.getValue();
+	}
+
+	/**
+	 * Removes the work with the given ID, whether or not it can still meet
+	 * its deadline.  Work being moved from feasible to late is claimed all
+	 * the same, and dropped once it reaches the head of late.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		DeadlineKey key = keys.remove(id);
+		if (key == null || !key.claim()) return null;
+		if (feasible.remove(key) == null && late.remove(key) == null)
+		{
+			unbounded.remove(key);
+		}
+		return key.work;
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return feasible.isEmpty() && late.isEmpty() && unbounded.isEmpty();
+	}
+
+	/**
+	 * @return the first entry of map that this call claimed, skipping work
+	 *	removed by ID, or null if there is none
+	 */
+	private static Map.Entry<DeadlineKey,Work> pollUnclaimed(
+		ConcurrentSkipListMap<DeadlineKey,Work> map)
+	{
+		for (;;)
+		{
+			Map.Entry<DeadlineKey,Work> entry = map.pollFirstEntry();
+			if (entry == null || entry.getKey().claim()) return entry;
+		}
+	}
+
+	/**
+	 * @return the work's deadline, looking through the wrapper of submitted
+	 *	work; Long.MAX_VALUE if it has none
+	 */
+	static long deadlineOf(Work work)
+	{
+		if (work instanceof SubmittedWork) work = ((SubmittedWork)work).getWork();
+		return work instanceof DeadlineWork ?
+			((DeadlineWork)work).getDeadline() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Composite (deadline, id) ordering; earliest deadline first, then lowest
+	 * id.  The work and its enqueue time are carried along but not compared.
+	 * Whoever takes the work out of the queue, by dispatching or removing it
+	 * by ID, claims it first; only one can.
+	 */
+	private static final class DeadlineKey implements Comparable<DeadlineKey>
+	{
+		private static final AtomicIntegerFieldUpdater<DeadlineKey> CLAIMED =
+			AtomicIntegerFieldUpdater.newUpdater(DeadlineKey.class, "claimed");
+
+		private final long deadline;
+		private final int id;
+		private final Work work;
+		private final long enqueued;
+		private volatile int claimed;
+
+		DeadlineKey(long deadline, Work work, long enqueued)
+		{
+			this.deadline = deadline;
+			this.id = work.getId();
+			this.work = work;
+			this.enqueued = enqueued;
+		}
+
+		/**
+		 * @return true if this call claimed the work
+		 */
+		boolean claim()
+		{
+			return CLAIMED.compareAndSet(this, 0, 1);
+		}
+
+		/**
+		 * @return true if the work was claimed
+		 */
+		boolean isClaimed()
+		{
+			return claimed != 0;
+		}
+
+		public int compareTo(DeadlineKey other)
+		{
+			if (deadline != other.deadline) return deadline < other.deadline ? -1 : 1;
+			if (id != other.id) return id < other.id ? -1 : 1;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import ssimwave.job.Work;
+import ssimwave.util.StripedLongMap;
+
+/**
+ * Lock-free first-in, first-out queue of Work.  The key Work is enqueued
+ * with is ignored, so enqueuing and dispatching are O(1).  Work removed by ID
+ * is found through an index and claimed in place, and is dropped when it
+ * reaches the head of the queue.
+ */
+public class FifoWorkQueue implements WorkQueue
+{
+	private ConcurrentLinkedQueue<QueuedWork> queue;
+	private StripedLongMap<QueuedWork> index; // by ID, for remove(id)
+	private JobMetrics metrics;
+
+	public FifoWorkQueue()
+	{
+		this(null);
+	}
+
+	/**
+	 * @param metrics records the time work spends in the queue; may be null
+	 */
+	public FifoWorkQueue(JobMetrics metrics)
+	{
+		queue = new ConcurrentLinkedQueue<QueuedWork>();
+		index = new StripedLongMap<QueuedWork>();
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key ignored; work is dispatched in the order it is enqueued
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		QueuedWork queued = new QueuedWork(work,
+			metrics == null ? 0 : System.nanoTime());
+		index.put(work.getId(), queued);
+		queue.add(queued);
+	}
+
+	/**
+	 * Remove the work enqueued first.
+	 * @return oldest work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		QueuedWork queued;
+		do
+		{
+			queued = queue.poll();
+			if (queued == null) return null;
+		}
+		while (!queued.claim()); // skip work removed by ID
+		index.remove(queued.work.getId(), queued);
+		if (metrics != null)
+		{
+			metrics.recordWait(System.nanoTime() - queued.enqueued,
+				queued.work.getWorkLength());
+		}
+		return queued.work;
+	}
+
+	/**
+	 * Removes the work with the given ID in O(1); its entry is claimed now
+	 * and dropped when it reaches the head of the queue.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		QueuedWork queued = index.remove(id);
+		return queued != null && queued.claim() ? queued.work : null;
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+
+	/**
+	 * Work with the time it was enqueued.  Whoever takes it out of the queue,
+	 * by dispatching or removing it by ID, claims it first; only one can.
+	 */
+	static final class QueuedWork
+	{
+		private static final AtomicIntegerFieldUpdater<QueuedWork> CLAIMED =
+			AtomicIntegerFieldUpdater.newUpdater(QueuedWork.class, "claimed");
+
+		final Work work;
+		final long enqueued;
+		private volatile int claimed;
+
+		QueuedWork(Work work, long enqueued)
+		{
+			this.work = work;
+			this.enqueued = enqueued;
+		}
+
+		/**
+		 * @return true if this call claimed the work
+		 */
+		boolean claim()
+		{
+			return CLAIMED.compareAndSet(this, 0, 1);
+		}
+
+		/**
+		 * @return true if the work was claimed
+		 */
+		boolean isClaimed()
+		{
+			return claimed != 0;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free stack of idle worker indices with O(1) push and pop.  The head
+ * packs a modification stamp with the top index so that a pop racing with a
+ * pop and push of the same index (ABA) is detected.
+ */
+public class IdleWorkerStack
+{
+	private static final int EMPTY = -1;
+	private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+	private final AtomicLong head;
+	private final AtomicIntegerArray next;
+
+	/**
+	 * @param capacity the number of workers; indices range from 0 to
+	 *	capacity - 1
+	 */
+	public IdleWorkerStack(int capacity)
+	{
+		head = new AtomicLong(pack(0, EMPTY));
+		next = new AtomicIntegerArray(capacity);
+	}
+
+	/**
+	 * Marks a worker as idle.  A worker must not be pushed twice without
+	 * being popped in between.
+	 * @param index the worker's index
+	 */
+	public void push(int index)
+	{
+		for (;;)
+		{
+			long current = head.get();
+			next.set(index, indexOf(current));
+			if (head.compareAndSet(current, pack(stampOf(current) + 1, index)))
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Claims an idle worker.
+	 * @return the claimed worker's index, or -1 if no worker is idle
+	 */
+	public int pop()
+	{
+		for (;;)
+		{
+			long current = head.get();
+			int index = indexOf(current);
+			if (index == EMPTY) return EMPTY;
+			int below = next.get(index);
+			if (head.compareAndSet(current, pack(stampOf(current) + 1, below)))
+			{
+				return index;
+			}
+		}
+	}
+
+	/**
+	 * @return true if no worker is idle
+	 */
+	public boolean isEmpty()
+	{
+		return indexOf(head.get()) == EMPTY;
+	}
+
+	private static long pack(int stamp, int index)
+	{
+		return ((long)stamp << 32) | (index & INDEX_MASK);
+	}
+
+	private static int stampOf(long packed)
+	{
+		return (int)(packed >>> 32);
+	}
+
+	private static int indexOf(long packed)
+	{
+		return (int)packed;
+	}
+}
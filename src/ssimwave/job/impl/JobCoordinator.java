@@ -0,0 +1,557 @@
+package ssimwave.job.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
+import ssimwave.util.Logger;
+
+/**
+ * Manager that leases work to RemoteNode processes over TCP, so that one
+ * publisher's work runs on many hosts.  A single thread serves every node
+ * through a non-blocking Selector:
+ *	- a node announces its workers and grants credit for as many jobs as it
+ *	  can take; the coordinator claims up to that many from the publisher
+ *	  and sends them in one frame
+ *	- a node reports completions in batches, granting credit again
+ *	- every frame from a node renews its lease; a node not heard from for a
+ *	  whole lease, or whose connection closes, is dropped and the jobs it
+ *	  holds are requeued
+ * Only work the codec can encode is leased; other work fails.  A leased job
+ * that is cancelled is not interrupted, but finished as cancelled whatever
+ * the node reports.  See RemoteProtocol for the frames.
+ */
+public class JobCoordinator extends JobManager
+{
+	private static final int MAX_LEASE_BATCH = 1024;
+
+	private final JobPublisherImpl jobPublisher;
+	private final WakeupScheduler scheduler;
+	private final JobMetrics metrics;
+	private final WorkCodec codec;
+	private final int id;
+	private final long leaseMillis;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Thread thread;
+	private volatile boolean kill;
+
+	// written by the coordinator thread only
+	private volatile int capacity; // workers on every node
+	private volatile int credit; // jobs nodes can take
+
+	// member variables to only be accessed by the coordinator thread
+	private final List<Node> nodes;
+	private final List<Work> batch;
+	private int nextNodeId;
+
+	/**
+	 * Listens for nodes on every local address.
+	 * @param jobPublisher the owner and publisher to receive Work from and
+	 *	report to Work done.
+	 * @param port port to listen on; 0 for any free port
+	 * @param leaseMillis time a node may go unheard before its jobs are
+	 *	requeued
+	 * @param codec encodes work sent to nodes, which decode it alike
+	 * @param id the associated ID for this manager
+	 * @throws IOException if the port cannot be listened on
+	 */
+	public JobCoordinator(JobPublisherImpl jobPublisher, int port,
+		long leaseMillis, WorkCodec codec, int id) throws IOException
+	{
+		this.jobPublisher = jobPublisher;
+		this.scheduler = jobPublisher.getWakeupScheduler();
+		this.metrics = jobPublisher.getJobMetrics();
+		this.codec = codec;
+		this.id = id;
+		this.leaseMillis = leaseMillis;
+		kill = false;
+		capacity = 0;
+		credit = 0;
+		nodes = new ArrayList<Node>();
+		batch = new ArrayList<Work>(MAX_LEASE_BATCH);
+		nextNodeId = 0;
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		try
+		{
+			server.bind(new InetSocketAddress(port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		catch (IOException ioe)
+		{
+			server.close();
+			selector.close();
+			throw ioe;
+		}
+		Logger.info("Manager[%d] coordinating nodes on port %d", id, getPort());
+		thread = new Thread(this, "Coordinator");
+		thread.start();
+	}
+
+	/**
+	 * @return the port nodes connect to
+	 */
+	public int getPort()
+	{
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops serving nodes; their jobs are returned to the publisher.
+	 */
+	@Override
+	public void kill()
+	{
+		kill = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * @return Manager's assigned ID
+	 * @Override JobManager
+	 */
+	@Override
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return workers on every node less the jobs they can still take
+	 * @Override JobManager
+	 */
+	@Override
+	public int getBusyWorkers()
+	{
+		return capacity - credit;
+	}
+
+	/**
+	 * @return workers on every connected node
+	 * @Override JobManager
+	 */
+	@Override
+	public int getNumberOfWorkers()
+	{
+		return capacity;
+	}
+
+	/**
+	 * Wakes the coordinator's thread to lease new work.
+	 * @Override JobManager
+	 */
+	@Override
+	public void workAvailable()
+	{
+		selector.wakeup();
+	}
+
+	/**
+	 * Thread runs, serving nodes, until killed.
+	 * @Override Runnable
+	 */
+	@Override
+	public void run()
+	{
+		long checkNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis) / 4;
+		long nextCheck = System.nanoTime() + checkNanos;
+		try
+		{
+			while (!kill)
+			{
+				lease();
+
+				long now = System.nanoTime();
+				if (now - nextCheck >= 0)
+				{
+					expireLeases(now);
+					nextCheck = now + checkNanos;
+				}
+
+				// with credit left, register for wakeups and then recheck
+				// for work enqueued before registering
+				if (credit > 0)
+				{
+					scheduler.idle(this);
+					if (jobPublisher.hasWork()) continue;
+				}
+
+				// BLOCKING: waiting for nodes, new work or a lease check
+				selector.select(Math.max(1,
+					TimeUnit.NANOSECONDS.toMillis(nextCheck - now)));
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable())
+					{
+						accept();
+						continue;
+					}
+					Node node = (Node)key.attachment();
+					if (key.isReadable()) read(node);
+					if (key.isValid() && key.isWritable()) flush(node);
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			Logger.throwable("Manager[%d]", t, id);
+		}
+		finally
+		{
+			for (Node node : new ArrayList<Node>(nodes))
+			{
+				drop(node, "disconnected by shutdown");
+			}
+			try
+			{
+				server.close();
+				selector.close();
+			}
+			catch (IOException ioe)
+			{
+				Logger.throwable("Manager[%d] failed to close: ", ioe, id);
+			}
+		}
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = server.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Node node = new Node(nextNodeId++, channel);
+		node.key = channel.register(selector, SelectionKey.OP_READ, node);
+		nodes.add(node);
+		Logger.info("Node[%d] connected from %s", node.id,
+			channel.getRemoteAddress());
+	}
+
+	/**
+	 * Claims work for every node with credit and sends it as one frame per
+	 * node.  Work that cannot be sent is finished without being leased.
+	 */
+	private void lease()
+	{
+		for (int n = 0 ; n < nodes.size() && credit > 0 ; n++)
+		{
+			Node node = nodes.get(n);
+			if (node.credit == 0) continue;
+			if (jobPublisher.getWork(Math.min(node.credit, MAX_LEASE_BATCH),
+				batch) == 0)
+			{
+				return;
+			}
+
+			ByteBuffer out = node.reserve(9 + batch.size() * RemoteProtocol.JOB);
+			int start = out.position();
+			out.position(start + 9); // length, type and count follow
+			int sent = 0;
+			for (Work work : batch)
+			{
+				Work inner = work instanceof SubmittedWork ?
+					((SubmittedWork)work).getWork() : work;
+				if (jobPublisher.honorCancelRequest(work.getId()))
+				{
+					jobPublisher.workNotDone(work, new CancellationException(
+						"Work[" + work.getId() + "] cancelled"));
+					continue;
+				}
+				if (!codec.canEncode(inner))
+				{
+					jobPublisher.workNotDone(work, new IllegalArgumentException(
+						"Work[" + work.getId() + "] cannot be sent to a node"));
+					continue;
+				}
+				node.leased.put(work.getId(), work);
+				out.putInt(work.getId());
+				out.putLong(codec.encode(inner));
+				sent++;
+			}
+			batch.clear();
+			if (sent == 0)
+			{
+				out.position(start);
+				continue;
+			}
+			out.putInt(start, out.position() - start - 4);
+			out.put(start + 4, RemoteProtocol.JOBS);
+			out.putInt(start + 5, sent);
+			node.credit -= sent;
+			credit -= sent;
+			flush(node);
+			if (node.dropped) n--;
+		}
+	}
+
+	/**
+	 * Drops every node not heard from for a whole lease.
+	 */
+	private void expireLeases(long now)
+	{
+		long leaseNanos = TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+		for (Node node : new ArrayList<Node>(nodes))
+		{
+			if (now - node.lastHeard > leaseNanos)
+			{
+				drop(node, "missed its lease");
+			}
+		}
+	}
+
+	/**
+	 * Reads what the node sent and handles every whole frame.
+	 */
+	private void read(Node node)
+	{
+		try
+		{
+			if (node.channel.read(node.in) < 0)
+			{
+				drop(node, "closed its connection");
+				return;
+			}
+		}
+		catch (IOException ioe)
+		{
+			drop(node, "failed: " + ioe.getMessage());
+			return;
+		}
+		node.lastHeard = System.nanoTime();
+
+		ByteBuffer in = node.in;
+		in.flip();
+		try
+		{
+			while (in.remaining() >= 4)
+			{
+				int length = in.getInt(in.position());
+				if (length < 1 || length > RemoteProtocol.MAX_FRAME)
+				{
+					drop(node, "sent a frame of " + length + " bytes");
+					return;
+				}
+				if (in.remaining() < 4 + length) break;
+				int end = in.position() + 4 + length;
+				in.position(in.position() + 4);
+				handle(node, in.get(), in);
+				if (node.dropped) return;
+				in.position(end);
+			}
+		}
+		catch (RuntimeException re)
+		{
+			drop(node, "sent a malformed frame: " + re);
+			return;
+		}
+		in.compact();
+	}
+
+	private void handle(Node node, byte type, ByteBuffer in)
+	{
+		if (node.workers == 0 && type != RemoteProtocol.HELLO)
+		{
+			drop(node, "did not say hello");
+			return;
+		}
+		switch (type)
+		{
+			case RemoteProtocol.HELLO:
+				int magic = in.getInt();
+				int workers = in.getInt();
+				if (magic != RemoteProtocol.MAGIC || workers < 1 || node.workers != 0)
+				{
+					drop(node, "sent a bad hello");
+					return;
+				}
+				node.workers = workers;
+				capacity += workers;
+				ByteBuffer out = node.reserve(17);
+				out.putInt(13);
+				out.put(RemoteProtocol.WELCOME);
+				out.putInt(node.id);
+				out.putLong(leaseMillis);
+				flush(node);
+				Logger.info("Node[%d] has %d workers", node.id, workers);
+				return;
+			case RemoteProtocol.CREDIT:
+				int jobs = in.getInt();
+				// a node never has more jobs leased or on credit than workers
+				if (jobs < 0 || node.credit + jobs + node.leased.size() > node.workers)
+				{
+					drop(node, "granted credit for " + jobs + " jobs");
+					return;
+				}
+				node.credit += jobs;
+				credit += jobs;
+				return;
+			case RemoteProtocol.DONE:
+				int count = in.getInt();
+				for (int i = 0 ; i < count ; i++)
+				{
+					completed(node, in.getInt(), in.get(), in.getInt());
+				}
+				return;
+			case RemoteProtocol.HEARTBEAT:
+				return;
+			default:
+				drop(node, "sent frame type " + type);
+				return;
+		}
+	}
+
+	/**
+	 * Reports a job the node completed to the publisher; jobs the node no
+	 * longer holds, having been dropped, are ignored.
+	 */
+	private void completed(Node node, int jobId, byte status, int runMicros)
+	{
+		Work work = node.leased.remove(jobId);
+		if (work == null) return;
+		metrics.recordRun(TimeUnit.MICROSECONDS.toNanos(runMicros));
+		if (jobPublisher.honorCancelRequest(jobId))
+		{
+			jobPublisher.workNotDone(work, new CancellationException(
+				"Work[" + jobId + "] cancelled"));
+		}
+		else if (status == RemoteProtocol.COMPLETED)
+		{
+			jobPublisher.workDone(work);
+		}
+		else
+		{
+			jobPublisher.workNotDone(work, new RuntimeException("Work[" +
+				jobId + "] failed on Node[" + node.id + "]"));
+		}
+	}
+
+	/**
+	 * Writes as much of the node's pending output as the socket takes, and
+	 * waits for it to take the rest.
+	 */
+	private void flush(Node node)
+	{
+		ByteBuffer out = node.out;
+		out.flip();
+		try
+		{
+			node.channel.write(out);
+		}
+		catch (IOException ioe)
+		{
+			out.compact();
+			drop(node, "failed: " + ioe.getMessage());
+			return;
+		}
+		out.compact();
+		if (node.key.isValid())
+		{
+			node.key.interestOps(out.position() > 0 ?
+				SelectionKey.OP_READ | SelectionKey.OP_WRITE :
+				SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * Disconnects the node and requeues the jobs it holds.
+	 */
+	private void drop(Node node, String reason)
+	{
+		if (node.dropped) return;
+		node.dropped = true;
+		nodes.remove(node);
+		node.key.cancel();
+		try
+		{
+			node.channel.close();
+		}
+		catch (IOException ioe)
+		{
+			Logger.throwable("Node[%d] failed to close: ", ioe, node.id);
+		}
+		capacity -= node.workers;
+		credit -= node.credit;
+		if (kill)
+		{
+			Logger.info("Node[%d] %s; returning %d jobs", node.id, reason,
+				node.leased.size());
+		}
+		else
+		{
+			Logger.error("Node[%d] %s; requeueing %d jobs", node.id, reason,
+				node.leased.size());
+		}
+		for (Work work : node.leased.values())
+		{
+			jobPublisher.workNotDone(work, null);
+		}
+		jobPublisher.signalManagers(node.leased.size());
+		node.leased.clear();
+	}
+
+	/**
+	 * A connected node.
+	 */
+	private static final class Node
+	{
+		final int id;
+		final SocketChannel channel;
+		final ByteBuffer in;
+		final Map<Integer, Work> leased; // by ID
+		SelectionKey key;
+		ByteBuffer out; // in write mode; grows while the socket is full
+		int workers; // 0 until the node says hello
+		int credit;
+		long lastHeard;
+		boolean dropped;
+
+		Node(int id, SocketChannel channel)
+		{
+			this.id = id;
+			this.channel = channel;
+			in = ByteBuffer.allocate(RemoteProtocol.BUFFER_SIZE);
+			out = ByteBuffer.allocate(RemoteProtocol.BUFFER_SIZE);
+			leased = new HashMap<Integer, Work>();
+			workers = 0;
+			credit = 0;
+			lastHeard = System.nanoTime();
+			dropped = false;
+		}
+
+		/**
+		 * @return the output buffer with room for bytes more
+		 */
+		ByteBuffer reserve(int bytes)
+		{
+			if (out.remaining() < bytes)
+			{
+				ByteBuffer larger = ByteBuffer.allocate(
+					Math.max(out.capacity() * 2, out.position() + bytes));
+				out.flip();
+				larger.put(out);
+				out = larger;
+			}
+			return out;
+		}
+	}
+}
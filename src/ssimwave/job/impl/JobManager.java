@@ -1,10 +1,33 @@
 package ssimwave.job.impl;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public abstract class JobManager implements Runnable
 {
+	/**
+	 * Set while this manager is registered with the WakeupScheduler
+	 */
+	final AtomicBoolean idleRegistered = new AtomicBoolean(false);
+
 	public abstract void kill();
 	/**
 	 * @return Manager's assigned ID
 	 */
 	public abstract int getId();
-}
\ No newline at end of file
+
+	/**
+	 * @return number of workers currently running work
+	 */
+	public abstract int getBusyWorkers();
+
+	/**
+	 * @return number of workers, or limit on concurrently running work
+	 */
+	public abstract int getNumberOfWorkers();
+
+	/**
+	 * Called by the WakeupScheduler when new work has been enqueued and this
+	 * manager has spare capacity.  Must not block.
+	 */
+	public abstract void workAvailable();
+}
@@ -1,24 +1,39 @@
 package ssimwave.job.impl;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import ssimwave.job.Work;
 import ssimwave.util.Logger;
 
+/**
+ * Manager that runs Work on a ThreadPoolExecutor.  Only as many Work items
+ * leave the publisher as there are free pool threads, so the executor's
+ * bounded queue holds at most numberOfWorkers tasks and the remaining Work
+ * stays in priority order in the publisher.
+ */
 public class JobManagerExecutor extends JobManager
 {
 	private JobPublisherImpl jobPublisher;
-	private ExecutorService executor;
+	private WakeupScheduler scheduler;
+	private ThreadPoolExecutor executor;
 	private int id;
-	private int noWorkers;
+	private Thread thread;
+	private int numberOfWorkers;
 
-	// member variables to only be accessed on synchronized
-	private int busyWorkers;
-	private boolean kill;
+	// incremented only by the manager thread, decremented by pool threads
+	private AtomicInteger inFlight;
+	private AtomicInteger peakInFlight;
+	private volatile boolean kill;
 
 	/**
-	 * 
+	 *
 	 * @param jobPublisher the owner and publisher to receive Work from and
 	 *	report to Work done.
 	 * @param numberOfWorkers the number workers the manager should create
@@ -27,67 +42,82 @@ public class JobManagerExecutor extends JobManager
 	public JobManagerExecutor(JobPublisherImpl jobPublisher, int numberOfWorkers, int id)
 	{
 		this.jobPublisher = jobPublisher;
+		this.scheduler = jobPublisher.getWakeupScheduler();
 		this.id = id;
-		noWorkers = numberOfWorkers;
-		executor = Executors.newFixedThreadPool(numberOfWorkers);
-		busyWorkers = 0;
+		this.numberOfWorkers = numberOfWorkers;
+		// the queue only buffers the hand-over to a thread that is finishing
+		// its previous task; accounting keeps it from ever filling
+		executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers,
+			0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(numberOfWorkers));
+		inFlight = new AtomicInteger(0);
+		peakInFlight = new AtomicInteger(0);
 		kill = false;
-		new Thread(this).start();
+		thread = new Thread(this);
+		thread.start();
 	}
 
 	/**
-	 * Kills manager and all worker threads.
+	 * Kills manager and all worker threads; Work already submitted to the
+	 * executor is allowed to complete.
 	 */
-	public synchronized void kill()
+	@Override
+	public void kill()
 	{
 		kill = true;
 		executor.shutdown();
-		this.notify();
+		LockSupport.unpark(thread);
 	}
 
 	/**
-	 * Thread runs, assigning work to worker, until killed.
-	 * @overrides Runnable.run
+	 * Unparks the manager's thread to claim new work.
+	 * @Override JobManager
 	 */
-	public synchronized void run()
+	@Override
+	public void workAvailable()
 	{
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Thread runs, submitting work to the executor, until killed.
+	 * @Override Runnable
+	 */
+	@Override
+	public void run()
+	{
+		List<Work> batch = new ArrayList<Work>(numberOfWorkers);
 		try
 		{
 			for (;;)
 			{
-				for (;;)
-				{
-					// check if no free workers
-					if (busyWorkers == noWorkers) break;
-
-					// check if there is more work
-					Work work = jobPublisher.getWork();
-					if (work == null) break;
-
-					noWorkers++;
+				if (kill) return; // kill thread
 
-					// find non-busy worker and assign it work
-					executor.execute(new Runnable()
+				// only this thread increments inFlight, so free capacity can
+				// only grow between the check and the submissions
+				int free = numberOfWorkers - inFlight.get();
+				if (free > 0)
+				{
+					jobPublisher.getWork(free, batch);
+					for (Work work : batch)
 					{
-						public void run()
-						{
-							try
-							{
-								work.doWork();
-								workDone(work);
-							}
-							catch(Throwable t)
-							{
-								workNotDone(work, t);
-							}
-						}
-					});
+						execute(work);
+					}
+					batch.clear();
 				}
 
-				Logger.debug(String.format("Manager[%d] waiting", id));
-				this.wait(); // BLOCKING: waiting for new work or free workers
-				Logger.debug(String.format("Manager[%d] woke", id));
-				if (kill) return; // kill thread
+				// with free threads, register for wakeups and then recheck for
+				// work enqueued before registering; when full, the next
+				// release registers instead
+				if (inFlight.get() < numberOfWorkers)
+				{
+					scheduler.idle(this);
+					if (jobPublisher.hasWork()) continue;
+				}
+
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] waiting", id);
+				LockSupport.park(this); // BLOCKING: waiting for new work or free workers
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] woke", id);
 			}
 		}
 		catch(Throwable t)
@@ -96,45 +126,121 @@ public class JobManagerExecutor extends JobManager
 		}
 	}
 
+	private void execute(final Work work)
+	{
+		int count = inFlight.incrementAndGet();
+		if (count > peakInFlight.get()) peakInFlight.set(count);
+		try
+		{
+			executor.execute(new Runnable()
+			{
+				public void run()
+				{
+					Throwable failure = jobPublisher.runWork(work);
+					if (failure == null)
+					{
+						workDone(work);
+					}
+					else
+					{
+						workNotDone(work, failure);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException ree)
+		{
+			// shut down by kill(); return the work unstarted
+			if (!kill)
+			{
+				Logger.error("Manager[%d] executor rejected Work[%d]", id,
+					work.getId());
+			}
+			workNotDone(work, null);
+		}
+	}
+
 	/**
-	 * Called by Workers to indicate last assigned job is complete.
+	 * Called by pool threads to indicate submitted work is complete.
 	 * @param work the work that has been completed
-	 * @param workerId the ID of the worker
 	 */
 	private void workDone(Work work)
 	{
 		jobPublisher.workDone(work);
-		freeWorker();
+		release();
 	}
 
 	/**
-	 * Called by Workers to indicate last assigned job could not be completed.
+	 * Called by pool threads to indicate submitted work could not be
+	 * completed.
 	 * @param work the work that has been completed
 	 * @param t the thrown throwable if thrown during execution
 	 */
 	private void workNotDone(Work work, Throwable t)
 	{
 		jobPublisher.workNotDone(work, t);
-		freeWorker();
+		release();
 	}
 
-	private synchronized void freeWorker()
+	private void release()
 	{
-		if (busyWorkers == 0)
+		int previous = inFlight.getAndDecrement();
+		if (previous <= 0)
 		{
-			Logger.error("JobManagerExecutor.freeWorker found no busy workers");
+			inFlight.incrementAndGet();
+			Logger.error("JobManagerExecutor.release found no busy workers");
 		}
-		else if (noWorkers == busyWorkers--)
+		else if (previous == numberOfWorkers)
 		{
-			notify();
+			// the manager parked without registering while full
+			scheduler.idle(this);
+			if (jobPublisher.hasWork()) LockSupport.unpark(thread);
 		}
 	}
 
+	/**
+	 * @return number of tasks submitted to the executor and not yet finished
+	 * @Override JobManager
+	 */
+	@Override
+	public int getBusyWorkers()
+	{
+		return inFlight.get();
+	}
+
+	/**
+	 * @return number of executor threads
+	 * @Override JobManager
+	 */
+	@Override
+	public int getNumberOfWorkers()
+	{
+		return numberOfWorkers;
+	}
+
 	/**
 	 * @return Manager's assigned ID
+	 * @Override JobManager
 	 */
+	@Override
 	public int getId()
 	{
 		return id;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return most tasks ever submitted to the executor and not yet finished
+	 */
+	int getPeakInFlight()
+	{
+		return peakInFlight.get();
+	}
+
+	/**
+	 * @return number of tasks waiting in the executor's queue
+	 */
+	int getQueuedTasks()
+	{
+		return executor.getQueue().size();
+	}
+}
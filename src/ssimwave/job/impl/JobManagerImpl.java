@@ -1,18 +1,44 @@
 package ssimwave.job.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.ElasticPolicy;
 import ssimwave.job.Work;
 import ssimwave.util.Logger;
 
 public class JobManagerImpl extends JobManager
 {
 	private JobPublisherImpl jobPublisher;
+	private WakeupScheduler scheduler;
 	private Worker[] workers;
 	private int id;
+	private Thread thread;
+	private boolean handoff;
+
+	// idle workers are claimed by the manager thread and released by the
+	// workers without taking the manager's monitor
+	private IdleWorkerStack idleWorkers;
+	private AtomicIntegerArray workersBusy;
+	private AtomicInteger busyWorkers;
+	private volatile int liveWorkers; // only changed by the manager thread
+	private volatile boolean kill;
 
-	// member variables to only be accessed on synchronized
-	private boolean[] workersBusy;
-	private int busyWorkers;
-	private boolean kill;
+	// an elastic pool has workers[] slots up to its maximum, of which only
+	// liveWorkers hold a Worker; only accessed by the manager thread
+	private ElasticPolicy elastic; // null for a fixed pool
+	private long growAfterNanos;
+	private long keepAliveNanos;
+	private int[] freeSlots;
+	private int freeCount;
+	private int nextSlot;
+	private boolean backlogged;
+	private long backlogSince;
+	private long windowStart;
+	private int lowWaterIdle; // fewest idle workers seen since windowStart
 
 	/**
 	 * 
@@ -22,33 +48,105 @@ public class JobManagerImpl extends JobManager
 	 * @param id the associated ID for this manager
 	 */
 	public JobManagerImpl(JobPublisherImpl jobPublisher, int numberOfWorkers, int id)
+	{
+		this(jobPublisher, numberOfWorkers, id, false);
+	}
+
+	/**
+	 * 
+	 * @param jobPublisher the owner and publisher to receive Work from and
+	 *	report to Work done.
+	 * @param numberOfWorkers the number workers the manager should create
+	 * @param id the associated ID for this manager
+	 * @param handoff true if Workers finishing a job claim their next job
+	 *	from the publisher rather than waiting for the manager to assign it
+	 */
+	public JobManagerImpl(JobPublisherImpl jobPublisher, int numberOfWorkers,
+		int id, boolean handoff)
+	{
+		this(jobPublisher, numberOfWorkers, id, handoff, null);
+	}
+
+	/**
+	 * 
+	 * @param jobPublisher the owner and publisher to receive Work from and
+	 *	report to Work done.
+	 * @param numberOfWorkers the number workers the manager should create,
+	 *	or for an elastic pool, the most it may grow to
+	 * @param id the associated ID for this manager
+	 * @param handoff true if Workers finishing a job claim their next job
+	 *	from the publisher rather than waiting for the manager to assign it
+	 * @param elastic how the pool of workers is resized; null for a fixed
+	 *	pool of numberOfWorkers
+	 */
+	public JobManagerImpl(JobPublisherImpl jobPublisher, int numberOfWorkers,
+		int id, boolean handoff, ElasticPolicy elastic)
 	{
 		this.jobPublisher = jobPublisher;
+		this.handoff = handoff;
+		this.scheduler = jobPublisher.getWakeupScheduler();
 		this.id = id;
+		this.elastic = elastic;
 		workers = new Worker[numberOfWorkers];
-		workersBusy = new boolean[workers.length];
-		busyWorkers = 0;
+		idleWorkers = new IdleWorkerStack(workers.length);
+		workersBusy = new AtomicIntegerArray(workers.length);
+		busyWorkers = new AtomicInteger(0);
 		kill = false;
-		for (int i = 0 ; i < workers.length ; i++)
+		int initial = elastic == null ? workers.length :
+			Math.min(elastic.getMinWorkers(), workers.length);
+		for (int i = initial - 1 ; i >= 0 ; i--)
 		{
 			workers[i] = new Worker(this, i);
-			workersBusy[i] = false;
+			idleWorkers.push(i);
 		}
-		new Thread(this).start();
+		liveWorkers = initial;
+		if (elastic != null)
+		{
+			growAfterNanos = elastic.getGrowAfterMillis() * 1000000L;
+			keepAliveNanos = elastic.getKeepAliveMillis() * 1000000L;
+			freeSlots = new int[workers.length];
+			freeCount = 0;
+			nextSlot = initial;
+			backlogged = false;
+			windowStart = System.nanoTime();
+			lowWaterIdle = initial;
+		}
+		thread = new Thread(this);
+		thread.start();
 	}
 
 	/**
 	 * Kills manager and all worker threads.
 	 */
 	@Override
-	public synchronized void kill()
+	public void kill()
 	{
 		kill = true;
+		killWorkers();
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Kills every Worker in the pool.  An elastic pool's manager thread does
+	 * this again on exit, as it may have added Workers not yet visible here.
+	 */
+	private void killWorkers()
+	{
 		for (int i = 0 ; i < workers.length ; i++)
 		{
-			workers[i].kill();
+			Worker worker = workers[i];
+			if (worker != null) worker.kill();
 		}
-		this.notify();
+	}
+
+	/**
+	 * Unparks the manager's thread to claim new work.
+	 * @Override JobManager
+	 */
+	@Override
+	public void workAvailable()
+	{
+		LockSupport.unpark(thread);
 	}
 
 	/**
@@ -56,44 +154,74 @@ public class JobManagerImpl extends JobManager
 	 * @Override Runnable
 	 */
 	@Override
-	public synchronized void run()
+	public void run()
 	{
-		int i;
+		List<Work> batch = new ArrayList<Work>(workers.length);
 		try
 		{
 			for (;;)
 			{
-				for (;;)
+				if (kill) // kill thread
 				{
-					// check if no free workers
-					if (busyWorkers == workers.length) break;
-
-					// check if there is more work
-					Work work = jobPublisher.getWork();
-					if (work == null) break;
+					if (elastic != null) killWorkers();
+					return;
+				}
 
-					// find non-busy worker and assign it work
-					for (i = 0 ; i < workers.length ; i ++ )
+				// claim as much work as there are free workers in one call;
+				// only this thread claims workers, so at least that many are
+				// on the idle stack
+				jobPublisher.getWork(liveWorkers - busyWorkers.get(), batch);
+				for (Work work : batch)
+				{
+					int i = idleWorkers.pop();
+					if (i < 0)
+					{
+						Logger.error("Manager[%d] busyWorkers count out of sync", id);
+						jobPublisher.workNotDone(work, null);
+						continue;
+					}
+					workersBusy.set(i, 1);
+					busyWorkers.incrementAndGet();
+					try
 					{
-						if (workersBusy[i]) continue;
-						workersBusy[i] = true;
-						busyWorkers++;
 						workers[i].assign(work);
-						break;
 					}
-
-					if (i >= workers.length)
+					catch (RuntimeException re)
 					{
-						Logger.error(String.format(
-							"Manager[%d] busyWorkers count out of sync", id));
+						if (!kill) throw re;
+						// killed while dispatching; return the work unstarted
 						jobPublisher.workNotDone(work, null);
 					}
 				}
+				batch.clear();
 
-				Logger.debug(String.format("Manager[%d] waiting", id));
-				this.wait(); // BLOCKING: waiting for new work or free workers
-				Logger.debug(String.format("Manager[%d] woke", id));
-				if (kill) return; // kill thread
+				// an elastic pool parks no longer than its next resize check
+				long resizeNanos = 0;
+				if (elastic != null)
+				{
+					resizeNanos = resize();
+					if (resizeNanos == 0) continue; // grown; assign at once
+				}
+
+				// with free workers, register for wakeups and then recheck
+				// for work enqueued before registering; when full, the next
+				// freeWorker registers instead
+				if (busyWorkers.get() < liveWorkers)
+				{
+					scheduler.idle(this);
+					if (jobPublisher.hasWork()) continue;
+				}
+
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] waiting", id);
+				if (resizeNanos > 0)
+				{
+					LockSupport.parkNanos(this, resizeNanos); // BLOCKING: waiting for new work, free workers or a resize check
+				}
+				else
+				{
+					LockSupport.park(this); // BLOCKING: waiting for new work or free workers
+				}
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] woke", id);
 			}
 		}
 		catch(Throwable t)
@@ -106,12 +234,13 @@ public class JobManagerImpl extends JobManager
 	 * Called by Workers to indicate last assigned job is complete.
 	 * @param work the work that has been completed
 	 * @param workerId the ID of the worker
+	 * @return the Worker's next Work when handing off, otherwise null
 	 * @Override JobManager
 	 */
-	public void workDone(Work work, int workerId)
+	public Work workDone(Work work, int workerId)
 	{
 		jobPublisher.workDone(work);
-		freeWorker(workerId);
+		return nextWork(workerId);
 	}
 
 	/**
@@ -119,42 +248,175 @@ public class JobManagerImpl extends JobManager
 	 * @param work the work that has been completed
 	 * @param workerId the ID of the worker
 	 * @param t the thrown throwable if thrown during execution
+	 * @return the Worker's next Work when handing off, otherwise null
 	 * @Override JobManager
 	 */
-	public void workNotDone(Work work, int workerId, Throwable t)
+	public Work workNotDone(Work work, int workerId, Throwable t)
 	{
 		jobPublisher.workNotDone(work, t);
+		return nextWork(workerId);
+	}
+
+	/**
+	 * When handing off, keeps the Worker busy with the next queued Work so
+	 * that neither the manager nor the Worker waits between jobs; otherwise,
+	 * or when nothing is queued, returns the Worker to the idle stack.
+	 * @return Work the Worker is to run next, or null if it is now free
+	 */
+	private Work nextWork(int workerId)
+	{
+		if (handoff && !kill)
+		{
+			Work next = jobPublisher.getWork();
+			if (next != null) return next;
+		}
 		freeWorker(workerId);
+		return null;
 	}
 
 	private void freeWorker(int workerId)
 	{
 		// check for a valid worker ID
-		if (workerId < 0 || workerId > workers.length)
+		if (workerId < 0 || workerId >= workers.length)
 		{
 			Logger.error("Manager[%d] worker ID is invalid: %d", id, workerId);
 			return;
 		}
 
-		Logger.debug("Manager[%d,%d] synchronizing", id, workerId);
-		synchronized (this)
+		// check that assignment implementation isn't falling over
+		if (!workersBusy.compareAndSet(workerId, 1, 0))
 		{
-			// check that assignment implementation isn't falling over
-			if (!workersBusy[workerId])
+			Logger.error("Worker[%d,%d] not busy", id, workerId);
+			return;
+		}
+
+		// return the worker before decrementing so the manager never sees
+		// more free workers than are on the idle stack
+		idleWorkers.push(workerId);
+		boolean wasFull = busyWorkers.getAndDecrement() == liveWorkers;
+
+		if (Logger.isDebugEnabled())
+		{
+			Logger.debug("busyworkers[%d,%d]: %d/%d", id, workerId,
+				busyWorkers.get(), liveWorkers);
+		}
+
+		// all Workers were busy until now, so the manager is parked without
+		// being registered; register it and wake it if work is waiting
+		if (wasFull)
+		{
+			scheduler.idle(this);
+			if (jobPublisher.hasWork()) LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Grows an elastic pool once work has stayed queued for growAfter with
+	 * every worker busy, or at once if a whole pool's worth is queued, by
+	 * this manager's share of the backlog, at most doubling it.  Retires the
+	 * workers that stayed idle through a whole keep-alive period.  Called by
+	 * the manager thread only.
+	 * @return 0 if the pool grew, otherwise nanoseconds until the next check
+	 */
+	private long resize()
+	{
+		long now = System.nanoTime();
+		int idle = liveWorkers - busyWorkers.get();
+		lowWaterIdle = Math.min(lowWaterIdle, idle);
+
+		int backlog = idle <= 0 && liveWorkers < workers.length ?
+			jobPublisher.getBacklogPerManager() : 0;
+		if (backlog > 0)
+		{
+			if (!backlogged)
+			{
+				backlogged = true;
+				backlogSince = now;
+			}
+			long waited = now - backlogSince;
+			if (waited < growAfterNanos && backlog < liveWorkers)
 			{
-				Logger.error("Worker[%d,%d] not busy", id, workerId);
-				return;
+				return growAfterNanos - waited;
 			}
-			workersBusy[workerId] = false;
+			grow(Math.min(Math.min(backlog, liveWorkers),
+				workers.length - liveWorkers));
+			backlogged = false;
+			return 0;
+		}
+		backlogged = false;
 
-			Logger.debug("busyworkers[%d,%d]: %d/%d", id, workerId,
-				busyWorkers, workers.length);
+		long elapsed = now - windowStart;
+		if (elapsed < keepAliveNanos) return keepAliveNanos - elapsed;
+		int surplus = Math.min(lowWaterIdle, liveWorkers - elastic.getMinWorkers());
+		if (surplus > 0) retire(surplus);
+		windowStart = now;
+		lowWaterIdle = liveWorkers - busyWorkers.get();
+		return keepAliveNanos;
+	}
+
+	/**
+	 * Starts count more Workers and makes them available for work.
+	 */
+	private void grow(int count)
+	{
+		for (int k = 0 ; k < count ; k++)
+		{
+			int i = freeCount > 0 ? freeSlots[--freeCount] : nextSlot++;
+			workers[i] = new Worker(this, i);
+			liveWorkers++;
+			idleWorkers.push(i);
+		}
+		// a fresh keep-alive period, so the new Workers are not retired by
+		// the idle count of the quiet period before the burst
+		windowStart = System.nanoTime();
+		lowWaterIdle = liveWorkers - busyWorkers.get();
+		Logger.info("Manager[%d] grew to %d workers", id, liveWorkers);
+	}
 
-			// notify Manager's thread if all Workers were busy until now
-			if (busyWorkers == workers.length) this.notify();
-			busyWorkers--;
+	/**
+	 * Kills up to count idle Workers and frees their slots.
+	 */
+	private void retire(int count)
+	{
+		for (int k = 0 ; k < count ; k++)
+		{
+			int i = idleWorkers.pop();
+			if (i < 0) break;
+			workers[i].kill();
+			workers[i] = null;
+			freeSlots[freeCount++] = i;
+			liveWorkers--;
 		}
-		Logger.debug("Manager[%d,%d] unsychronizing", id, workerId);
+		Logger.info("Manager[%d] shrank to %d workers", id, liveWorkers);
+	}
+
+	/**
+	 * Runs work on the calling Worker's thread under its time limit.
+	 * @return null if the work is done, otherwise why it is not
+	 */
+	Throwable runWork(Work work)
+	{
+		return jobPublisher.runWork(work);
+	}
+
+	/**
+	 * @return number of workers currently assigned work
+	 * @Override JobManager
+	 */
+	@Override
+	public int getBusyWorkers()
+	{
+		return busyWorkers.get();
+	}
+
+	/**
+	 * @return number of workers; for an elastic pool, those currently alive
+	 * @Override JobManager
+	 */
+	@Override
+	public int getNumberOfWorkers()
+	{
+		return liveWorkers;
 	}
 
 	/**
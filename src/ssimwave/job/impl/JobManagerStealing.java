@@ -0,0 +1,180 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ssimwave.job.Work;
+
+/**
+ * Manager without a dispatching thread.  Each StealingWorker pulls batches of
+ * Work from the publisher into its own deque and steals from its peers when
+ * both its deque and the publisher are empty.
+ */
+public class JobManagerStealing extends JobManager
+{
+	/**
+	 * Maximum number of Work items a worker claims from the publisher at once
+	 */
+	public static final int BATCH_SIZE = 4;
+
+	private JobPublisherImpl jobPublisher;
+	private WakeupScheduler scheduler;
+	private StealingWorker[] workers;
+	private AtomicInteger busyWorkers;
+	private int id;
+	private volatile boolean kill;
+
+	/**
+	 * @param jobPublisher the owner and publisher to receive Work from and
+	 *	report to Work done.
+	 * @param numberOfWorkers the number workers the manager should create
+	 * @param id the associated ID for this manager
+	 */
+	public JobManagerStealing(JobPublisherImpl jobPublisher, int numberOfWorkers, int id)
+	{
+		this.jobPublisher = jobPublisher;
+		this.scheduler = jobPublisher.getWakeupScheduler();
+		this.id = id;
+		kill = false;
+		busyWorkers = new AtomicInteger(0);
+		workers = new StealingWorker[numberOfWorkers];
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			workers[i] = new StealingWorker(this, jobPublisher, i);
+		}
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Kills all worker threads; Work claimed but not started is returned to
+	 * the publisher.
+	 */
+	@Override
+	public void kill()
+	{
+		kill = true;
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			workers[i].wake();
+		}
+	}
+
+	/**
+	 * Workers dispatch themselves, so there is no manager thread to run.
+	 * @Override Runnable
+	 */
+	@Override
+	public void run()
+	{
+	}
+
+	/**
+	 * Wakes a single idle worker; that worker wakes further peers if it
+	 * claims more Work than it can start.
+	 * @Override JobManager
+	 */
+	@Override
+	public void workAvailable()
+	{
+		wakeIdleWorker(null);
+	}
+
+	/**
+	 * @return Manager's assigned ID
+	 * @Override JobManager
+	 */
+	@Override
+	public int getId()
+	{
+		return id;
+	}
+
+	/**
+	 * @return number of workers currently running work
+	 * @Override JobManager
+	 */
+	@Override
+	public int getBusyWorkers()
+	{
+		return busyWorkers.get();
+	}
+
+	/**
+	 * @return number of workers
+	 * @Override JobManager
+	 */
+	@Override
+	public int getNumberOfWorkers()
+	{
+		return workers.length;
+	}
+
+	/**
+	 * @return counter of workers running work, maintained by the workers
+	 */
+	AtomicInteger getBusyWorkerCounter()
+	{
+		return busyWorkers;
+	}
+
+	/**
+	 * Called by a worker about to park, before its final check for work, so
+	 * that the publisher's next signal reaches this manager.
+	 */
+	void workerIdle()
+	{
+		scheduler.idle(this);
+	}
+
+	boolean isKilled()
+	{
+		return kill;
+	}
+
+	/**
+	 * Wakes one parked worker, if any.
+	 * @param caller the worker requesting help; never woken
+	 */
+	void wakeIdleWorker(StealingWorker caller)
+	{
+		int start = ThreadLocalRandom.current().nextInt(workers.length);
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			StealingWorker worker = workers[(start + i) % workers.length];
+			if (worker != caller && worker.wakeIfIdle()) return;
+		}
+	}
+
+	/**
+	 * Steals the lowest priority Work from a random peer's deque.
+	 * @param thief the worker requesting Work
+	 * @return stolen Work or null if all peers' deques are empty
+	 */
+	Work steal(StealingWorker thief)
+	{
+		int start = ThreadLocalRandom.current().nextInt(workers.length);
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			StealingWorker victim = workers[(start + i) % workers.length];
+			if (victim == thief) continue;
+			Work work = victim.stealFrom();
+			if (work != null) return work;
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if any worker has claimed Work that has not started
+	 */
+	boolean hasStealableWork()
+	{
+		for (int i = 0 ; i < workers.length ; i++)
+		{
+			if (workers[i].hasQueuedWork()) return true;
+		}
+		return false;
+	}
+}
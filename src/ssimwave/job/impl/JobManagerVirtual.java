@@ -0,0 +1,226 @@
+package ssimwave.job.impl;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.Work;
+import ssimwave.util.Logger;
+
+/**
+ * Manager that runs every Work item on its own virtual thread.  Instead of a
+ * fixed set of worker threads, at most concurrencyLimit Work items are in
+ * flight at once.  Falls back to a cached pool of platform threads when the
+ * runtime does not provide virtual threads.
+ */
+public class JobManagerVirtual extends JobManager
+{
+	private JobPublisherImpl jobPublisher;
+	private WakeupScheduler scheduler;
+	private ExecutorService executor;
+	private int id;
+	private Thread thread;
+	private int concurrencyLimit;
+	private AtomicInteger inFlight;
+
+	// member variables to only be accessed on synchronized
+	private boolean kill;
+
+	/**
+	 * @param jobPublisher the owner and publisher to receive Work from and
+	 *	report to Work done.
+	 * @param concurrencyLimit the maximum number of Work items run at once
+	 * @param id the associated ID for this manager
+	 */
+	public JobManagerVirtual(JobPublisherImpl jobPublisher, int concurrencyLimit, int id)
+	{
+		this.jobPublisher = jobPublisher;
+		this.scheduler = jobPublisher.getWakeupScheduler();
+		this.id = id;
+		this.concurrencyLimit = concurrencyLimit;
+		inFlight = new AtomicInteger(0);
+		executor = newVirtualThreadExecutor();
+		kill = false;
+		thread = new Thread(this);
+		thread.start();
+	}
+
+	/**
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isVirtualThreadSupported()
+	{
+		return getVirtualThreadFactoryMethod() != null;
+	}
+
+	/**
+	 * Kills manager; Work already started is allowed to complete.
+	 */
+	@Override
+	public void kill()
+	{
+		synchronized (this)
+		{
+			kill = true;
+			executor.shutdown();
+		}
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Unparks the manager's thread to claim new work.
+	 * @Override JobManager
+	 */
+	@Override
+	public void workAvailable()
+	{
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Thread runs, starting work on virtual threads, until killed.
+	 * @Override Runnable
+	 */
+	@Override
+	public void run()
+	{
+		try
+		{
+			for (;;)
+			{
+				synchronized (this)
+				{
+					if (kill) return; // kill thread
+
+					// only this thread increments inFlight, so check-then-act holds
+					while (inFlight.get() < concurrencyLimit)
+					{
+						// check if there is more work
+						final Work work = jobPublisher.getWork();
+						if (work == null) break;
+
+						inFlight.incrementAndGet();
+						executor.execute(new Runnable()
+						{
+							public void run()
+							{
+								Throwable failure = jobPublisher.runWork(work);
+								if (failure == null)
+								{
+									workDone(work);
+								}
+								else
+								{
+									workNotDone(work, failure);
+								}
+							}
+						});
+					}
+				}
+
+				// below the limit, register for wakeups and then recheck for
+				// work enqueued before registering; at the limit, the next
+				// release registers instead
+				if (inFlight.get() < concurrencyLimit)
+				{
+					scheduler.idle(this);
+					if (jobPublisher.hasWork()) continue;
+				}
+
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] waiting", id);
+				LockSupport.park(this); // BLOCKING: waiting for new work or free capacity
+				if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] woke", id);
+			}
+		}
+		catch(Throwable t)
+		{
+			Logger.throwable("Manager[%d]", t, id);
+		}
+	}
+
+	/**
+	 * @return number of Work items currently running
+	 * @Override JobManager
+	 */
+	@Override
+	public int getBusyWorkers()
+	{
+		return inFlight.get();
+	}
+
+	/**
+	 * @return limit on concurrently running Work items
+	 * @Override JobManager
+	 */
+	@Override
+	public int getNumberOfWorkers()
+	{
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return Manager's assigned ID
+	 * @Override JobManager
+	 */
+	@Override
+	public int getId()
+	{
+		return id;
+	}
+
+	private void workDone(Work work)
+	{
+		jobPublisher.workDone(work);
+		release();
+	}
+
+	private void workNotDone(Work work, Throwable t)
+	{
+		jobPublisher.workNotDone(work, t);
+		release();
+	}
+
+	private void release()
+	{
+		// the manager parked without registering while at the limit
+		if (inFlight.getAndDecrement() == concurrencyLimit)
+		{
+			scheduler.idle(this);
+			if (jobPublisher.hasWork()) LockSupport.unpark(thread);
+		}
+	}
+
+	private static Method getVirtualThreadFactoryMethod()
+	{
+		try
+		{
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		}
+		catch (NoSuchMethodException nsme)
+		{
+			return null;
+		}
+	}
+
+	private ExecutorService newVirtualThreadExecutor()
+	{
+		Method factory = getVirtualThreadFactoryMethod();
+		if (factory != null)
+		{
+			try
+			{
+				return (ExecutorService)factory.invoke(null);
+			}
+			catch (Exception e)
+			{
+				// e.g. preview feature not enabled; fall through
+				Logger.error("Manager[%d] virtual threads unavailable: %s",
+					id, e.getCause() != null ? e.getCause() : e);
+			}
+		}
+		Logger.info("Manager[%d] using platform threads, virtual threads are not supported", id);
+		return Executors.newCachedThreadPool();
+	}
+}
@@ -0,0 +1,271 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.util.Histogram;
+import ssimwave.util.Logger;
+
+/**
+ * Job instrumentation owned by a JobPublisherImpl.  Recording only uses
+ * atomic operations so it adds no locks to the dispatch path.
+ */
+public class JobMetrics
+{
+	/**
+	 * Inclusive upper limits of the work length bands that wait times are
+	 * also recorded by; a last band holds longer work
+	 */
+	static final long[] LENGTH_BANDS = { 100, 1000 };
+
+	private final Histogram wait;
+	private final Histogram[] waitByLength;
+	private final Histogram run;
+	private final AtomicLong done;
+	private final AtomicLong notDone;
+	private final AtomicLong retries;
+	private final AtomicLong deadLettered;
+	private final AtomicLong deadlinesMet;
+	private final AtomicLong deadlinesMissed;
+	private final AtomicLong infeasible;
+	private final AtomicLong timedOut;
+	private final AtomicLong cancelled;
+	private JobManager[] managers;
+
+	public JobMetrics()
+	{
+		wait = new Histogram();
+		waitByLength = new Histogram[LENGTH_BANDS.length + 1];
+		for (int i = 0 ; i < waitByLength.length ; i++)
+		{
+			waitByLength[i] = new Histogram();
+		}
+		run = new Histogram();
+		done = new AtomicLong();
+		notDone = new AtomicLong();
+		retries = new AtomicLong();
+		deadLettered = new AtomicLong();
+		deadlinesMet = new AtomicLong();
+		deadlinesMissed = new AtomicLong();
+		infeasible = new AtomicLong();
+		timedOut = new AtomicLong();
+		cancelled = new AtomicLong();
+		managers = new JobManager[0];
+	}
+
+	/**
+	 * @param managers the managers whose utilization is reported
+	 */
+	void setManagers(JobManager[] managers)
+	{
+		this.managers = managers;
+	}
+
+	/**
+	 * @param nanos time between enqueue and dispatch
+	 * @param workLength the work's getWorkLength(), selecting its band
+	 */
+	public void recordWait(long nanos, long workLength)
+	{
+		wait.record(nanos);
+		waitByLength[bandOf(workLength)].record(nanos);
+	}
+
+	/**
+	 * @return index of the LENGTH_BANDS band holding work of workLength;
+	 *	LENGTH_BANDS.length for work longer than every limit
+	 */
+	static int bandOf(long workLength)
+	{
+		int band = 0;
+		while (band < LENGTH_BANDS.length && workLength > LENGTH_BANDS[band])
+		{
+			band++;
+		}
+		return band;
+	}
+
+	/**
+	 * @param nanos time spent in doWork()
+	 */
+	public void recordRun(long nanos)
+	{
+		run.record(nanos);
+	}
+
+	public void recordDone()
+	{
+		done.incrementAndGet();
+	}
+
+	public void recordNotDone()
+	{
+		notDone.incrementAndGet();
+	}
+
+	public void recordRetry()
+	{
+		retries.incrementAndGet();
+	}
+
+	public void recordDeadLettered()
+	{
+		deadLettered.incrementAndGet();
+	}
+
+	/**
+	 * @param met true if work with a deadline was done by it
+	 */
+	public void recordDeadline(boolean met)
+	{
+		(met ? deadlinesMet : deadlinesMissed).incrementAndGet();
+	}
+
+	/**
+	 * Records work deprioritized because it could no longer meet its deadline
+	 */
+	public void recordInfeasible()
+	{
+		infeasible.incrementAndGet();
+	}
+
+	/**
+	 * Records work interrupted for running past its time limit
+	 */
+	public void recordTimedOut()
+	{
+		timedOut.incrementAndGet();
+	}
+
+	public void recordCancelled()
+	{
+		cancelled.incrementAndGet();
+	}
+
+	/**
+	 * @return current values of all metrics
+	 */
+	public MetricsSnapshot snapshot()
+	{
+		return snapshot(new JobMetrics[] { this });
+	}
+
+	/**
+	 * Combines the metrics of several publishers, such as the shards of a
+	 * ShardedJobPublisher: counters are summed, distributions merged and
+	 * managers listed in the order of all.
+	 * @param all metrics to combine
+	 * @return current values of all metrics combined
+	 */
+	static MetricsSnapshot snapshot(JobMetrics[] all)
+	{
+		int numberOfManagers = 0;
+		for (JobMetrics metrics : all)
+		{
+			numberOfManagers += metrics.managers.length;
+		}
+		int[] busyWorkers = new int[numberOfManagers];
+		int[] workers = new int[numberOfManagers];
+		Histogram wait = new Histogram();
+		Histogram[] waitByLength = new Histogram[LENGTH_BANDS.length + 1];
+		for (int i = 0 ; i < waitByLength.length ; i++)
+		{
+			waitByLength[i] = new Histogram();
+		}
+		Histogram run = new Histogram();
+		long done = 0, notDone = 0, retries = 0, deadLettered = 0;
+		long deadlinesMet = 0, deadlinesMissed = 0, infeasible = 0;
+		long timedOut = 0, cancelled = 0;
+		int first = 0; // index of the first manager of metrics
+		for (JobMetrics metrics : all)
+		{
+			JobManager[] managers = metrics.managers;
+			for (int i = 0 ; i < managers.length ; i++)
+			{
+				busyWorkers[first + managers[i].getId()] = managers[i].getBusyWorkers();
+				workers[first + managers[i].getId()] = managers[i].getNumberOfWorkers();
+			}
+			first += managers.length;
+			wait.add(metrics.wait);
+			for (int i = 0 ; i < waitByLength.length ; i++)
+			{
+				waitByLength[i].add(metrics.waitByLength[i]);
+			}
+			run.add(metrics.run);
+			done += metrics.done.get();
+			notDone += metrics.notDone.get();
+			retries += metrics.retries.get();
+			deadLettered += metrics.deadLettered.get();
+			deadlinesMet += metrics.deadlinesMet.get();
+			deadlinesMissed += metrics.deadlinesMissed.get();
+			infeasible += metrics.infeasible.get();
+			timedOut += metrics.timedOut.get();
+			cancelled += metrics.cancelled.get();
+		}
+		MetricsSnapshot.Distribution[] bands =
+			new MetricsSnapshot.Distribution[waitByLength.length];
+		for (int i = 0 ; i < bands.length ; i++)
+		{
+			bands[i] = summarize(waitByLength[i]);
+		}
+		return new MetricsSnapshot.Builder(System.currentTimeMillis())
+			.setDone(done)
+			.setNotDone(notDone)
+			.setRetries(retries)
+			.setDeadLettered(deadLettered)
+			.setDeadlines(deadlinesMet, deadlinesMissed, infeasible)
+			.setTimedOut(timedOut)
+			.setCancelled(cancelled)
+			.setDistributions(summarize(wait), summarize(run))
+			.setWaitByLength(LENGTH_BANDS, bands)
+			.setWorkers(busyWorkers, workers)
+			.build();
+	}
+
+	/**
+	 * Starts a daemon thread that logs a snapshot at a fixed interval.
+	 * @param intervalMillis time between snapshots
+	 */
+	public void startReporter(long intervalMillis)
+	{
+		startReporter(new JobMetrics[] { this }, intervalMillis);
+	}
+
+	/**
+	 * Starts a daemon thread that logs a combined snapshot of several
+	 * publishers' metrics at a fixed interval.
+	 * @param all metrics to combine
+	 * @param intervalMillis time between snapshots
+	 */
+	static void startReporter(final JobMetrics[] all, final long intervalMillis)
+	{
+		Thread reporter = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					for (;;)
+					{
+						Thread.sleep(intervalMillis);
+						Logger.info("Metrics: %s", snapshot(all));
+					}
+				}
+				catch (InterruptedException ie)
+				{
+					// stop reporting
+				}
+			}
+		}, "MetricsReporter");
+		reporter.setDaemon(true);
+		reporter.start();
+	}
+
+	static MetricsSnapshot.Distribution summarize(Histogram histogram)
+	{
+		Histogram h = histogram.copy();
+		return new MetricsSnapshot.Distribution(h.getCount(), h.getMean(),
+			h.getValueAtPercentile(50), h.getValueAtPercentile(90),
+			h.getValueAtPercentile(99), h.getMax());
+	}
+}
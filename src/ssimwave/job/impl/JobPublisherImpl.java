@@ -1,13 +1,34 @@
 package ssimwave.job.impl;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.io.IOException;
-import java.util.Random;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import ssimwave.job.ElasticPolicy;
 import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.RetryPolicy;
+import ssimwave.job.TimeLimitedWork;
 import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
 import ssimwave.util.Logger;
+import ssimwave.util.RateLimiter;
+import ssimwave.util.StripedLongMap;
+import ssimwave.util.TimerWheel;
 
 /**
  * Receiver of work needed to be done. Informs Managers and grants assignment
@@ -15,13 +36,39 @@ import ssimwave.util.Logger;
  */
 public class JobPublisherImpl extends JobPublisher
 {
-	private static final int MAX_WORK_TIME_MILLIS = 5 * 1000;
+	private static final int MAX_DEAD_LETTERS = 10000;
+	private static final int FAILURES_LOGGED_PER_SECOND = 10;
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_WHEEL_SIZE = 512;
+	private static final long SHUTDOWN_POLL_MILLIS = 10;
+	private static final long STOP_GRACE_MILLIS = 1000;
 
 	private JobManager[] managers;
-	private WorkTree workTree;
-	private WorkTree activeWorkTree;
-	private Random random;
-	private int workCounter;
+	private WorkQueue workQueue;
+	private CountingWorkQueue countedQueue; // workQueue, if shard or elastic
+	private StripedLongMap<Work> activeWork; // in-flight work by ID
+	private JobMetrics metrics;
+	private WakeupScheduler scheduler;
+	private AtomicInteger workCounter; // shared by the shards of a publisher
+	private ShardedJobPublisher owner; // null unless this is one of its shards
+	private Journal journal; // null if work is not journaled
+	private WorkCodec codec; // encodes journaled, checkpointed and leased work
+	private RetryPolicy retryPolicy;
+	private TimerWheel timer; // delays retries and enforces job time limits
+	private StripedLongMap<Integer> failures; // by ID, for work being retried
+	private AtomicInteger retrying; // size of failures
+	private StripedLongMap<Work> awaitingRetry; // by ID, until requeued
+	private long jobTimeoutMillis;
+	private StripedLongMap<RunningWork> running; // by ID, until done or not
+	private StripedLongMap<CancelRequest> cancelRequests; // by ID, for active work
+	private AtomicInteger cancelling; // size of cancelRequests
+	private ArrayDeque<Work> deadLetters; // guarded by itself
+	private RateLimiter failureLog;
+	private volatile State state;
+	private volatile boolean stopNow; // FAST shutdown requested
+	private CompletableFuture<Integer> shutdown; // guarded by this
+	private ConcurrentLinkedQueue<Work> checkpointed; // returned while stopping
+	private Path snapshotFile; // null if pending work is not checkpointed
 
 	/**
 	 * Creates JobPublisher with given number of managers and workers per
@@ -45,17 +92,251 @@ public class JobPublisherImpl extends JobPublisher
 	 */
 	public JobPublisherImpl(int numberOfManagers, int numberOfWorkersPerManager, boolean useExecutors)
 	{
-		workTree = new WorkTree();
-		activeWorkTree = new WorkTree();
-		random = new Random(System.currentTimeMillis());
-		workCounter = 0;
+		this(numberOfManagers, numberOfWorkersPerManager,
+			useExecutors ? ManagerType.EXECUTOR : ManagerType.THREADED);
+	}
+
+	/**
+	 * Creates JobPublisher with given number of managers and workers per
+	 *  managers.
+	 * @param numberOfManagers number of managers to create and use
+	 * @param numberOfWorkersPerManager number of workers per manager to
+	 *	create and use
+	 * @param managerType the kind of manager to create
+	 */
+	public JobPublisherImpl(int numberOfManagers, int numberOfWorkersPerManager, ManagerType managerType)
+	{
+		this(numberOfManagers, numberOfWorkersPerManager, managerType,
+			QueueType.ON_HEAP);
+	}
+
+	/**
+	 * Creates JobPublisher with given number of managers and workers per
+	 *  managers.
+	 * @param numberOfManagers number of managers to create and use
+	 * @param numberOfWorkersPerManager number of workers per manager to
+	 *	create and use
+	 * @param managerType the kind of manager to create
+	 * @param queueType where pending work is kept
+	 */
+	public JobPublisherImpl(int numberOfManagers, int numberOfWorkersPerManager,
+		ManagerType managerType, QueueType queueType)
+	{
+		this(optionsOf(numberOfManagers, numberOfWorkersPerManager,
+			managerType, queueType));
+	}
+
+	/**
+	 * Creates JobPublisher as configured by options.  If a journal directory
+	 * is set, work journaled there by a previous run is enqueued again.  If
+	 * a coordinator port is set, a JobCoordinator follows the other managers.
+	 * @param options the publisher's settings
+	 * @throws IllegalArgumentException if off-heap queueing or aging is set
+	 *	with a scheduling policy other than LONGEST_FIRST or SHORTEST_FIRST
+	 * @throws UncheckedIOException if the journal cannot be opened or the
+	 *	coordinator port listened on
+	 */
+	public JobPublisherImpl(JobPublisherOptions options)
+	{
+		this(options, null, new AtomicInteger(0));
+	}
+
+	/**
+	 * Creates a shard of a ShardedJobPublisher: its queue is counted so the
+	 * owner can find the most backlogged shard, and managers finding it
+	 * empty claim work from that shard instead.
+	 * @param options the shard's settings
+	 * @param owner the publisher this is a shard of; null if it is not
+	 * @param workCounter source of IDs, shared by the owner's shards so that
+	 *	IDs are unique among them
+	 */
+	JobPublisherImpl(JobPublisherOptions options, ShardedJobPublisher owner,
+		AtomicInteger workCounter)
+	{
+		metrics = new JobMetrics();
+		scheduler = new WakeupScheduler();
+		workQueue = createQueue(options);
+		if (owner != null || options.getElasticPolicy() != null)
+		{
+			countedQueue = new CountingWorkQueue(workQueue);
+			workQueue = countedQueue;
+		}
+		activeWork = new StripedLongMap<Work>();
+		this.workCounter = workCounter;
+		this.owner = owner;
+		retryPolicy = options.getRetryPolicy();
+		timer = new TimerWheel("JobTimer", TIMER_TICK_MILLIS,
+			TIMER_WHEEL_SIZE);
+		failures = new StripedLongMap<Integer>();
+		retrying = new AtomicInteger(0);
+		awaitingRetry = new StripedLongMap<Work>();
+		jobTimeoutMillis = options.getJobTimeoutMillis();
+		running = new StripedLongMap<RunningWork>();
+		cancelRequests = new StripedLongMap<CancelRequest>();
+		cancelling = new AtomicInteger(0);
+		deadLetters = new ArrayDeque<Work>();
+		failureLog = new RateLimiter(FAILURES_LOGGED_PER_SECOND);
+		state = State.RUNNING;
+		stopNow = false;
+		shutdown = null;
+		checkpointed = new ConcurrentLinkedQueue<Work>();
+		codec = options.getWorkCodec();
 
-		managers = useExecutors ? new JobManagerExecutor[numberOfManagers] : new JobManagerImpl[numberOfManagers];
-		for (int i = managers.length - 1; i >= 0 ; i--)
+		if (options.getJournalDirectory() != null)
+		{
+			openJournal(options.getJournalDirectory());
+		}
+		else if (options.getSnapshotFile() != null)
+		{
+			snapshotFile = Paths.get(options.getSnapshotFile());
+			loadSnapshot();
+		}
+
+		boolean coordinating = options.getCoordinatorPort() >= 0;
+		managers = new JobManager[options.getNumberOfManagers() +
+			(coordinating ? 1 : 0)];
+		if (coordinating)
+		{
+			int id = managers.length - 1;
+			try
+			{
+				managers[id] = new JobCoordinator(this,
+					options.getCoordinatorPort(), options.getLeaseMillis(),
+					codec, id);
+			}
+			catch (IOException ioe)
+			{
+				throw new UncheckedIOException("Failed to coordinate on port " +
+					options.getCoordinatorPort(), ioe);
+			}
+		}
+		for (int i = options.getNumberOfManagers() - 1; i >= 0 ; i--)
+		{
+			managers[i] = createManager(options.getManagerType(),
+				options.getNumberOfWorkersPerManager(), i,
+				options.getElasticPolicy());
+		}
+		metrics.setManagers(managers);
+		scheduler.setManagers(managers);
+	}
+
+	private WorkQueue createQueue(JobPublisherOptions options)
+	{
+		SchedulingPolicy policy = options.getSchedulingPolicy();
+		if (policy != SchedulingPolicy.LONGEST_FIRST &&
+			policy != SchedulingPolicy.SHORTEST_FIRST)
+		{
+			// these policies keep their own on-heap order, without aging
+			if (options.getQueueType() == QueueType.OFF_HEAP)
+			{
+				throw new IllegalArgumentException(
+					"OFF_HEAP queueing is not supported with " + policy);
+			}
+			if (options.getAgingRate() > 0)
+			{
+				throw new IllegalArgumentException(
+					"aging is not supported with " + policy);
+			}
+		}
+		switch (policy)
+		{
+			case EARLIEST_DEADLINE_FIRST:
+				return new EdfWorkQueue(metrics);
+			case FIFO:
+				return new FifoWorkQueue(metrics);
+			case WEIGHTED_FAIR:
+				return new WeightedFairWorkQueue(options.getFairShareWeights(),
+					metrics);
+			default:
+				break;
+		}
+		WorkQueue queue = options.getQueueType() == QueueType.OFF_HEAP ?
+			new OffHeapWorkQueue(options.getWorkCodec(), metrics) :
+			new WorkTree(metrics);
+		if (options.getAgingRate() > 0)
+		{
+			queue = new AgingWorkQueue(queue, options.getAgingRate());
+		}
+		if (policy == SchedulingPolicy.SHORTEST_FIRST)
+		{
+			// outside the aging so that waiting work moves towards the front
+			queue = new ShortestFirstWorkQueue(queue);
+		}
+		return queue;
+	}
+
+	private static JobPublisherOptions optionsOf(int numberOfManagers,
+		int numberOfWorkersPerManager, ManagerType managerType,
+		QueueType queueType)
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(numberOfManagers);
+		options.setNumberOfWorkersPerManager(numberOfWorkersPerManager);
+		options.setManagerType(managerType);
+		options.setQueueType(queueType);
+		return options;
+	}
+
+	/**
+	 * Opens the journal and enqueues the work it recovers, keeping the IDs
+	 * the work was journaled with.
+	 */
+	private void openJournal(String directory)
+	{
+		try
+		{
+			journal = new Journal(directory, codec);
+		}
+		catch (IOException ioe)
+		{
+			throw new UncheckedIOException("Failed to open journal in " +
+				directory, ioe);
+		}
+		for (Work work : journal.getRecovered())
+		{
+			workQueue.put(work.getWorkLength(), work);
+		}
+		// shards are opened one after another, so each raises it in turn
+		if (journal.getNextId() > workCounter.get()) workCounter.set(journal.getNextId());
+		if (!journal.getRecovered().isEmpty())
+		{
+			Logger.info("Recovered %d jobs from journal, %d of them in flight",
+				journal.getRecovered().size(), journal.getRecoveredInFlight());
+		}
+	}
+
+	/**
+	 * Enqueues the work checkpointed to the snapshot file by a previous
+	 * run, streaming it in, under new IDs.  The file is deleted once loaded.
+	 */
+	private void loadSnapshot()
+	{
+		if (!Files.exists(snapshotFile)) return;
+		int loaded = 0;
+		try
+		{
+			Snapshot snapshot = new Snapshot(snapshotFile, codec);
+			try
+			{
+				Work work;
+				while ((work = snapshot.next()) != null)
+				{
+					enqueue(work);
+					loaded++;
+				}
+			}
+			finally
+			{
+				snapshot.close();
+			}
+			Files.delete(snapshotFile);
+		}
+		catch (IOException ioe)
 		{
-			managers[i] = useExecutors ? new JobManagerExecutor(this, numberOfWorkersPerManager, i) :
-				new JobManagerImpl(this, numberOfWorkersPerManager, i);
+			throw new UncheckedIOException("Failed to load snapshot " +
+				snapshotFile, ioe);
 		}
+		Logger.info("Reloaded %d jobs from snapshot %s", loaded, snapshotFile);
 	}
 
 	/**
@@ -71,146 +352,830 @@ public class JobPublisherImpl extends JobPublisher
 	 * Runs a loop that will keep inputting integer values pertaining to the
 	 * number of jobs to add to the queue which will take a randomized amount
 	 * of time between 1 and 5 seconds. Entering 'q' will result in exiting
-	 * the loop and returning
+	 * the loop and returning once the pending jobs are done, and 'f' in
+	 * returning once running jobs are interrupted and pending jobs
+	 * checkpointed.
 	 */
 	public void runLoop()
 	{
-		BufferedReader br = new BufferedReader(new InputStreamReader(
-			System.in));
-		String input = "";
-		int jobs;
-
-		for (;;)
+		new Console(this)
 		{
-			// input number of jobs from user
-			System.out.println("Please enter jobs to request: ");
-			try
+			void enqueue(List<Work> works)
 			{
-				input = br.readLine();
+				for (Work work : works)
+				{
+					JobPublisherImpl.this.enqueue(work);
+				}
+				signalManagers(works.size());
 			}
-			catch(IOException ioe)
+
+			void kill()
 			{
-				Logger.throwable(
-					"An I/O Exception has occurred during user input: ", ioe);
-				kill();
-				break;
+				JobPublisherImpl.this.kill();
 			}
 
-			// check if we should quit out nicely
-			if ("q".equals(input))
+			String getNotDoneLocation()
 			{
-				Logger.info("User requested to quit");
-				kill();
-				break;
+				return snapshotFile != null ? "checkpointed to " + snapshotFile :
+					journal != null ? "left in the journal" : null;
 			}
-			else if ("d".equals(input))
+		}.run();
+	}
+
+	/**
+	 * Enqueues work and wakes a manager for it; safe to call from any thread.
+	 * @param work the work to be done
+	 * @return completed with the work once its doWork() has returned
+	 * @throws IllegalArgumentException if work is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	@Override
+	public CompletableFuture<Work> submit(Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		SubmittedWork submitted = new SubmittedWork(work);
+		enqueue(submitted);
+		signalManagers(1);
+		return submitted.getFuture();
+	}
+
+	/**
+	 * Enqueues a batch of work and wakes enough managers for it; safe to
+	 * call from any thread.
+	 * @param works the work to be done
+	 * @return completion handles in the iteration order of works
+	 * @throws IllegalArgumentException if any work is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	@Override
+	public List<CompletableFuture<Work>> submitAll(Collection<? extends Work> works)
+	{
+		for (Work work : works)
+		{
+			if (work == null) throw new IllegalArgumentException("work is null");
+		}
+		List<CompletableFuture<Work>> futures =
+			new ArrayList<CompletableFuture<Work>>(works.size());
+		try
+		{
+			for (Work work : works)
 			{
-				Logger.setDebug(!Logger.getDebug());
-				continue;
+				SubmittedWork submitted = new SubmittedWork(work);
+				enqueue(submitted);
+				futures.add(submitted.getFuture());
 			}
+		}
+		finally
+		{
+			// a draining shutdown still runs what made it in
+			signalManagers(futures.size());
+		}
+		return futures;
+	}
 
-			// pass on the number of jobs to the publisher
-			try
+	/**
+	 * Cancels a job.  Queued work is removed from the queue and work waiting
+	 * to be retried is dropped.  Work claimed by a manager is interrupted if
+	 * it is running, and otherwise skipped when its worker gets to it; either
+	 * way it is finished by workNotDone().
+	 * @param jobId the ID the publisher assigned the job
+	 * @return true if the job was found and cancelled
+	 */
+	@Override
+	public boolean cancel(int jobId)
+	{
+		Work work = awaitingRetry.remove(jobId);
+		if (work == null) work = workQueue.remove(jobId);
+		if (work != null)
+		{
+			cancelled(work);
+			return true;
+		}
+		if (activeWork.get(jobId) == null) return false;
+
+		// request first, then look for the run, while runWork() registers
+		// the run first and then looks for a request; one sees the other.
+		// A run stays registered until workDone() or workNotDone() has
+		// checked for requests, so a run not found has not started or is
+		// already reported.  A request not stopping a run is promised or
+		// withdrawn, so the result agrees with how the work is reported
+		CancelRequest request = new CancelRequest();
+		if (cancelRequests.putIfAbsent(jobId, request) != null) return false; // being cancelled
+		cancelling.incrementAndGet();
+		RunningWork run = running.get(jobId);
+		if (run != null && run.stop(new CancellationException("Work[" + jobId + "] cancelled")))
+		{
+			return true;
+		}
+		if (run == null && activeWork.get(jobId) != null) return request.promise();
+		if (cancelRequests.remove(jobId, request)) cancelling.decrementAndGet();
+		return request.withdraw();
+	}
+
+	/**
+	 * Shuts down on a thread of its own.  Killing a manager only signals its
+	 * threads, and running work is interrupted through the runs registered
+	 * with runWork(), so the time taken does not grow with the number of
+	 * workers; work that ignores its interrupt is abandoned once the time
+	 * allowed is up.
+	 * @param mode whether to drain pending work or checkpoint it
+	 * @param timeoutMillis time DRAIN has to finish pending work, or FAST
+	 *	has for interrupted work to return
+	 * @return completed with the number of jobs not done
+	 * @throws IllegalArgumentException if timeoutMillis is negative
+	 */
+	@Override
+	public synchronized CompletableFuture<Integer> shutdown(
+		final ShutdownMode mode, final long timeoutMillis)
+	{
+		if (timeoutMillis < 0) throw new IllegalArgumentException("timeoutMillis < 0");
+		if (mode == ShutdownMode.FAST) stopNow = true; // cuts a drain short
+		if (shutdown != null) return shutdown;
+
+		shutdown = new CompletableFuture<Integer>();
+		state = mode == ShutdownMode.DRAIN ? State.DRAINING : State.STOPPING;
+		new Thread(new Runnable()
+		{
+			public void run()
 			{
-				jobs = Integer.parseInt(input);
-				if (jobs <= 0)
+				try
+				{
+					long grace = timeoutMillis;
+					if (mode == ShutdownMode.DRAIN)
+					{
+						drain(timeoutMillis);
+						grace = STOP_GRACE_MILLIS;
+					}
+					shutdown.complete(stop(grace));
+				}
+				catch (Throwable t)
 				{
-					System.out.println("Number must be greater than 0");
-					continue;
+					Logger.throwable("Shutdown failed: ", t);
+					shutdown.completeExceptionally(t);
 				}
 			}
-			catch(NumberFormatException nfe)
+		}, "Shutdown").start();
+		return shutdown;
+	}
+
+	/**
+	 * Waits until nothing is queued, waiting to be retried or active, or
+	 * until the time is up or a FAST shutdown is requested.  Work passes
+	 * between these briefly when claimed or retried, so all must be seen
+	 * empty twice in a row.
+	 */
+	private void drain(long timeoutMillis)
+	{
+		Logger.info("Draining: %d jobs active, %d waiting to be retried",
+			activeWork.size(), awaitingRetry.size());
+		notifyManagers();
+		long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long begin = System.nanoTime();
+		int emptyPolls = 0;
+		while (emptyPolls < 2 && !stopNow && System.nanoTime() - begin < timeout)
+		{
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_POLL_MILLIS));
+			// a shard also waits for the work it could steal
+			boolean empty = !hasWork() && awaitingRetry.size() == 0 &&
+				activeWork.size() == 0;
+			emptyPolls = empty ? emptyPolls + 1 : 0;
+		}
+	}
+
+	/**
+	 * Kills every manager and collects the work not done: queued and
+	 * waiting to be retried, then running work, which is interrupted and
+	 * returned by workNotDone(), and finally whatever is still active after
+	 * graceMillis.  Each interrupted thread wakes to finish its work, which
+	 * on few CPUs can hold this thread up for seconds with thousands of
+	 * workers, so pending work is collected first and the grace period
+	 * covers interrupting too; work not interrupted in time is abandoned
+	 * along with work that ignores its interrupt.
+	 * @return number of jobs not done
+	 */
+	private int stop(long graceMillis) throws IOException
+	{
+		long grace = TimeUnit.MILLISECONDS.toNanos(graceMillis);
+		long begin = System.nanoTime();
+		state = State.STOPPING;
+		for (JobManager manager : managers)
+		{
+			manager.kill();
+		}
+		timer.stop();
+
+		List<Work> pending = new ArrayList<Work>();
+		for (Work work : awaitingRetry.values())
+		{
+			if (awaitingRetry.remove(work.getId(), work)) pending.add(work);
+		}
+		Work work;
+		while ((work = workQueue.removeHighest()) != null)
+		{
+			pending.add(work);
+		}
+
+		// stopping, then look for runs, while runWork() registers the run,
+		// then checks for stopping; one sees the other
+		CancellationException stopping = new CancellationException(
+			"publisher stopping");
+		for (RunningWork run : running.values())
+		{
+			if (System.nanoTime() - begin >= grace) break;
+			run.stop(stopping);
+		}
+		while (System.nanoTime() - begin < grace && activeWork.size() > 0)
+		{
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_POLL_MILLIS));
+		}
+		state = State.STOPPED;
+		for (Work active : activeWork.values())
+		{
+			// ignored its interrupt; reported as not found if it returns
+			if (activeWork.remove(active.getId(), active)) pending.add(active);
+		}
+		// enqueued by a submit that raced the shutdown
+		while ((work = workQueue.removeHighest()) != null)
+		{
+			pending.add(work);
+		}
+		while ((work = checkpointed.poll()) != null)
+		{
+			pending.add(work);
+		}
+		checkpoint(pending);
+		if (journal != null) journal.close();
+		Logger.info("Shut down with %d jobs not done", pending.size());
+		return pending.size();
+	}
+
+	/**
+	 * Writes work not done to the snapshot file, if there is one, and
+	 * cancels the completion handles of submitted work, which cannot
+	 * complete in this process.  Journaled work stays pending in the journal
+	 * instead.
+	 */
+	private void checkpoint(List<Work> pending) throws IOException
+	{
+		List<Work> works = new ArrayList<Work>(pending.size());
+		for (Work work : pending)
+		{
+			if (work instanceof SubmittedWork)
 			{
-				System.out.println(
-					"Invalid input, must be a number (base 10).");
-				continue;
+				SubmittedWork submitted = (SubmittedWork)work;
+				submitted.getFuture().cancel(false);
+				work = submitted.getWork();
 			}
+			works.add(work);
+		}
+		if (snapshotFile == null || works.isEmpty()) return;
 
-			// enqueue jobs
-			Logger.info("User requested %d jobs", jobs);
-			enqueueJobs(jobs);
+		int written = Snapshot.write(snapshotFile, works, codec);
+		Logger.info("Checkpointed %d jobs to snapshot %s", written, snapshotFile);
+		if (written < works.size())
+		{
+			Logger.error("%d jobs could not be checkpointed",
+				works.size() - written);
 		}
 	}
 
+	/**
+	 * @return current job metrics
+	 */
+	@Override
+	public MetricsSnapshot getMetrics()
+	{
+		return metrics.snapshot();
+	}
+
+	/**
+	 * @return dead-lettered work, oldest first
+	 */
+	@Override
+	public List<Work> drainDeadLetters()
+	{
+		synchronized (deadLetters)
+		{
+			List<Work> drained = new ArrayList<Work>(deadLetters);
+			deadLetters.clear();
+			return drained;
+		}
+	}
+
+	/**
+	 * Logs a metrics snapshot every intervalMillis on a daemon thread.
+	 * @param intervalMillis time between snapshots
+	 */
+	@Override
+	public void startMetricsReporter(long intervalMillis)
+	{
+		metrics.startReporter(intervalMillis);
+	}
+
+	/**
+	 * @return the metrics recorder shared with managers and workers
+	 */
+	JobMetrics getJobMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * @return the scheduler through which managers are woken for new work
+	 */
+	WakeupScheduler getWakeupScheduler()
+	{
+		return scheduler;
+	}
+
+	/**
+	 * @return the managers dispatching this publisher's work
+	 */
+	JobManager[] getManagers()
+	{
+		return managers;
+	}
+
+	/**
+	 * @return true if there is work waiting to be claimed, including work
+	 *	this shard would steal
+	 */
+	boolean hasWork()
+	{
+		return !workQueue.isEmpty() || getVictim() != null;
+	}
+
+	/**
+	 * @return number of work items queued; 0 if the queue is not counted, as
+	 *	it is for a shard or elastic managers
+	 */
+	int getBacklog()
+	{
+		return countedQueue == null ? 0 : countedQueue.size();
+	}
+
+	/**
+	 * @return work items queued per manager, rounded up: those queued here,
+	 *	or if there are none, those of the shard its managers would claim
+	 *	from; 0 if the queue is not counted
+	 */
+	int getBacklogPerManager()
+	{
+		int backlog = getBacklog();
+		if (backlog == 0 && countedQueue != null)
+		{
+			JobPublisherImpl victim = getVictim();
+			if (victim != null) backlog = victim.getBacklog();
+		}
+		return (backlog + managers.length - 1) / managers.length;
+	}
+
+	/**
+	 * @return the shard to claim work from when this one has none queued:
+	 *	the most backlogged of its owner's other shards, or null if none has
+	 *	work, this is not a shard, or it is stopping
+	 */
+	private JobPublisherImpl getVictim()
+	{
+		if (owner == null || state.compareTo(State.STOPPING) >= 0) return null;
+		return owner.getMostBacklogged(this);
+	}
+
+	/**
+	 * Takes over work claimed from another shard's queue: it leaves that
+	 * shard's journal, if any, for this shard's.
+	 */
+	private void stolen(JobPublisherImpl victim, Work work)
+	{
+		// journaled here first, so a crash in between repeats the work
+		// rather than losing it
+		if (journal != null) journal.enqueued(work);
+		if (victim.journal != null) victim.journal.done(work);
+		owner.recordStolen();
+	}
+
 	/**
 	 * @return null if no new work to be had
 	 */
 	public Work getWork()
 	{
-		Work work = workTree.removeHighest();
-		if (work != null) activeWorkTree.put(work.getWorkLength(), work);
+		Work work = workQueue.removeHighest();
+		if (work == null)
+		{
+			JobPublisherImpl victim = getVictim();
+			if (victim == null) return null;
+			work = victim.workQueue.removeHighest();
+			if (work == null) return null;
+			stolen(victim, work);
+		}
+		if (journal != null) journal.dispatched(work);
+		activeWork.put(work.getId(), work);
 		return work;
 	}
 
+	/**
+	 * Claims up to max of the highest priority work items in one call.  A
+	 * shard with nothing queued claims them from the most backlogged shard.
+	 * @param max the maximum number of work items to claim
+	 * @param out receives the claimed work, highest priority first
+	 * @return the number of work items claimed; 0 if no new work to be had
+	 */
+	public int getWork(int max, Collection<Work> out)
+	{
+		int claimed = 0;
+		JobPublisherImpl source = this;
+		while (claimed < max)
+		{
+			Work work = source.workQueue.removeHighest();
+			if (work == null)
+			{
+				// steal only when empty-handed, and from one shard
+				if (claimed > 0 || source != this) break;
+				source = getVictim();
+				if (source == null) break;
+				continue;
+			}
+			if (source != this) stolen(source, work);
+			// activate before publishing to out, which may be shared
+			if (journal != null) journal.dispatched(work);
+			activeWork.put(work.getId(), work);
+			out.add(work);
+			claimed++;
+		}
+		return claimed;
+	}
+
+	/**
+	 * Runs work on the calling thread and records its run time.  The work is
+	 * interrupted if it runs past its time limit or is cancelled; work
+	 * cancelled before it starts is not run.  The run stays registered for
+	 * cancel() until the work is reported done or not done.
+	 * @param work work claimed from this publisher
+	 * @return null if the work is done; otherwise why it is not: what
+	 *	doWork() threw, or a TimeoutException or CancellationException if it
+	 *	was stopped
+	 */
+	Throwable runWork(Work work)
+	{
+		final int id = work.getId();
+		final RunningWork run = new RunningWork(Thread.currentThread());
+		running.put(id, run);
+		if (honorCancelRequest(id))
+		{
+			run.finish();
+			return new CancellationException("Work[" + id + "] cancelled");
+		}
+		if (state.compareTo(State.STOPPING) >= 0)
+		{
+			run.finish();
+			return new CancellationException("Work[" + id + "] not started, publisher stopping");
+		}
+
+		final long limit = timeLimitOf(work);
+		TimerWheel.Timeout timeout = null;
+		if (limit > 0)
+		{
+			timeout = timer.schedule(new Runnable()
+			{
+				public void run()
+				{
+					run.stop(new TimeoutException("Work[" + id +
+						"] timed out after " + limit + "ms"));
+				}
+			}, limit);
+		}
+
+		Throwable failure = null;
+		long started = System.nanoTime();
+		try
+		{
+			work.doWork(); // BLOCKING: doing work
+		}
+		catch (Throwable t)
+		{
+			failure = t;
+		}
+		metrics.recordRun(System.nanoTime() - started);
+		if (timeout != null) timeout.cancel();
+		Throwable stopped = run.finish();
+		if (stopped instanceof TimeoutException) metrics.recordTimedOut();
+		return stopped != null ? stopped : failure;
+	}
+
+	/**
+	 * Honors a cancel() request for active work about to be started, or run
+	 * elsewhere, which cannot be interrupted.
+	 * @return true if cancel() requested the work be cancelled; it is then
+	 *	to be reported not done with a CancellationException
+	 */
+	boolean honorCancelRequest(int jobId)
+	{
+		if (cancelling.get() == 0) return false;
+		CancelRequest request = cancelRequests.get(jobId);
+		return request != null && request.settle(true);
+	}
+
+	/**
+	 * @return milliseconds the work may run for; 0 for no limit
+	 */
+	private long timeLimitOf(Work work)
+	{
+		Work inner = work instanceof SubmittedWork ?
+			((SubmittedWork)work).getWork() : work;
+		return inner instanceof TimeLimitedWork ?
+			((TimeLimitedWork)inner).getTimeoutMillis() : jobTimeoutMillis;
+	}
+
+	/**
+	 * Called by manager when a batch of work is done
+	 */
+	public void workDone(Collection<Work> works)
+	{
+		for (Work work : works)
+		{
+			workDone(work);
+		}
+	}
+
 	/**
 	 * Called by manager when work is done
 	 */
 	public void workDone(Work work)
 	{
-		if (!activeWorkTree.remove(work.getWorkLength()))
+		if (!activeWork.remove(work.getId(), work))
 		{
-			Logger.error("Work done not found: %d", work.getId());
+			if (state != State.STOPPED) Logger.error("Work done not found: %d", work.getId());
+		}
+		else if (takeCancelRequest(work, false))
+		{
+			// promised while it was done elsewhere
+			running.remove(work.getId());
+			cancelled(work);
 		}
 		else
 		{
+			if (journal != null) journal.done(work);
+			if (retrying.get() > 0 && failures.remove(work.getId()) != null)
+			{
+				retrying.decrementAndGet();
+			}
+			running.remove(work.getId());
+			metrics.recordDone();
+			long deadline = EdfWorkQueue.deadlineOf(work);
+			if (deadline != Long.MAX_VALUE)
+			{
+				metrics.recordDeadline(System.currentTimeMillis() <= deadline);
+			}
 			Logger.info("Work done: id=[%d] workLength=[%d]", work.getId(), work.getWorkLength());
+			if (work instanceof SubmittedWork)
+			{
+				SubmittedWork submitted = (SubmittedWork)work;
+				submitted.getFuture().complete(submitted.getWork());
+			}
 		}
 	}
 
 	/**
-	 * Called by manager when work is not able to be done
+	 * Called by manager when work is not able to be done.  Work that was
+	 * never started (t is null) is requeued at once.  Work that threw is
+	 * requeued after its retry delay, during which other work is dispatched,
+	 * and is dead lettered once it has used up its retries.  Work that was
+	 * cancelled is finished instead, and while stopping, work is kept to be
+	 * checkpointed.
 	 */
 	public void workNotDone(Work work, Throwable t)
 	{
-		if (t != null)
+		if (t != null && !(t instanceof CancellationException) &&
+			failureLog.tryAcquire())
 		{
 			Logger.throwable("Work has thrown a throwable: ", t);
+			long suppressed = failureLog.takeDenied();
+			if (suppressed > 0)
+			{
+				Logger.error("%d more work failures not logged", suppressed);
+			}
 		}
-		if (!activeWorkTree.remove(work.getWorkLength()))
+		if (!activeWork.remove(work.getId(), work))
 		{
-			Logger.error("Work not done not found: %d", work.getId());
+			if (state != State.STOPPED) Logger.error("Work not done not found: %d", work.getId());
+			return;
 		}
-		else
+		// work that timed out was already counted as such
+		boolean cancelled = takeCancelRequest(work, !(t instanceof TimeoutException));
+		running.remove(work.getId());
+		boolean stopping = state.compareTo(State.STOPPING) >= 0;
+		if (cancelled || (t instanceof CancellationException && !stopping))
+		{
+			cancelled(work);
+			return;
+		}
+		if (stopping)
+		{
+			checkpointed.add(work);
+			return;
+		}
+
+		metrics.recordNotDone();
+		Logger.info("Work not done: %d", work.getId());
+		if (t == null)
+		{
+			if (journal != null) journal.notDone(work);
+			workQueue.put(work.getWorkLength(), work);
+			metrics.recordRetry();
+			return;
+		}
+
+		Integer failed = failures.get(work.getId());
+		int retry = failed == null ? 1 : failed + 1;
+		if (retry > retryPolicy.getMaxRetries())
+		{
+			if (failed != null)
+			{
+				failures.remove(work.getId());
+				retrying.decrementAndGet();
+			}
+			deadLetter(work, t);
+			return;
+		}
+		if (failures.put(work.getId(), retry) == null)
+		{
+			retrying.incrementAndGet();
+		}
+		if (journal != null) journal.notDone(work);
+		metrics.recordRetry();
+		awaitingRetry.put(work.getId(), work);
+		timer.schedule(new Runnable()
+		{
+			public void run()
+			{
+				if (!awaitingRetry.remove(work.getId(), work)) return; // cancelled
+				workQueue.put(work.getWorkLength(), work);
+				signalManagers(1);
+			}
+		}, retryPolicy.delayMillis(retry));
+	}
+
+	/**
+	 * Takes and settles the cancel() request for work no longer active, if
+	 * there is one.
+	 * @param honor whether to honor a request that was not already honored
+	 *	or promised
+	 * @return true if the request is honored; the work is to be cancelled
+	 */
+	private boolean takeCancelRequest(Work work, boolean honor)
+	{
+		if (cancelling.get() == 0) return false;
+		CancelRequest request = cancelRequests.remove(work.getId());
+		if (request == null) return false;
+		cancelling.decrementAndGet();
+		return request.settle(honor);
+	}
+
+	/**
+	 * Finishes cancelled work, which is no longer queued or active, and
+	 * cancels its completion handle.
+	 */
+	private void cancelled(Work work)
+	{
+		if (journal != null) journal.done(work);
+		if (retrying.get() > 0 && failures.remove(work.getId()) != null)
+		{
+			retrying.decrementAndGet();
+		}
+		metrics.recordCancelled();
+		Logger.info("Work cancelled: %d", work.getId());
+		if (work instanceof SubmittedWork)
 		{
-			Logger.info("Work not done: %d", work.getId());
-			workTree.put(work.getWorkLength(), work);
+			((SubmittedWork)work).getFuture().cancel(false);
 		}
 	}
 
 	/**
-	 * @param numberOfJobsToEnqueue number of jobs to enqueue with a randomly
-	 *	assigned work time between 0 and 5 seconds
+	 * Moves work that has used up its retries to the dead-letter queue,
+	 * dropping the oldest dead letter if the queue is full, and fails its
+	 * completion handle.
 	 */
-	private void enqueueJobs(int numberOfJobsToEnqueue)
+	private void deadLetter(Work work, Throwable t)
 	{
-		// if the work queue was empty, notify managers
-		boolean notifyManagers = workTree.isEmpty();
-		for (int i = 0 ; i < numberOfJobsToEnqueue ; i++)
+		if (journal != null) journal.deadLettered(work);
+		metrics.recordDeadLettered();
+		Logger.error("Work dead lettered: %d", work.getId());
+		Work dead = work;
+		if (work instanceof SubmittedWork)
 		{
-			int workId = workCounter++;
-			long length = 1 + random.nextInt(MAX_WORK_TIME_MILLIS);
-			Logger.info("SleepWork[%d,%d] enqueued", workId, length);
-			SleepWork work = new SleepWork(length);
-			work.setId(workId);
-			workTree.put(length, work);
+			SubmittedWork submitted = (SubmittedWork)work;
+			dead = submitted.getWork();
+			submitted.getFuture().completeExceptionally(t);
 		}
+		synchronized (deadLetters)
+		{
+			if (deadLetters.size() == MAX_DEAD_LETTERS) deadLetters.poll();
+			deadLetters.add(dead);
+		}
+	}
 
-		// return early if managers don't need to be notified
-		if (!notifyManagers) return;
-		for (JobManager manager : managers)
+	/**
+	 * Informs every manager that work is available.
+	 */
+	void notifyManagers()
+	{
+		scheduler.signalAll();
+	}
+
+	/**
+	 * Wakes only as many idle managers as are needed to cover the spare
+	 * capacity required by the new work.  A shard whose own managers cannot
+	 * cover it wakes idle managers of other shards, which steal the rest.
+	 * @param jobs number of work items just enqueued
+	 */
+	void signalManagers(int jobs)
+	{
+		int uncovered = scheduler.signal(jobs);
+		if (uncovered > 0 && owner != null) owner.signalOthers(this, uncovered);
+	}
+
+	/**
+	 * Assigns the work an ID, journals it and enqueues it without notifying
+	 * managers.
+	 * @param work the work to enqueue
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	void enqueue(Work work)
+	{
+		enqueue(work, workCounter.getAndIncrement());
+	}
+
+	/**
+	 * Assigns the work the given ID, journals it and enqueues it without
+	 * notifying managers.
+	 * @param work the work to enqueue
+	 * @param id the ID to assign the work, taken from the workCounter shared
+	 *	with the other shards, if any
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	void enqueue(Work work, int id)
+	{
+		if (state != State.RUNNING) throw shuttingDown();
+		work.setId(id);
+		if (journal != null) journal.enqueued(work);
+		workQueue.put(work.getWorkLength(), work);
+		// enqueue, then check for stopping, while stop() sets stopping, then
+		// empties the queue; work not taken back here is checkpointed there
+		if (state.compareTo(State.STOPPING) >= 0 &&
+			workQueue.remove(work.getId()) != null)
 		{
-			synchronized (manager)
-			{
-				manager.notify();
-			}
+			if (journal != null) journal.done(work);
+			throw shuttingDown();
+		}
+	}
+
+	private static IllegalStateException shuttingDown()
+	{
+		return new IllegalStateException("publisher is shutting down");
+	}
+
+	private JobManager createManager(ManagerType managerType,
+		int numberOfWorkers, int id, ElasticPolicy elastic)
+	{
+		switch (managerType)
+		{
+			case EXECUTOR:
+				return new JobManagerExecutor(this, numberOfWorkers, id);
+			case STEALING:
+				return new JobManagerStealing(this, numberOfWorkers, id);
+			case VIRTUAL:
+				return new JobManagerVirtual(this, numberOfWorkers, id);
+			case HANDOFF:
+				return new JobManagerImpl(this, numberOfWorkers, id, true, elastic);
+			default:
+				return new JobManagerImpl(this, numberOfWorkers, id, false, elastic);
 		}
 	}
 
-	private void kill()
+	/**
+	 * Kills every manager at once, without waiting for them; pending work,
+	 * including work waiting to be retried, is abandoned, though journaled
+	 * work is recovered by the next publisher opening the journal.  See
+	 * shutdown() to finish or checkpoint pending work instead.
+	 */
+	void kill()
 	{
 		for (JobManager manager : managers)
 		{
 			manager.kill();
 		}
+		timer.stop();
+		if (journal != null) journal.close();
+	}
+
+	/**
+	 * Lifecycle of the publisher; it only moves forward.
+	 */
+	private enum State
+	{
+		RUNNING,
+		DRAINING,	// refusing new work, finishing pending work
+		STOPPING,	// managers killed, pending work being collected
+		STOPPED		// work still active has been abandoned
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,590 @@
+package ssimwave.job.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
+import ssimwave.util.Logger;
+
+/**
+ * Append-only, memory-mapped write-ahead journal of Work events.  Each event
+ * is a fixed 32 byte record, written into the current segment file:
+ *	type (4) | id (4) | key (8) | payload (8) | check (8)
+ * Records are aligned so that none straddles a page; dirty pages reach the
+ * disk in no particular order, and a record split across two could survive
+ * in part.  The check, a hash of the other fields, ends replay at a record
+ * that was only partly written all the same.
+ * A flusher thread forces appended records to disk every commit interval,
+ * so many events share one force() and a crash loses at most one interval.
+ * Opening a journal replays its segments: Work enqueued and not done is
+ * recovered, including Work that was in flight.  Once enough segments are
+ * sealed, a compactor thread rewrites them as one snapshot of the Work still
+ * live.  Only Work the codec can encode is journaled.
+ */
+public class Journal
+{
+	/**
+	 * Default size of each segment file
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Default time between forcing appended records to disk
+	 */
+	public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+
+	private static final int COMPACT_AFTER_SEGMENTS = 4;
+	private static final int RECORD_SIZE = 32; // divides the page size
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int TYPE_END = 0;
+	private static final int TYPE_ENQUEUE = 1;
+	private static final int TYPE_DISPATCH = 2;
+	private static final int TYPE_DONE = 3;
+	private static final int TYPE_NOT_DONE = 4;
+	private static final int TYPE_SNAPSHOT = 5; // discards all earlier records
+	private static final int TYPE_DEAD_LETTER = 6;
+
+	private static final String PREFIX = "journal-";
+	private static final String SUFFIX = ".log";
+
+	private final Path directory;
+	private final WorkCodec codec;
+	private final int segmentSize;
+	private final long commitIntervalNanos;
+
+	private final List<Work> recovered;
+	private final int recoveredInFlight;
+	private final int nextId;
+
+	// member variables to only be accessed on synchronized
+	private MappedByteBuffer segment;
+	private long segmentSeq;
+	private int position;
+	private volatile boolean closed;
+	private volatile long appended;
+	private volatile boolean unencodableLogged;
+
+	// sealed segments waiting to be forced, then counted for compaction;
+	// they are sealed in sequence order, so the flusher can number them
+	private final ConcurrentLinkedQueue<MappedByteBuffer> sealed;
+	private final AtomicInteger sealedSegments;
+	private volatile long forcedSeq; // newest segment forced and counted
+	private final Thread flusher;
+	private final Thread compactor;
+
+	/**
+	 * Opens the journal in directory, recovering Work journaled there.
+	 * @param directory where segment files are kept; created if missing
+	 * @param codec encodes the Work to journal
+	 * @throws IOException if the journal cannot be read or created
+	 */
+	public Journal(String directory, WorkCodec codec) throws IOException
+	{
+		this(directory, codec, DEFAULT_SEGMENT_SIZE,
+			DEFAULT_COMMIT_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Opens the journal in directory, recovering Work journaled there.
+	 * @param directory where segment files are kept; created if missing
+	 * @param codec encodes the Work to journal
+	 * @param segmentSize size of each segment file
+	 * @param commitIntervalMillis time between forcing records to disk
+	 * @throws IOException if the journal cannot be read or created
+	 */
+	public Journal(String directory, WorkCodec codec, int segmentSize,
+		long commitIntervalMillis) throws IOException
+	{
+		this.directory = Paths.get(directory);
+		this.codec = codec;
+		this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+		this.commitIntervalNanos = commitIntervalMillis * 1000000L;
+		Files.createDirectories(this.directory);
+
+		// replay every segment left by previous runs
+		List<Long> seqs = listSegments();
+		Replay replay = new Replay();
+		for (long seq : seqs)
+		{
+			replay.read(pathOf(seq));
+		}
+		recovered = new ArrayList<Work>(replay.live.size());
+		int inFlight = 0;
+		for (Map.Entry<Integer,long[]> entry : replay.live.entrySet())
+		{
+			long[] state = entry.getValue();
+			recovered.add(codec.decode(state[1], entry.getKey()));
+			if (state[2] != 0) inFlight++;
+		}
+		recoveredInFlight = inFlight;
+		nextId = replay.maxId + 1;
+
+		sealed = new ConcurrentLinkedQueue<MappedByteBuffer>();
+		sealedSegments = new AtomicInteger(seqs.size());
+		segmentSeq = seqs.isEmpty() ? 0 : seqs.get(seqs.size() - 1);
+		forcedSeq = segmentSeq;
+		openSegment(segmentSeq + 1);
+
+		flusher = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				flushLoop();
+			}
+		}, "JournalFlusher");
+		flusher.setDaemon(true);
+		flusher.start();
+		compactor = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				compactLoop();
+			}
+		}, "JournalCompactor");
+		compactor.setDaemon(true);
+		compactor.start();
+		if (sealedSegments.get() >= COMPACT_AFTER_SEGMENTS)
+		{
+			LockSupport.unpark(compactor);
+		}
+	}
+
+	/**
+	 * @return Work enqueued and not done when the journal was opened, in
+	 *	enqueue order, with the IDs it had been assigned
+	 */
+	public List<Work> getRecovered()
+	{
+		return Collections.unmodifiableList(recovered);
+	}
+
+	/**
+	 * @return how many recovered Work items had been dispatched
+	 */
+	public int getRecoveredInFlight()
+	{
+		return recoveredInFlight;
+	}
+
+	/**
+	 * @return an ID above every ID found in the journal
+	 */
+	public int getNextId()
+	{
+		return nextId;
+	}
+
+	/**
+	 * Records that work was enqueued.  Work the codec cannot encode is not
+	 * journaled, and the first such is logged; submitted Work is left out
+	 * quietly, as its future would not survive a restart anyway
+	 */
+	public void enqueued(Work work)
+	{
+		if (codec.canEncode(work))
+		{
+			append(TYPE_ENQUEUE, work.getId(), work.getWorkLength(),
+				codec.encode(work));
+		}
+		else if (!unencodableLogged && !(work instanceof SubmittedWork))
+		{
+			unencodableLogged = true; // racing callers may both log
+			Logger.error("Journal cannot encode %s; such work is not journaled",
+				work.getClass().getName());
+		}
+	}
+
+	/**
+	 * Records that work was claimed by a manager
+	 */
+	public void dispatched(Work work)
+	{
+		if (codec.canEncode(work)) append(TYPE_DISPATCH, work.getId(), 0, 0);
+	}
+
+	/**
+	 * Records that work was completed
+	 */
+	public void done(Work work)
+	{
+		if (codec.canEncode(work)) append(TYPE_DONE, work.getId(), 0, 0);
+	}
+
+	/**
+	 * Records that work could not be completed and is to be requeued
+	 */
+	public void notDone(Work work)
+	{
+		if (codec.canEncode(work)) append(TYPE_NOT_DONE, work.getId(), 0, 0);
+	}
+
+	/**
+	 * Records that work was given up on after exhausting its retries
+	 */
+	public void deadLettered(Work work)
+	{
+		if (codec.canEncode(work)) append(TYPE_DEAD_LETTER, work.getId(), 0, 0);
+	}
+
+	/**
+	 * @return number of records appended since the journal was opened
+	 */
+	public long getAppended()
+	{
+		return appended;
+	}
+
+	/**
+	 * Forces every appended record to disk and stops the journal's threads.
+	 * Records appended afterwards are discarded.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			if (closed) return;
+			closed = true;
+		}
+		LockSupport.unpark(flusher);
+		LockSupport.unpark(compactor);
+		try
+		{
+			flusher.join();
+			compactor.join();
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void append(int type, int id, long key, long payload)
+	{
+		synchronized (this)
+		{
+			if (closed) return;
+			if (position + RECORD_SIZE > segmentSize)
+			{
+				try
+				{
+					sealed.add(segment);
+					openSegment(segmentSeq + 1);
+				}
+				catch (IOException ioe)
+				{
+					Logger.throwable("Journal failed to roll segment; " +
+						"journaling stopped: ", ioe);
+					closed = true;
+					return;
+				}
+			}
+			// the type is written last so that a torn record reads as the end
+			segment.putLong(position + 8, key);
+			segment.putLong(position + 16, payload);
+			segment.putLong(position + 24, check(type, id, key, payload));
+			segment.putInt(position + 4, id);
+			segment.putInt(position, type);
+			position += RECORD_SIZE;
+			appended++;
+		}
+	}
+
+	private void openSegment(long seq) throws IOException
+	{
+		FileChannel channel = FileChannel.open(pathOf(seq),
+			StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+			StandardOpenOption.WRITE);
+		try
+		{
+			// the mapping stays valid after the channel is closed
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		finally
+		{
+			channel.close();
+		}
+		segmentSeq = seq;
+		position = 0;
+	}
+
+	/**
+	 * Group commit: forces all records appended during the last interval with
+	 * one force() per segment.
+	 */
+	private void flushLoop()
+	{
+		long forced = 0;
+		for (;;)
+		{
+			boolean stopping = closed;
+			MappedByteBuffer full;
+			while ((full = sealed.poll()) != null)
+			{
+				full.force();
+				// counted before it may be compacted, see compact()
+				int count = sealedSegments.incrementAndGet();
+				forcedSeq++;
+				if (count >= COMPACT_AFTER_SEGMENTS)
+				{
+					LockSupport.unpark(compactor);
+				}
+			}
+
+			MappedByteBuffer current;
+			long target;
+			synchronized (this)
+			{
+				current = segment;
+				target = appended;
+			}
+			if (target != forced)
+			{
+				current.force();
+				forced = target;
+			}
+
+			if (stopping) return;
+			LockSupport.parkNanos(this, commitIntervalNanos);
+		}
+	}
+
+	private void compactLoop()
+	{
+		while (!closed)
+		{
+			LockSupport.park(this); // BLOCKING: waiting for sealed segments
+			if (closed) return;
+			if (sealedSegments.get() < COMPACT_AFTER_SEGMENTS) continue;
+			try
+			{
+				compact();
+			}
+			catch (IOException ioe)
+			{
+				Logger.throwable("Journal compaction failed: ", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Replaces all sealed segments the flusher has forced with one snapshot
+	 * of the Work they leave live.  The snapshot takes the newest segment's
+	 * place, so a crash before the older segments are deleted only leaves
+	 * records the snapshot's reset marker discards.  Only segments already
+	 * counted in sealedSegments are compacted, so the count stays equal to
+	 * the number of forced segment files.
+	 */
+	private void compact() throws IOException
+	{
+		long forced = forcedSeq;
+		List<Long> seqs = new ArrayList<Long>();
+		for (long seq : listSegments())
+		{
+			if (seq <= forced) seqs.add(seq);
+		}
+		if (seqs.size() < 2) return;
+
+		Replay replay = new Replay();
+		for (long seq : seqs)
+		{
+			replay.read(pathOf(seq));
+		}
+
+		long last = seqs.get(seqs.size() - 1);
+		Path temp = directory.resolve(PREFIX + last + ".tmp");
+		FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+			putRecord(buffer, TYPE_SNAPSHOT, 0, replay.maxId, 0);
+			for (Map.Entry<Integer,long[]> entry : replay.live.entrySet())
+			{
+				if (buffer.remaining() < 2 * RECORD_SIZE) write(channel, buffer);
+				long[] state = entry.getValue();
+				putRecord(buffer, TYPE_ENQUEUE, entry.getKey(), state[0], state[1]);
+				if (state[2] != 0)
+				{
+					putRecord(buffer, TYPE_DISPATCH, entry.getKey(), 0, 0);
+				}
+			}
+			write(channel, buffer);
+			channel.force(true);
+		}
+		finally
+		{
+			channel.close();
+		}
+		Files.move(temp, pathOf(last), StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		for (long seq : seqs)
+		{
+			if (seq != last) Files.delete(pathOf(seq));
+		}
+		sealedSegments.addAndGet(1 - seqs.size());
+		Logger.info("Journal compacted %d segments; %d jobs live", seqs.size(),
+			replay.live.size());
+	}
+
+	private static void putRecord(ByteBuffer buffer, int type, int id,
+		long key, long payload)
+	{
+		buffer.putInt(type).putInt(id).putLong(key).putLong(payload)
+			.putLong(check(type, id, key, payload));
+	}
+
+	/**
+	 * @return hash of a record's fields; never 0, so a zeroed record fails
+	 *	the check
+	 */
+	private static long check(int type, int id, long key, long payload)
+	{
+		long hash = ((long)type << 32 | (id & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+		hash = (hash ^ key) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ payload) * 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash == 0 ? 1 : hash;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer)
+		throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * @return sequence numbers of the segment files, oldest first
+	 */
+	private List<Long> listSegments() throws IOException
+	{
+		List<Long> seqs = new ArrayList<Long>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+			PREFIX + "*" + SUFFIX);
+		try
+		{
+			for (Path file : files)
+			{
+				String name = file.getFileName().toString();
+				try
+				{
+					seqs.add(Long.parseLong(name.substring(PREFIX.length(),
+						name.length() - SUFFIX.length())));
+				}
+				catch (NumberFormatException nfe)
+				{
+					Logger.error("Journal ignoring file: %s", name);
+				}
+			}
+		}
+		finally
+		{
+			files.close();
+		}
+		Collections.sort(seqs);
+		return seqs;
+	}
+
+	private Path pathOf(long seq)
+	{
+		return directory.resolve(String.format("%s%016d%s", PREFIX, seq, SUFFIX));
+	}
+
+	/**
+	 * Live Work rebuilt from journal records: ID to {key, payload, in flight}.
+	 */
+	private static final class Replay
+	{
+		private final LinkedHashMap<Integer,long[]> live =
+			new LinkedHashMap<Integer,long[]>();
+		private int maxId = -1;
+
+		/**
+		 * Applies the records of one segment, stopping at its first unwritten
+		 * or torn record.
+		 */
+		void read(Path file) throws IOException
+		{
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try
+			{
+				ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+				while (channel.read(buffer) > 0 || buffer.position() > 0)
+				{
+					buffer.flip();
+					if (buffer.remaining() < RECORD_SIZE) return;
+					while (buffer.remaining() >= RECORD_SIZE)
+					{
+						int type = buffer.getInt();
+						int id = buffer.getInt();
+						long key = buffer.getLong();
+						long payload = buffer.getLong();
+						if (buffer.getLong() != check(type, id, key, payload) ||
+							!apply(type, id, key, payload))
+						{
+							return;
+						}
+					}
+					buffer.compact();
+				}
+			}
+			finally
+			{
+				channel.close();
+			}
+		}
+
+		/**
+		 * @return false at the end of the segment's records
+		 */
+		private boolean apply(int type, int id, long key, long payload)
+		{
+			long[] state;
+			switch (type)
+			{
+				case TYPE_SNAPSHOT:
+					live.clear();
+					maxId = Math.max(maxId, (int)key);
+					return true;
+				case TYPE_ENQUEUE:
+					live.put(id, new long[] { key, payload, 0 });
+					maxId = Math.max(maxId, id);
+					return true;
+				case TYPE_DISPATCH:
+					state = live.get(id);
+					if (state != null) state[2] = 1;
+					return true;
+				case TYPE_NOT_DONE:
+					state = live.get(id);
+					if (state != null) state[2] = 0;
+					return true;
+				case TYPE_DONE:
+				case TYPE_DEAD_LETTER:
+					live.remove(id);
+					return true;
+				case TYPE_END:
+				default:
+					return false;
+			}
+		}
+	}
+}
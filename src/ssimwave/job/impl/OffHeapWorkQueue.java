@@ -0,0 +1,460 @@
+package ssimwave.job.impl;
+
+import java.nio.ByteBuffer;
+
+import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
+import ssimwave.util.StripedLongMap;
+
+/**
+ * WorkQueue that keeps pending Work outside the Java heap, for backlogs of
+ * tens of millions of jobs.  Each job is a fixed 32 byte record in a 4-ary
+ * max-heap spread over direct ByteBuffer segments:
+ *	key (8) | id (4) | type (4) | payload (8) | enqueue time (8)
+ * Work the codec can encode is rebuilt only when it is removed; other Work
+ * stays on the heap in a side table keyed by ID, with only its record
+ * off-heap.  Operations take the queue's monitor.  Removing work by ID looks
+ * its record up in an open-addressing table of 8 byte entries, also in
+ * direct segments, that every move of a record keeps up to date:
+ *	id (4) | index + 1 (4), all zero for an empty entry
+ * The table is kept between 1/8 and 1/2 full.
+ */
+public class OffHeapWorkQueue implements WorkQueue
+{
+	private static final int RECORD_SIZE = 32;
+	private static final int KEY = 0;
+	private static final int ID = 8;
+	private static final int TYPE = 12;
+	private static final int PAYLOAD = 16;
+	private static final int ENQUEUED = 24;
+
+	// a 4-ary heap is half as deep as a binary one and a record's children
+	// are adjacent in memory
+	private static final int ARITY_BITS = 2;
+
+	private static final int TYPE_ENCODED = 0;
+	private static final int TYPE_ON_HEAP = 1;
+
+	// 65536 records, 2MB, per segment
+	private static final int SEGMENT_BITS = 16;
+	private static final int SEGMENT_RECORDS = 1 << SEGMENT_BITS;
+	private static final int SEGMENT_MASK = SEGMENT_RECORDS - 1;
+
+	// 65536 entries, 512KB, per index segment
+	private static final int ENTRY_SIZE = 8;
+	private static final int MIN_ENTRIES = SEGMENT_RECORDS;
+
+	private final WorkCodec codec;
+	private final JobMetrics metrics;
+	private final StripedLongMap<Work> onHeap;
+
+	// member variables to only be accessed on synchronized
+	private ByteBuffer[] segments;
+	private int segmentCount;
+	private ByteBuffer[] byId; // index of records by ID
+	private int indexMask; // number of entries - 1
+	private volatile int size; // volatile for unsynchronized isEmpty()
+
+	/**
+	 * @param codec encodes Work to be held entirely off-heap; may be null to
+	 *	keep all Work in the side table
+	 */
+	public OffHeapWorkQueue(WorkCodec codec)
+	{
+		this(codec, null);
+	}
+
+	/**
+	 * @param codec encodes Work to be held entirely off-heap; may be null to
+	 *	keep all Work in the side table
+	 * @param metrics records the time work spends in the queue; may be null
+	 */
+	public OffHeapWorkQueue(WorkCodec codec, JobMetrics metrics)
+	{
+		this.codec = codec;
+		this.metrics = metrics;
+		onHeap = new StripedLongMap<Work>();
+		segments = new ByteBuffer[16];
+		segments[0] = ByteBuffer.allocateDirect(SEGMENT_RECORDS * RECORD_SIZE);
+		segmentCount = 1;
+		size = 0;
+		resizeIndex(MIN_ENTRIES);
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key priority of the work; higher keys are removed first
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		int id = work.getId();
+		long enqueued = metrics == null ? 0 : System.nanoTime();
+		int type;
+		long payload;
+		if (codec != null && codec.canEncode(work))
+		{
+			type = TYPE_ENCODED;
+			payload = codec.encode(work);
+		}
+		else
+		{
+			type = TYPE_ON_HEAP;
+			payload = 0;
+		}
+
+		synchronized (this)
+		{
+			if (type == TYPE_ON_HEAP) onHeap.put(id, work);
+			if (size == segmentCount << SEGMENT_BITS) grow();
+			if (size >= (indexMask + 1) >>> 1) resizeIndex((indexMask + 1) << 1);
+
+			// sift up: move lower priority parents down into the hole
+			int hole = size;
+			while (hole > 0)
+			{
+				int parent = (hole - 1) >>> ARITY_BITS;
+				if (!isHigher(key, id, parent)) break;
+				copy(parent, hole);
+				hole = parent;
+			}
+			ByteBuffer segment = segmentOf(hole);
+			int offset = offsetOf(hole);
+			segment.putLong(offset + KEY, key);
+			segment.putInt(offset + ID, id);
+			segment.putInt(offset + TYPE, type);
+			segment.putLong(offset + PAYLOAD, payload);
+			segment.putLong(offset + ENQUEUED, enqueued);
+			setIndex(id, hole);
+			size++;
+		}
+	}
+
+	/**
+	 * Remove largest key value work item.
+	 * @return largest key value work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		int id;
+		int type;
+		long payload;
+		long enqueued;
+		Work work = null;
+		synchronized (this)
+		{
+			if (size == 0) return null;
+			ByteBuffer segment = segments[0];
+			id = segment.getInt(ID);
+			type = segment.getInt(TYPE);
+			payload = segment.getLong(PAYLOAD);
+			enqueued = segment.getLong(ENQUEUED);
+			if (type == TYPE_ON_HEAP) work = onHeap.remove(id);
+			unindex(id);
+			removeAt(0);
+		}
+
+		if (type != TYPE_ON_HEAP) work = codec.decode(payload, id);
+		if (metrics != null)
+		{
+			metrics.recordWait(System.nanoTime() - enqueued, work.getWorkLength());
+		}
+		return work;
+	}
+
+	/**
+	 * Removes the work with the given ID; O(1) to find its record, then
+	 * O(log n) to restore the heap.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		int type;
+		long payload;
+		Work work = null;
+		synchronized (this)
+		{
+			int entry = entryOf(id);
+			int index = (int)entryAt(entry) - 1;
+			if (index < 0) return null;
+			ByteBuffer segment = segmentOf(index);
+			int offset = offsetOf(index);
+			type = segment.getInt(offset + TYPE);
+			payload = segment.getLong(offset + PAYLOAD);
+			if (type == TYPE_ON_HEAP) work = onHeap.remove(id);
+			removeEntry(entry);
+			removeAt(index);
+		}
+		return type == TYPE_ON_HEAP ? work : codec.decode(payload, id);
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+
+	/**
+	 * @return number of queued work items
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Removes the record at index, whose ID is already unindexed, filling
+	 * its hole with the last record, and releases a segment the queue no
+	 * longer needs.
+	 */
+	private void removeAt(int index)
+	{
+		int last = size - 1;
+		if (index < last)
+		{
+			if (index > 0 && isHigher(last, (index - 1) >>> ARITY_BITS))
+			{
+				siftUp(last, index);
+			}
+			else
+			{
+				siftDown(last, index);
+			}
+		}
+		size = last;
+		if (segmentCount > 1 && size < (segmentCount - 2) << SEGMENT_BITS)
+		{
+			// keep one spare segment so a steady queue does not thrash
+			segments[--segmentCount] = null;
+		}
+		if (indexMask + 1 > MIN_ENTRIES && size < (indexMask + 1) >>> 3)
+		{
+			resizeIndex((indexMask + 1) >>> 1);
+		}
+	}
+
+	/**
+	 * Moves the record at index last into the hole and sifts it up.
+	 */
+	private void siftUp(int last, int hole)
+	{
+		ByteBuffer lastSegment = segmentOf(last);
+		int lastOffset = offsetOf(last);
+		long key = lastSegment.getLong(lastOffset + KEY);
+		int id = lastSegment.getInt(lastOffset + ID);
+
+		while (hole > 0)
+		{
+			int parent = (hole - 1) >>> ARITY_BITS;
+			if (!isHigher(key, id, parent)) break;
+			copy(parent, hole);
+			hole = parent;
+		}
+		copy(last, hole);
+	}
+
+	/**
+	 * Moves the record at index last into the hole and sifts it down.
+	 */
+	private void siftDown(int last, int hole)
+	{
+		ByteBuffer lastSegment = segmentOf(last);
+		int lastOffset = offsetOf(last);
+		long key = lastSegment.getLong(lastOffset + KEY);
+		int id = lastSegment.getInt(lastOffset + ID);
+
+		for (;;)
+		{
+			int first = (hole << ARITY_BITS) + 1;
+			if (first >= last || first < 0) break;
+			int end = Math.min(last, first + (1 << ARITY_BITS));
+			int child = first;
+			for (int i = first + 1 ; i < end ; i++)
+			{
+				if (isHigher(i, child)) child = i;
+			}
+			if (!isHigher(child, key, id)) break;
+			copy(child, hole);
+			hole = child;
+		}
+		copy(last, hole);
+	}
+
+	/**
+	 * @return true if (key, id) is removed before the record at index
+	 */
+	private boolean isHigher(long key, int id, int index)
+	{
+		ByteBuffer segment = segmentOf(index);
+		int offset = offsetOf(index);
+		long otherKey = segment.getLong(offset + KEY);
+		if (key != otherKey) return key > otherKey;
+		return id < segment.getInt(offset + ID);
+	}
+
+	/**
+	 * @return true if the record at index is removed before (key, id)
+	 */
+	private boolean isHigher(int index, long key, int id)
+	{
+		ByteBuffer segment = segmentOf(index);
+		int offset = offsetOf(index);
+		long indexKey = segment.getLong(offset + KEY);
+		if (indexKey != key) return indexKey > key;
+		return segment.getInt(offset + ID) < id;
+	}
+
+	private boolean isHigher(int index, int other)
+	{
+		ByteBuffer segment = segmentOf(index);
+		int offset = offsetOf(index);
+		return isHigher(segment.getLong(offset + KEY),
+			segment.getInt(offset + ID), other);
+	}
+
+	private void copy(int from, int to)
+	{
+		ByteBuffer source = segmentOf(from);
+		int sourceOffset = offsetOf(from);
+		ByteBuffer target = segmentOf(to);
+		int targetOffset = offsetOf(to);
+		// id and type are copied together as one long
+		for (int i = 0 ; i < RECORD_SIZE ; i += 8)
+		{
+			target.putLong(targetOffset + i, source.getLong(sourceOffset + i));
+		}
+		setIndex(source.getInt(sourceOffset + ID), to);
+	}
+
+	/**
+	 * Points the ID's entry at the record at index, adding it if missing.
+	 */
+	private void setIndex(int id, int index)
+	{
+		putEntry(entryOf(id), (long)id << 32 | (index + 1));
+	}
+
+	/**
+	 * Removes the ID's entry, if any.
+	 */
+	private void unindex(int id)
+	{
+		int entry = entryOf(id);
+		if (entryAt(entry) != 0) removeEntry(entry);
+	}
+
+	/**
+	 * Empties an entry, moving later entries of its probe run back so that
+	 * no lookup stops short at the gap.
+	 */
+	private void removeEntry(int gap)
+	{
+		for (int next = (gap + 1) & indexMask ; ; next = (next + 1) & indexMask)
+		{
+			long value = entryAt(next);
+			if (value == 0) break;
+			// an entry may only move back as far as the entry it hashes to
+			int home = hash((int)(value >>> 32)) & indexMask;
+			if (((next - home) & indexMask) >= ((next - gap) & indexMask))
+			{
+				putEntry(gap, value);
+				gap = next;
+			}
+		}
+		putEntry(gap, 0);
+	}
+
+	/**
+	 * @return the entry holding the ID, or the empty entry ending its probe
+	 *	run
+	 */
+	private int entryOf(int id)
+	{
+		int entry = hash(id) & indexMask;
+		for (;;)
+		{
+			long value = entryAt(entry);
+			if (value == 0 || (int)(value >>> 32) == id) return entry;
+			entry = (entry + 1) & indexMask;
+		}
+	}
+
+	/**
+	 * @return the entry's id and index + 1, read as one long
+	 */
+	private long entryAt(int entry)
+	{
+		return byId[entry >>> SEGMENT_BITS].getLong((entry & SEGMENT_MASK) *
+			ENTRY_SIZE);
+	}
+
+	private void putEntry(int entry, long value)
+	{
+		byId[entry >>> SEGMENT_BITS].putLong((entry & SEGMENT_MASK) *
+			ENTRY_SIZE, value);
+	}
+
+	/**
+	 * Replaces the index with an empty one of the given number of entries,
+	 * a power of two, and indexes every record again.
+	 */
+	private void resizeIndex(int entries)
+	{
+		byId = new ByteBuffer[(entries + SEGMENT_RECORDS - 1) >>> SEGMENT_BITS];
+		for (int i = 0 ; i < byId.length ; i++)
+		{
+			byId[i] = ByteBuffer.allocateDirect(SEGMENT_RECORDS * ENTRY_SIZE);
+		}
+		indexMask = entries - 1;
+		for (int i = 0 ; i < size ; i++)
+		{
+			setIndex(segmentOf(i).getInt(offsetOf(i) + ID), i);
+		}
+	}
+
+	private static int hash(int id)
+	{
+		// IDs are mostly consecutive; spread them over the table
+		int hash = id * 0x9e3779b9;
+		return hash ^ (hash >>> 16);
+	}
+
+	private void grow()
+	{
+		if (segmentCount == segments.length)
+		{
+			ByteBuffer[] larger = new ByteBuffer[segments.length << 1];
+			System.arraycopy(segments, 0, larger, 0, segmentCount);
+			segments = larger;
+		}
+		if (segments[segmentCount] == null)
+		{
+			segments[segmentCount] = ByteBuffer.allocateDirect(
+				SEGMENT_RECORDS * RECORD_SIZE);
+		}
+		segmentCount++;
+	}
+
+	private ByteBuffer segmentOf(int index)
+	{
+		return segments[index >>> SEGMENT_BITS];
+	}
+
+	private static int offsetOf(int index)
+	{
+		return (index & SEGMENT_MASK) * RECORD_SIZE;
+	}
+}
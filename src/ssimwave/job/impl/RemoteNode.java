@@ -0,0 +1,292 @@
+package ssimwave.job.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
+import ssimwave.util.Logger;
+
+/**
+ * Process that runs work leased from a JobCoordinator on a fixed pool of
+ * workers.  The calling thread of run() writes to the coordinator: it grants
+ * credit for every worker, reports completions, each batch with the credit
+ * it returns, in as few frames as have piled up since the last write, and
+ * heartbeats when there is nothing to report.  A reader thread decodes the
+ * leased jobs and hands them to the pool.  The node ends when its
+ * connection does; work it held is requeued by the coordinator.
+ */
+public class RemoteNode
+{
+	private final InetSocketAddress coordinator;
+	private final int numberOfWorkers;
+	private final WorkCodec codec;
+	private final ThreadPoolExecutor executor;
+	private final ConcurrentLinkedQueue<Completion> completions;
+	private final Completion[] batch; // writer thread only
+	private volatile Socket socket;
+	private volatile Thread writer;
+	private volatile boolean closed;
+	private volatile long heartbeatNanos;
+	private volatile int id;
+
+	/**
+	 * @param coordinator where the coordinator listens
+	 * @param numberOfWorkers jobs the node runs at once
+	 * @param codec decodes the work leased, as the coordinator encoded it
+	 */
+	public RemoteNode(InetSocketAddress coordinator, int numberOfWorkers,
+		WorkCodec codec)
+	{
+		this.coordinator = coordinator;
+		this.numberOfWorkers = numberOfWorkers;
+		this.codec = codec;
+		// credit keeps the queue to at most numberOfWorkers tasks
+		executor = new ThreadPoolExecutor(numberOfWorkers, numberOfWorkers,
+			0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		completions = new ConcurrentLinkedQueue<Completion>();
+		batch = new Completion[Math.min(numberOfWorkers,
+			RemoteProtocol.MAX_COMPLETIONS)];
+		closed = false;
+		heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(
+			JobPublisher.DEFAULT_LEASE_MILLIS) / 3;
+		id = -1;
+	}
+
+	/**
+	 * Connects to the coordinator and runs leased work until the connection
+	 * closes or kill() is called.
+	 * @throws IOException if the coordinator cannot be reached or written to
+	 */
+	public void run() throws IOException
+	{
+		writer = Thread.currentThread();
+		socket = new Socket();
+		try
+		{
+			socket.setTcpNoDelay(true);
+			socket.connect(coordinator);
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				socket.getInputStream(), RemoteProtocol.BUFFER_SIZE));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				socket.getOutputStream(), RemoteProtocol.BUFFER_SIZE));
+			Thread reader = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					read(in);
+				}
+			}, "NodeReader");
+			reader.start();
+
+			out.writeInt(9);
+			out.writeByte(RemoteProtocol.HELLO);
+			out.writeInt(RemoteProtocol.MAGIC);
+			out.writeInt(numberOfWorkers);
+			writeCredit(out, numberOfWorkers);
+			out.flush();
+
+			long lastWrite = System.nanoTime();
+			while (!closed)
+			{
+				if (report(out))
+				{
+					out.flush();
+					lastWrite = System.nanoTime();
+					continue;
+				}
+				long idle = System.nanoTime() - lastWrite;
+				if (idle >= heartbeatNanos)
+				{
+					out.writeInt(1);
+					out.writeByte(RemoteProtocol.HEARTBEAT);
+					out.flush();
+					lastWrite = System.nanoTime();
+					continue;
+				}
+				// BLOCKING: waiting for completions or the next heartbeat
+				LockSupport.parkNanos(this, heartbeatNanos - idle);
+			}
+		}
+		catch (IOException ioe)
+		{
+			if (!closed) throw ioe;
+		}
+		finally
+		{
+			kill();
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Disconnects from the coordinator and interrupts running work.
+	 */
+	public void kill()
+	{
+		closed = true;
+		if (socket == null) return; // not running
+		try
+		{
+			socket.close();
+		}
+		catch (IOException ioe)
+		{
+			Logger.throwable("Node[%d] failed to close: ", ioe, id);
+		}
+		LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Writes the completions that have piled up, and the credit they return.
+	 * @return false if there were none
+	 */
+	private boolean report(DataOutputStream out) throws IOException
+	{
+		if (completions.isEmpty()) return false;
+		int count;
+		do
+		{
+			count = 0;
+			Completion completion;
+			while (count < batch.length && (completion = completions.poll()) != null)
+			{
+				batch[count++] = completion;
+			}
+			if (count == 0) break;
+			out.writeInt(5 + count * RemoteProtocol.COMPLETION);
+			out.writeByte(RemoteProtocol.DONE);
+			out.writeInt(count);
+			for (int i = 0 ; i < count ; i++)
+			{
+				out.writeInt(batch[i].id);
+				out.writeByte(batch[i].status);
+				out.writeInt(batch[i].runMicros);
+			}
+			// after the completions, so the coordinator never sees more
+			// jobs leased and on credit than there are workers
+			writeCredit(out, count);
+		}
+		while (count == batch.length);
+		return true;
+	}
+
+	private static void writeCredit(DataOutputStream out, int jobs)
+		throws IOException
+	{
+		out.writeInt(5);
+		out.writeByte(RemoteProtocol.CREDIT);
+		out.writeInt(jobs);
+	}
+
+	/**
+	 * Reads frames from the coordinator until the connection closes.
+	 */
+	private void read(DataInputStream in)
+	{
+		try
+		{
+			for (;;)
+			{
+				int length = in.readInt(); // BLOCKING: waiting for the coordinator
+				byte type = in.readByte();
+				if (type == RemoteProtocol.WELCOME)
+				{
+					id = in.readInt();
+					heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(in.readLong()) / 3;
+					Logger.info("Node[%d] connected to %s with %d workers", id,
+						coordinator, numberOfWorkers);
+					LockSupport.unpark(writer); // heartbeat at the new rate
+				}
+				else if (type == RemoteProtocol.JOBS)
+				{
+					int count = in.readInt();
+					for (int i = 0 ; i < count ; i++)
+					{
+						int jobId = in.readInt();
+						run(codec.decode(in.readLong(), jobId));
+					}
+				}
+				else
+				{
+					in.skipBytes(length - 1);
+				}
+			}
+		}
+		catch (IOException ioe)
+		{
+			if (!closed)
+			{
+				Logger.info("Node[%d] disconnected: %s", id, ioe);
+			}
+		}
+		catch (RejectedExecutionException ree)
+		{
+			// killed while handing jobs to the pool
+		}
+		finally
+		{
+			closed = true;
+			LockSupport.unpark(writer);
+		}
+	}
+
+	/**
+	 * Runs the work on the pool and queues its completion for the writer.
+	 */
+	private void run(final Work work)
+	{
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				byte status = RemoteProtocol.COMPLETED;
+				long started = System.nanoTime();
+				try
+				{
+					work.doWork(); // BLOCKING: doing work
+				}
+				catch (Throwable t)
+				{
+					if (closed) return; // interrupted by kill()
+					Logger.throwable("Node[%d] Work[%d] has thrown: ", t, id,
+						work.getId());
+					status = RemoteProtocol.FAILED;
+				}
+				long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started);
+				completions.add(new Completion(work.getId(), status,
+					(int)Math.min(Integer.MAX_VALUE, micros)));
+				LockSupport.unpark(writer);
+			}
+		});
+	}
+
+	/**
+	 * A job the node ran, to be reported to the coordinator.
+	 */
+	private static final class Completion
+	{
+		final int id;
+		final byte status;
+		final int runMicros;
+
+		Completion(int id, byte status, int runMicros)
+		{
+			this.id = id;
+			this.status = status;
+			this.runMicros = runMicros;
+		}
+	}
+}
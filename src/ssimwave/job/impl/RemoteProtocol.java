@@ -0,0 +1,45 @@
+package ssimwave.job.impl;
+
+/**
+ * Frames exchanged between a JobCoordinator and its RemoteNodes over TCP.
+ * Every frame is big-endian:
+ *	length (4, of what follows) | type (1) | body
+ * A node grants the coordinator credit for as many jobs as it can take and
+ * the coordinator never sends more; completions return the credit.
+ */
+final class RemoteProtocol
+{
+	/**
+	 * Size of the buffers frames are read into; no frame is larger
+	 */
+	static final int BUFFER_SIZE = 64 * 1024;
+	static final int MAX_FRAME = BUFFER_SIZE - 4;
+
+	static final int MAGIC = 0x4a504e31; // "JPN1"
+
+	// node to coordinator
+	static final byte HELLO = 1;		// magic (4) | workers (4)
+	static final byte CREDIT = 2;		// jobs (4) more the node can take
+	static final byte DONE = 3;			// count (4) | count * COMPLETION
+	static final byte HEARTBEAT = 4;	// renews the node's lease
+
+	// coordinator to node
+	static final byte WELCOME = 10;		// node ID (4) | lease millis (8)
+	static final byte JOBS = 11;		// count (4) | count * JOB
+
+	static final int JOB = 12;			// ID (4) | payload (8)
+	static final int COMPLETION = 9;	// ID (4) | status (1) | run micros (4)
+
+	// completion statuses
+	static final byte COMPLETED = 0;
+	static final byte FAILED = 1;
+
+	/**
+	 * Most completions a node reports in one frame
+	 */
+	static final int MAX_COMPLETIONS = (MAX_FRAME - 5) / COMPLETION;
+
+	private RemoteProtocol()
+	{
+	}
+}
@@ -0,0 +1,55 @@
+package ssimwave.job.impl;
+
+/**
+ * Work being run by a thread, which a timeout or cancellation can stop by
+ * interrupting the thread.  The thread is only interrupted while the work
+ * runs, so an interrupt never leaks into what the thread does next.
+ */
+final class RunningWork
+{
+	private final Thread thread;
+
+	// member variables to be accessed when synchronized
+	private Throwable stopped; // why the work was stopped; null if it was not
+	private boolean finished;
+
+	/**
+	 * @param thread the thread running the work
+	 */
+	RunningWork(Thread thread)
+	{
+		this.thread = thread;
+		stopped = null;
+		finished = false;
+	}
+
+	/**
+	 * Interrupts the work unless it has already finished or been stopped.
+	 * @param reason reported as the work's failure
+	 * @return true if this call stopped the work
+	 */
+	synchronized boolean stop(Throwable reason)
+	{
+		if (finished || stopped != null) return false;
+		stopped = reason;
+		thread.interrupt();
+		return true;
+	}
+
+	/**
+	 * Marks the work finished, and clears the interrupt if it was stopped;
+	 * called by the running thread once the work returns.
+	 * @return why the work was stopped, or null if it was not
+	 */
+	Throwable finish()
+	{
+		Throwable reason;
+		synchronized (this)
+		{
+			finished = true;
+			reason = stopped;
+		}
+		if (reason != null) Thread.interrupted();
+		return reason;
+	}
+}
@@ -0,0 +1,416 @@
+package ssimwave.job.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.Work;
+import ssimwave.util.HashRing;
+
+/**
+ * Publisher split into shards, each a JobPublisherImpl with its own queue,
+ * managers and bookkeeping, so that enqueueing, dispatch and completion on
+ * one shard do not contend with the others.  Work is routed to a shard by a
+ * consistent hash of its ID, or of an affinity key given with it.  A shard
+ * whose queue is empty claims the highest priority work of the most
+ * backlogged shard, and a shard whose managers are all busy wakes idle
+ * managers of other shards to do so, so the shards share work much as one
+ * queue would.  Priority is only kept within a shard: work is dispatched
+ * highest first from each shard, not across them.
+ */
+public class ShardedJobPublisher extends JobPublisher
+{
+	private final JobPublisherImpl[] shards; // filled as they are created
+	private final JobMetrics[] metrics;
+	private final HashRing ring;
+	private final AtomicInteger workCounter;
+	private final AtomicLong stolen;
+	private final String notDoneLocation; // null if jobs not done are lost
+	private CompletableFuture<Integer> shutdown; // guarded by this
+
+	/**
+	 * Creates options.getNumberOfShards() shards and splits the managers
+	 * between them, the first shards taking one more if they do not divide
+	 * evenly.  Each shard journals to a subdirectory of the journal directory
+	 * named after it, and checkpoints to the snapshot file followed by '.'
+	 * and its number; only the first shard coordinates remote nodes.
+	 * @param options the publisher's settings
+	 * @throws IllegalArgumentException if there are fewer than 2 shards or
+	 *	more shards than managers
+	 * @throws java.io.UncheckedIOException if a journal cannot be opened or
+	 *	the coordinator port listened on
+	 */
+	public ShardedJobPublisher(JobPublisherOptions options)
+	{
+		int numberOfShards = options.getNumberOfShards();
+		if (numberOfShards < 2 || numberOfShards > options.getNumberOfManagers())
+		{
+			throw new IllegalArgumentException("numberOfShards must be from 2 to " +
+				"the number of managers: " + numberOfShards);
+		}
+		shards = new JobPublisherImpl[numberOfShards];
+		metrics = new JobMetrics[numberOfShards];
+		ring = new HashRing(numberOfShards);
+		workCounter = new AtomicInteger(0);
+		stolen = new AtomicLong();
+		notDoneLocation = options.getJournalDirectory() != null ?
+			"left in the journals in " + options.getJournalDirectory() :
+			options.getSnapshotFile() != null ?
+			"checkpointed to " + options.getSnapshotFile() + ".*" : null;
+
+		int managers = options.getNumberOfManagers();
+		for (int i = 0 ; i < numberOfShards ; i++)
+		{
+			JobPublisherOptions shardOptions = new JobPublisherOptions(options);
+			shardOptions.setNumberOfManagers(managers / numberOfShards +
+				(i < managers % numberOfShards ? 1 : 0));
+			if (options.getJournalDirectory() != null)
+			{
+				shardOptions.setJournalDirectory(options.getJournalDirectory() +
+					File.separator + "shard" + i);
+			}
+			if (options.getSnapshotFile() != null)
+			{
+				shardOptions.setSnapshotFile(options.getSnapshotFile() + "." + i);
+			}
+			if (i > 0) shardOptions.setCoordinatorPort(-1);
+			try
+			{
+				shards[i] = new JobPublisherImpl(shardOptions, this, workCounter);
+			}
+			catch (RuntimeException re)
+			{
+				for (int j = 0 ; j < i ; j++)
+				{
+					shards[j].kill();
+				}
+				throw re;
+			}
+			metrics[i] = shards[i].getJobMetrics();
+		}
+	}
+
+	/**
+	 * Runs the console of JobPublisherImpl.runLoop(), enqueueing through
+	 * the shards.
+	 */
+	@Override
+	public void runLoop()
+	{
+		new Console(this)
+		{
+			void enqueue(List<Work> works)
+			{
+				int[] enqueued = new int[shards.length];
+				try
+				{
+					for (Work work : works)
+					{
+						enqueued[route(work)]++;
+					}
+				}
+				finally
+				{
+					signalShards(enqueued);
+				}
+			}
+
+			void kill()
+			{
+				ShardedJobPublisher.this.kill();
+			}
+
+			String getNotDoneLocation()
+			{
+				return notDoneLocation;
+			}
+		}.run();
+	}
+
+	/**
+	 * Enqueues work on the shard its ID hashes to and wakes a manager for
+	 * it; safe to call from any thread.
+	 * @param work the work to be done
+	 * @return completed with the work once its doWork() has returned
+	 * @throws IllegalArgumentException if work is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	@Override
+	public CompletableFuture<Work> submit(Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		SubmittedWork submitted = new SubmittedWork(work);
+		shards[route(submitted)].signalManagers(1);
+		return submitted.getFuture();
+	}
+
+	/**
+	 * Enqueues work on the shard the affinity key hashes to, so that work
+	 * sharing a key is queued together and, unless stolen, dispatched in
+	 * priority order by the same managers; safe to call from any thread.
+	 * @param work the work to be done
+	 * @param affinityKey key whose hashCode() selects the shard
+	 * @return completed with the work once its doWork() has returned
+	 * @throws IllegalArgumentException if work or affinityKey is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	public CompletableFuture<Work> submit(Work work, Object affinityKey)
+	{
+		if (affinityKey == null) throw new IllegalArgumentException("affinityKey is null");
+		return getShard(affinityKey).submit(work);
+	}
+
+	/**
+	 * Enqueues a batch of work, each on the shard its ID hashes to, and
+	 * wakes enough managers of each shard for it; safe to call from any
+	 * thread.
+	 * @param works the work to be done
+	 * @return completion handles in the iteration order of works
+	 * @throws IllegalArgumentException if any work is null
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	@Override
+	public List<CompletableFuture<Work>> submitAll(Collection<? extends Work> works)
+	{
+		for (Work work : works)
+		{
+			if (work == null) throw new IllegalArgumentException("work is null");
+		}
+		List<CompletableFuture<Work>> futures =
+			new ArrayList<CompletableFuture<Work>>(works.size());
+		int[] enqueued = new int[shards.length];
+		try
+		{
+			for (Work work : works)
+			{
+				SubmittedWork submitted = new SubmittedWork(work);
+				enqueued[route(submitted)]++;
+				futures.add(submitted.getFuture());
+			}
+		}
+		finally
+		{
+			// a draining shutdown still runs what made it in
+			signalShards(enqueued);
+		}
+		return futures;
+	}
+
+	/**
+	 * Cancels a job, looking first in the shard its ID hashes to and then
+	 * in the others, as it may have been submitted with an affinity key or
+	 * stolen.  Work being stolen at that moment may be missed, as work being
+	 * claimed is by JobPublisherImpl.cancel().
+	 * @param jobId the ID the publisher assigned the job
+	 * @return true if the job was found and cancelled
+	 */
+	@Override
+	public boolean cancel(int jobId)
+	{
+		int home = ring.get(jobId);
+		if (shards[home].cancel(jobId)) return true;
+		for (int i = 0 ; i < shards.length ; i++)
+		{
+			if (i != home && shards[i].cancel(jobId)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Shuts every shard down at once.  While draining, shards keep stealing
+	 * from each other until no shard has work queued.
+	 * @param mode whether to drain pending work or checkpoint it
+	 * @param timeoutMillis time DRAIN has to finish pending work, or FAST
+	 *	has for interrupted work to return
+	 * @return completed with the number of jobs not done by all shards
+	 * @throws IllegalArgumentException if timeoutMillis is negative
+	 */
+	@Override
+	public synchronized CompletableFuture<Integer> shutdown(ShutdownMode mode,
+		long timeoutMillis)
+	{
+		final List<CompletableFuture<Integer>> stopped =
+			new ArrayList<CompletableFuture<Integer>>(shards.length);
+		for (JobPublisherImpl shard : shards)
+		{
+			// again if already shutting down, so that FAST cuts DRAIN short
+			stopped.add(shard.shutdown(mode, timeoutMillis));
+		}
+		if (shutdown != null) return shutdown;
+
+		shutdown = new CompletableFuture<Integer>();
+		CompletableFuture.allOf(stopped.toArray(new CompletableFuture<?>[0]))
+			.whenComplete(new BiConsumer<Void,Throwable>()
+		{
+			public void accept(Void ignored, Throwable t)
+			{
+				if (t != null)
+				{
+					shutdown.completeExceptionally(t);
+					return;
+				}
+				int left = 0;
+				for (CompletableFuture<Integer> shard : stopped)
+				{
+					left += shard.join();
+				}
+				shutdown.complete(left);
+			}
+		});
+		return shutdown;
+	}
+
+	/**
+	 * @return current job metrics of every shard combined, with managers
+	 *	listed shard by shard
+	 */
+	@Override
+	public MetricsSnapshot getMetrics()
+	{
+		return JobMetrics.snapshot(metrics);
+	}
+
+	/**
+	 * @return dead-lettered work of every shard, oldest first within each
+	 *	shard
+	 */
+	@Override
+	public List<Work> drainDeadLetters()
+	{
+		List<Work> drained = new ArrayList<Work>();
+		for (JobPublisherImpl shard : shards)
+		{
+			drained.addAll(shard.drainDeadLetters());
+		}
+		return drained;
+	}
+
+	/**
+	 * Logs a combined metrics snapshot every intervalMillis on a daemon
+	 * thread.
+	 * @param intervalMillis time between snapshots
+	 */
+	@Override
+	public void startMetricsReporter(long intervalMillis)
+	{
+		JobMetrics.startReporter(metrics, intervalMillis);
+	}
+
+	/**
+	 * @return number of work items a shard claimed from another's queue
+	 */
+	public long getStolen()
+	{
+		return stolen.get();
+	}
+
+	/**
+	 * @return the shards, in the order of their managers in getMetrics()
+	 */
+	JobPublisherImpl[] getShards()
+	{
+		return shards;
+	}
+
+	/**
+	 * @return the shard work submitted with affinityKey is enqueued on
+	 */
+	JobPublisherImpl getShard(Object affinityKey)
+	{
+		return shards[ring.get(affinityKey.hashCode())];
+	}
+
+	/**
+	 * Called by a shard with nothing queued, looking for work to steal.
+	 * Backlogs are read without locking, so the choice is approximate.
+	 * @param thief the shard looking for work
+	 * @return the other shard with the most work queued, or null if none
+	 *	has any
+	 */
+	JobPublisherImpl getMostBacklogged(JobPublisherImpl thief)
+	{
+		JobPublisherImpl victim = null;
+		int most = 0;
+		for (JobPublisherImpl shard : shards)
+		{
+			// null while the shards are still being created
+			if (shard == null || shard == thief) continue;
+			int backlog = shard.getBacklog();
+			if (backlog > most)
+			{
+				most = backlog;
+				victim = shard;
+			}
+		}
+		return victim;
+	}
+
+	/**
+	 * Called by a shard whose idle managers could not cover new work; wakes
+	 * idle managers of the other shards, nearest first, to steal it.
+	 * @param shard the shard the work was enqueued on
+	 * @param jobs number of work items no manager of that shard was woken for
+	 */
+	void signalOthers(JobPublisherImpl shard, int jobs)
+	{
+		int from = 0;
+		while (from < shards.length && shards[from] != shard) from++;
+		for (int i = 1 ; i < shards.length && jobs > 0 ; i++)
+		{
+			JobPublisherImpl other = shards[(from + i) % shards.length];
+			if (other != null) jobs = other.getWakeupScheduler().signal(jobs);
+		}
+	}
+
+	/**
+	 * Called by a shard that claimed work from another's queue.
+	 */
+	void recordStolen()
+	{
+		stolen.incrementAndGet();
+	}
+
+	/**
+	 * Kills every shard at once; see JobPublisherImpl.kill().
+	 */
+	void kill()
+	{
+		for (JobPublisherImpl shard : shards)
+		{
+			shard.kill();
+		}
+	}
+
+	/**
+	 * Enqueues work on the shard its ID hashes to, without notifying
+	 * managers.
+	 * @return the shard the work was enqueued on
+	 * @throws IllegalStateException if the publisher is shutting down
+	 */
+	private int route(Work work)
+	{
+		int id = workCounter.getAndIncrement();
+		int shard = ring.get(id);
+		shards[shard].enqueue(work, id);
+		return shard;
+	}
+
+	/**
+	 * @param enqueued work items just enqueued on each shard
+	 */
+	private void signalShards(int[] enqueued)
+	{
+		for (int i = 0 ; i < enqueued.length ; i++)
+		{
+			if (enqueued[i] > 0) shards[i].signalManagers(enqueued[i]);
+		}
+	}
+}
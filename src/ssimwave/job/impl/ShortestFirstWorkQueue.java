@@ -0,0 +1,68 @@
+package ssimwave.job.impl;
+
+import ssimwave.job.Work;
+
+/**
+ * WorkQueue that dispatches the lowest key first by enqueuing into a
+ * highest-first queue under the bitwise complement of the key, which
+ * reverses the order of all long values.  The wrapped queue keeps its own
+ * cost per operation, and storage such as OffHeapWorkQueue is unchanged.
+ */
+public class ShortestFirstWorkQueue implements WorkQueue
+{
+	private final WorkQueue queue;
+
+	/**
+	 * @param queue highest-first queue holding the work
+	 */
+	public ShortestFirstWorkQueue(WorkQueue queue)
+	{
+		this.queue = queue;
+	}
+
+	/**
+	 * Enqueues work
+	 * @param key priority of the work; lower keys are removed first
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		queue.put(~key, work);
+	}
+
+	/**
+	 * Remove smallest key value work item.
+	 * @return smallest key value work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		return queue.removeHighest();
+	}
+
+	/**
+	 * Removes the work with the given ID.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		return queue.remove(id);
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		return queue.isEmpty();
+	}
+}
@@ -1,9 +1,33 @@
 package ssimwave.job.impl;
 
 import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
 
 public class SleepWork implements Work
 {
+	/**
+	 * Stores SleepWork by its length so it can be queued off-heap.
+	 */
+	public static final WorkCodec CODEC = new WorkCodec()
+	{
+		public boolean canEncode(Work work)
+		{
+			return work.getClass() == SleepWork.class;
+		}
+
+		public long encode(Work work)
+		{
+			return ((SleepWork)work).jobTimeLengthMillis;
+		}
+
+		public Work decode(long payload, int id)
+		{
+			SleepWork work = new SleepWork(payload);
+			work.setId(id);
+			return work;
+		}
+	};
+
 	private int id;
 	private long jobTimeLengthMillis;
 
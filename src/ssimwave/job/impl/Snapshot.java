@@ -0,0 +1,110 @@
+package ssimwave.job.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+
+import ssimwave.job.Work;
+import ssimwave.job.WorkCodec;
+
+/**
+ * File of pending Work checkpointed by a fast shutdown, streamed in and out
+ * through buffers so neither side holds the whole file:
+ *	magic (4) | count (4) | count payloads (8 each)
+ * It is written to a temporary file that then replaces the snapshot, so a
+ * crash while writing leaves the previous snapshot, if any, intact.  Work IDs
+ * are not kept; reloaded Work is assigned new ones.
+ */
+final class Snapshot implements Closeable
+{
+	private static final int MAGIC = 0x4a505331; // "JPS1"
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	private final DataInputStream in;
+	private final WorkCodec codec;
+	private int remaining;
+
+	/**
+	 * Opens a snapshot for reading.
+	 * @param file the snapshot
+	 * @param codec decodes the snapshot's payloads
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	Snapshot(Path file, WorkCodec codec) throws IOException
+	{
+		this.codec = codec;
+		in = new DataInputStream(new BufferedInputStream(
+			Files.newInputStream(file), BUFFER_SIZE));
+		try
+		{
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not a snapshot");
+			remaining = in.readInt();
+		}
+		catch (IOException ioe)
+		{
+			in.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * @return the next Work in the snapshot, with ID 0, or null at its end
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	Work next() throws IOException
+	{
+		if (remaining == 0) return null;
+		remaining--;
+		return codec.decode(in.readLong(), 0);
+	}
+
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Writes the Work the codec can encode to a new snapshot, replacing any
+	 * existing one.
+	 * @param file the snapshot to write
+	 * @param works pending Work; Work the codec cannot encode is skipped
+	 * @param codec encodes the Work
+	 * @return number of Work items written
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	static int write(Path file, Collection<Work> works, WorkCodec codec)
+		throws IOException
+	{
+		int count = 0;
+		for (Work work : works)
+		{
+			if (codec.canEncode(work)) count++;
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(temporary), BUFFER_SIZE));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(count);
+			for (Work work : works)
+			{
+				if (codec.canEncode(work)) out.writeLong(codec.encode(work));
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+			StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+}
@@ -0,0 +1,170 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.Work;
+import ssimwave.util.Logger;
+
+/**
+ * Worker owned by a JobManagerStealing.  Takes Work from the head of its own
+ * deque, refills the deque in batches from the publisher, and steals from the
+ * tail of its peers' deques when it runs dry.
+ */
+public class StealingWorker implements Runnable
+{
+	private JobManagerStealing manager;
+	private JobPublisherImpl jobPublisher;
+	private AtomicInteger busyWorkers;
+	private int id;
+	private String workerLabel;
+	private Thread thread;
+
+	private ConcurrentLinkedDeque<Work> deque;
+	private volatile boolean idle;
+
+	/**
+	 * Create a StealingWorker; the thread is started by start().
+	 * @param manager the manager/owner of this worker
+	 * @param jobPublisher the publisher to claim Work from and report to
+	 * @param id an associated ID assigned by the manager
+	 */
+	public StealingWorker(JobManagerStealing manager, JobPublisherImpl jobPublisher, int id)
+	{
+		this.manager = manager;
+		this.jobPublisher = jobPublisher;
+		this.busyWorkers = manager.getBusyWorkerCounter();
+		this.id = id;
+		this.workerLabel = String.format("Worker[%d,%d]", manager.getId(), id);
+		deque = new ConcurrentLinkedDeque<Work>();
+		idle = false;
+		thread = new Thread(this);
+	}
+
+	/**
+	 * Starts the worker thread.
+	 */
+	public void start()
+	{
+		thread.start();
+	}
+
+	/**
+	 * Unconditionally unparks the worker thread.
+	 */
+	void wake()
+	{
+		LockSupport.unpark(thread);
+	}
+
+	/**
+	 * Unparks the worker thread if it is idle.
+	 * @return true if the worker was idle
+	 */
+	boolean wakeIfIdle()
+	{
+		if (!idle) return false;
+		idle = false;
+		LockSupport.unpark(thread);
+		return true;
+	}
+
+	/**
+	 * @return lowest priority Work claimed by this worker, or null
+	 */
+	Work stealFrom()
+	{
+		return deque.pollLast();
+	}
+
+	/**
+	 * @return true if Work is waiting in this worker's deque
+	 */
+	boolean hasQueuedWork()
+	{
+		return !deque.isEmpty();
+	}
+
+	/**
+	 * Runs continuously claiming, stealing and executing Work. Dies when the
+	 * manager is killed.
+	 * @overrides Runnable.run
+	 */
+	public void run()
+	{
+		try
+		{
+			Work work;
+			for (;;)
+			{
+				if (manager.isKilled())
+				{
+					// return claimed but unstarted work to the publisher
+					while ((work = deque.pollFirst()) != null)
+					{
+						jobPublisher.workNotDone(work, null);
+					}
+					if (Logger.isDebugEnabled()) Logger.debug("%s killed", workerLabel);
+					return;
+				}
+
+				work = deque.pollFirst();
+				if (work == null) work = refill();
+				if (work == null) work = manager.steal(this);
+				if (work == null)
+				{
+					// announce idleness before the final check so that a
+					// concurrent workAvailable() cannot be missed
+					idle = true;
+					manager.workerIdle();
+					if (!manager.isKilled() && !jobPublisher.hasWork() &&
+						!manager.hasStealableWork())
+					{
+						LockSupport.park(this); // BLOCKING: wait for work
+					}
+					idle = false;
+					continue;
+				}
+
+				busyWorkers.incrementAndGet();
+				try
+				{
+					Throwable failure = jobPublisher.runWork(work); // BLOCKING: doing work
+					if (failure == null)
+					{
+						jobPublisher.workDone(work);
+					}
+					else
+					{
+						jobPublisher.workNotDone(work, failure);
+					}
+				}
+				finally
+				{
+					busyWorkers.decrementAndGet();
+				}
+			}
+		}
+		catch (Throwable t)
+		{
+			Logger.throwable("%s.run throwable: ", t, workerLabel);
+		}
+	}
+
+	/**
+	 * Claims up to BATCH_SIZE Work items from the publisher.  The first is
+	 * returned and the rest queued; a peer is woken if any are queued.
+	 * @return highest priority claimed Work, or null if the publisher is empty
+	 */
+	private Work refill()
+	{
+		if (jobPublisher.getWork(JobManagerStealing.BATCH_SIZE, deque) == 0)
+		{
+			return null;
+		}
+		Work first = deque.pollFirst();
+		if (!deque.isEmpty()) manager.wakeIdleWorker(this);
+		return first;
+	}
+}
@@ -0,0 +1,60 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.CompletableFuture;
+
+import ssimwave.job.Work;
+
+/**
+ * Wraps Work submitted through JobPublisher.submit() so that its completion
+ * handle travels with it through the queue and managers.
+ */
+final class SubmittedWork implements Work
+{
+	private final Work work;
+	private final CompletableFuture<Work> future;
+
+	/**
+	 * @param work the submitted work; completed through the future
+	 */
+	SubmittedWork(Work work)
+	{
+		this.work = work;
+		this.future = new CompletableFuture<Work>();
+	}
+
+	/**
+	 * @return the work as submitted
+	 */
+	Work getWork()
+	{
+		return work;
+	}
+
+	/**
+	 * @return completion handle, completed with the submitted work
+	 */
+	CompletableFuture<Work> getFuture()
+	{
+		return future;
+	}
+
+	public void doWork() throws Exception
+	{
+		work.doWork();
+	}
+
+	public void setId(int id)
+	{
+		work.setId(id);
+	}
+
+	public int getId()
+	{
+		return work.getId();
+	}
+
+	public long getWorkLength()
+	{
+		return work.getWorkLength();
+	}
+}
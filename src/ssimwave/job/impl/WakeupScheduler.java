@@ -0,0 +1,102 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks managers that are parked with spare capacity and wakes only as many
+ * of them as are needed for newly enqueued work.
+ *
+ * A manager must register with idle() before its final check for work and
+ * only then park; the publisher enqueues before calling signal().  Either the
+ * manager sees the new work or signal() sees the registration, so no wakeup
+ * is lost.
+ */
+public class WakeupScheduler
+{
+	private final ConcurrentLinkedQueue<JobManager> idleManagers;
+	private final AtomicLong wakeups;
+	private JobManager[] managers;
+
+	public WakeupScheduler()
+	{
+		idleManagers = new ConcurrentLinkedQueue<JobManager>();
+		wakeups = new AtomicLong();
+		managers = new JobManager[0];
+	}
+
+	/**
+	 * @param managers every manager, woken by signalAll()
+	 */
+	void setManagers(JobManager[] managers)
+	{
+		this.managers = managers;
+	}
+
+	/**
+	 * Registers a manager as able to accept work; repeated registrations
+	 * before the next wakeup are ignored.
+	 * @param manager the manager about to park
+	 */
+	public void idle(JobManager manager)
+	{
+		if (manager.idleRegistered.compareAndSet(false, true))
+		{
+			idleManagers.offer(manager);
+		}
+	}
+
+	/**
+	 * Wakes registered managers until their spare capacity covers the new
+	 * work; managers that filled up since registering are skipped.
+	 * @param jobs number of work items just enqueued
+	 * @return number of work items no manager was woken for; 0 if their
+	 *	spare capacity covers the new work
+	 */
+	public int signal(int jobs)
+	{
+		int remaining = jobs;
+		while (remaining > 0)
+		{
+			JobManager manager = idleManagers.poll();
+			if (manager == null) return remaining;
+			manager.idleRegistered.set(false);
+
+			// read capacity after deregistering so a concurrent freeWorker
+			// either re-registers or is seen here
+			int spare = manager.getNumberOfWorkers() - manager.getBusyWorkers();
+			if (spare <= 0) continue;
+			wakeups.incrementAndGet();
+			manager.workAvailable();
+			remaining -= spare;
+		}
+		return 0;
+	}
+
+	/**
+	 * Wakes every manager regardless of capacity.  Registrations are taken
+	 * off one at a time before any manager is woken, so a manager that wakes
+	 * and registers again stays queued with its flag set.
+	 */
+	public void signalAll()
+	{
+		JobManager registered;
+		while ((registered = idleManagers.poll()) != null)
+		{
+			registered.idleRegistered.set(false);
+		}
+		for (JobManager manager : managers)
+		{
+			wakeups.incrementAndGet();
+			manager.workAvailable();
+		}
+	}
+
+	/**
+	 * @return number of manager wakeups issued
+	 */
+	public long getWakeups()
+	{
+		return wakeups.get();
+	}
+}
@@ -0,0 +1,231 @@
+package ssimwave.job.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import ssimwave.job.Work;
+import ssimwave.job.impl.FifoWorkQueue.QueuedWork;
+import ssimwave.util.StripedLongMap;
+
+/**
+ * Weighted fair queue of Work.  Work is split by work length into the bands
+ * JobMetrics reports wait times by, each a lock-free FIFO queue, and the
+ * bands are served by deficit round robin: while bands have work waiting,
+ * each receives a share of the dispatched work length in proportion to its
+ * weight, so a flood of long work cannot starve short work or the reverse.
+ * Enqueuing is lock-free and O(1); dispatching takes the queue's monitor and
+ * is O(number of bands).  Work removed by ID is claimed in place, as in
+ * FifoWorkQueue, and dropped when it reaches the head of its band.
+ */
+public class WeightedFairWorkQueue implements WorkQueue
+{
+	/**
+	 * Work length credited per unit of weight each round
+	 */
+	private static final long QUANTUM = 1000;
+
+	private final int[] weights;
+	private final ConcurrentLinkedQueue<QueuedWork>[] bands;
+	private final StripedLongMap<QueuedWork> index; // by ID, for remove(id)
+	private final JobMetrics metrics;
+
+	// member variables to only be accessed on synchronized
+	private final long[] deficit;
+	private int current;
+
+	/**
+	 * Creates a queue serving every band equally.
+	 */
+	public WeightedFairWorkQueue()
+	{
+		this(null, null);
+	}
+
+	/**
+	 * @param weights share of each work length band, shortest first; null to
+	 *	serve every band equally
+	 * @param metrics records the time work spends in the queue; may be null
+	 * @throws IllegalArgumentException if there is not one positive weight
+	 *	per band
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public WeightedFairWorkQueue(int[] weights, JobMetrics metrics)
+	{
+		int count = JobMetrics.LENGTH_BANDS.length + 1;
+		if (weights == null)
+		{
+			weights = new int[count];
+			Arrays.fill(weights, 1);
+		}
+		if (weights.length != count)
+		{
+			throw new IllegalArgumentException("expected " + count +
+				" weights");
+		}
+		for (int weight : weights)
+		{
+			if (weight <= 0) throw new IllegalArgumentException("weight <= 0");
+		}
+		this.weights = weights.clone();
+		this.metrics = metrics;
+		bands = new ConcurrentLinkedQueue[weights.length];
+		for (int i = 0 ; i < bands.length ; i++)
+		{
+			bands[i] = new ConcurrentLinkedQueue<QueuedWork>();
+		}
+		index = new StripedLongMap<QueuedWork>();
+		deficit = new long[weights.length];
+		current = 0;
+	}
+
+	/**
+	 * Enqueues work into the band of its work length
+	 * @param key ignored; work is banded by getWorkLength()
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 * @Override WorkQueue
+	 */
+	@Override
+	public void put(long key, Work work)
+	{
+		if (work == null) throw new IllegalArgumentException("work is null");
+		QueuedWork queued = new QueuedWork(work,
+			metrics == null ? 0 : System.nanoTime());
+		index.put(work.getId(), queued);
+		bands[JobMetrics.bandOf(work.getWorkLength())].add(queued);
+	}
+
+	/**
+	 * Remove the oldest work of the band whose turn it is.
+	 * @return next work item, or null if empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work removeHighest()
+	{
+		QueuedWork queued;
+		synchronized (this)
+		{
+			queued = next();
+		}
+		if (queued == null) return null;
+		index.remove(queued.work.getId(), queued);
+		if (metrics != null)
+		{
+			metrics.recordWait(System.nanoTime() - queued.enqueued,
+				queued.work.getWorkLength());
+		}
+		return queued.work;
+	}
+
+	/**
+	 * Removes the work with the given ID in O(1); its entry is claimed now
+	 * and dropped when it reaches the head of its band.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 * @Override WorkQueue
+	 */
+	@Override
+	public Work remove(int id)
+	{
+		QueuedWork queued = index.remove(id);
+		return queued != null && queued.claim() ? queued.work : null;
+	}
+
+	/**
+	 * @return true if queue is empty
+	 * @Override WorkQueue
+	 */
+	@Override
+	public boolean isEmpty()
+	{
+		for (ConcurrentLinkedQueue<QueuedWork> band : bands)
+		{
+			if (!band.isEmpty()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Serves the current band while its deficit covers the work length at
+	 * its head, then moves on.  Once no band can afford its head, every band
+	 * with work waiting is credited the fewest whole rounds of quanta that
+	 * lets one of them dispatch.  Only removers take work off the bands, so
+	 * a head seen here stays until polled.
+	 */
+	private QueuedWork next()
+	{
+		int passed = 0; // bands passed over since one could dispatch
+		boolean waiting = false;
+		for (;;)
+		{
+			QueuedWork head = peek(current);
+			if (head == null)
+			{
+				deficit[current] = 0; // an idle band banks no credit
+			}
+			else
+			{
+				waiting = true;
+				long cost = costOf(head);
+				if (deficit[current] >= cost)
+				{
+					bands[current].poll();
+					// removed by ID since peeked; look at the band again
+					if (!head.claim()) continue;
+					deficit[current] -= cost;
+					return head;
+				}
+			}
+
+			current = current + 1 == bands.length ? 0 : current + 1;
+			if (++passed < bands.length) continue;
+			if (!waiting) return null;
+			credit();
+			passed = 0;
+			waiting = false;
+		}
+	}
+
+	private void credit()
+	{
+		long rounds = Long.MAX_VALUE;
+		for (int i = 0 ; i < bands.length ; i++)
+		{
+			QueuedWork head = peek(i);
+			if (head == null) continue;
+			long quantum = QUANTUM * weights[i];
+			long missing = costOf(head) - deficit[i];
+			rounds = Math.min(rounds, missing / quantum +
+				(missing % quantum > 0 ? 1 : 0));
+		}
+		rounds = Math.max(1, rounds);
+		for (int i = 0 ; i < bands.length ; i++)
+		{
+			if (peek(i) == null) continue;
+			long quantum = QUANTUM * weights[i];
+			long credit = rounds > Long.MAX_VALUE / quantum ?
+				Long.MAX_VALUE : rounds * quantum;
+			deficit[i] = deficit[i] > Long.MAX_VALUE - credit ?
+				Long.MAX_VALUE : deficit[i] + credit;
+		}
+	}
+
+	/**
+	 * @return the head of the band, after dropping work removed by ID
+	 */
+	private QueuedWork peek(int band)
+	{
+		QueuedWork head;
+		while ((head = bands[band].peek()) != null && head.isClaimed())
+		{
+			bands[band].poll();
+		}
+		return head;
+	}
+
+	private static long costOf(QueuedWork queued)
+	{
+		return Math.max(1, queued.work.getWorkLength());
+	}
+}
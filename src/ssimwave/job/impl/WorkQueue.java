@@ -0,0 +1,36 @@
+package ssimwave.job.impl;
+
+import ssimwave.job.Work;
+
+/**
+ * Pending Work ordered by key, highest first, and then by Work ID, lowest
+ * first.  Implementations must be safe for concurrent use.
+ */
+public interface WorkQueue
+{
+	/**
+	 * Enqueues work
+	 * @param key priority of the work; higher keys are removed first
+	 * @param work work to enqueue
+	 * @throws IllegalArgumentException if work is null
+	 */
+	public void put(long key, Work work);
+
+	/**
+	 * Remove largest key value work item.
+	 * @return largest key value work item, or null if empty
+	 */
+	public Work removeHighest();
+
+	/**
+	 * Removes the work with the given ID, wherever it is in the queue.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 */
+	public Work remove(int id);
+
+	/**
+	 * @return true if queue is empty
+	 */
+	public boolean isEmpty();
+}
@@ -1,54 +1,128 @@
 package ssimwave.job.impl;
 
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import ssimwave.job.Work;
+import ssimwave.util.StripedLongMap;
 
-public class WorkTree
+/**
+ * Lock-free priority queue of Work.  Entries are ordered by key, highest
+ * first, and then by Work ID, lowest first, so that Work sharing the same key
+ * is never overwritten.  The key of each queued item is also indexed by ID,
+ * so that work can be removed by ID alone in O(log n).
+ */
+public class WorkTree implements WorkQueue
 {
-	private TreeMap<Long,Work> tree;
+	private ConcurrentSkipListMap<WorkKey,Work> tree;
+	private StripedLongMap<WorkKey> keys; // by ID
+	private JobMetrics metrics;
 
 	public WorkTree()
 	{
-		tree = new TreeMap<Long,Work>();
+		this(null);
+	}
+
+	/**
+	 * @param metrics records the time work spends in the tree; may be null
+	 */
+	public WorkTree(JobMetrics metrics)
+	{
+		tree = new ConcurrentSkipListMap<WorkKey,Work>();
+		keys = new StripedLongMap<WorkKey>();
+		this.metrics = metrics;
 	}
 
 	/**
 	 * Enqueues work
+	 * @param key priority of the work; higher keys are removed first
 	 * @param work work to enqueue
 	 * @throws IllegalArgumentException if work is null
 	 */
-	public synchronized void put(long key, Work work)
+	public void put(long key, Work work)
 	{
-		tree.put(key, work);
+		if (work == null) throw new IllegalArgumentException("work is null");
+		WorkKey workKey = new WorkKey(key, work.getId(),
+			metrics == null ? 0 : System.nanoTime());
+		// index first, so that a removal racing the put never leaves an
+		// index entry behind
+		keys.put(workKey.id, workKey);
+		tree.put(workKey, work);
 	}
 
 	/**
 	 * Remove largest key value work item.
-	 * @return largest key value work item
+	 * @return largest key value work item, or null if empty
 	 */
-	public synchronized Work removeHighest()
+	public Work removeHighest()
 	{
-		if (isEmpty()) return null;
-		return tree.remove(tree.lastKey());
+		Map.Entry<WorkKey,Work> entry = tree.pollFirstEntry();
+		if (entry == null) return null;
+		keys.remove(entry.getKey().id, entry.getKey());
+		if (metrics != null)
+		{
+			metrics.recordWait(System.nanoTime() - entry.getKey().enqueued,
+				entry.getValue().getWorkLength());
+		}
+		return entry.getValue();
 	}
 
 	/**
 	 * Searches and removes work item provided.
+	 * @param key the key the work was enqueued with
 	 * @param work the work intended to be found
 	 * @return true parameter if found, false if not found
 	 * @throws IllegalArgumentException if work is null
 	 */
-	public synchronized boolean remove(long key)
+	public boolean remove(long key, Work work)
 	{
-		return tree.remove(key) != null;
+		if (work == null) throw new IllegalArgumentException("work is null");
+		if (!tree.remove(new WorkKey(key, work.getId(), 0), work)) return false;
+		keys.remove(work.getId());
+		return true;
+	}
+
+	/**
+	 * Removes the work with the given ID.
+	 * @param id the ID of the work to remove
+	 * @return the removed work, or null if no work with that ID is queued
+	 */
+	public Work remove(int id)
+	{
+		WorkKey workKey = keys.remove(id);
+		return workKey == null ? null : tree.remove(workKey);
 	}
 
 	/**
 	 * @return true if queue is empty
 	 */
-	public synchronized boolean isEmpty()
+	public boolean isEmpty()
+	{
+		return tree.isEmpty();
+	}
+
+	/**
+	 * Composite (key, id) ordering; highest key first, then lowest id.  The
+	 * enqueue time is carried along but not compared.
+	 */
+	private static final class WorkKey implements Comparable<WorkKey>
 	{
-		return tree.size() == 0;
+		private final long key;
+		private final int id;
+		private final long enqueued;
+
+		WorkKey(long key, int id, long enqueued)
+		{
+			this.key = key;
+			this.id = id;
+			this.enqueued = enqueued;
+		}
+
+		public int compareTo(WorkKey other)
+		{
+			if (key != other.key) return key > other.key ? -1 : 1;
+			if (id != other.id) return id < other.id ? -1 : 1;
+			return 0;
+		}
 	}
-}
\ No newline at end of file
+}
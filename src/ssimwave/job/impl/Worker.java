@@ -55,7 +55,10 @@ public class Worker implements Runnable
 				" work assigned before previous work completed");
 		}
 
-		Logger.debug("Assigning Work[%d] to %s", work.getId(), workerLabel);
+		if (Logger.isDebugEnabled())
+		{
+			Logger.debug("Assigning Work[%d] to %s", work.getId(), workerLabel);
+		}
 
 		this.work = work;
 		this.notify();
@@ -82,7 +85,7 @@ public class Worker implements Runnable
 			Work work;
 			for (;;)
 			{
-				Logger.debug("%s synchronizing", workerLabel);
+				if (Logger.isDebugEnabled()) Logger.debug("%s synchronizing", workerLabel);
 				synchronized (this)
 				{
 					work = null;
@@ -95,7 +98,7 @@ public class Worker implements Runnable
 							{
 								manager.workNotDone(this.work, id, null);
 							}
-							Logger.debug("%s killed", workerLabel);
+							if (Logger.isDebugEnabled()) Logger.debug("%s killed", workerLabel);
 							return;
 						}
 
@@ -110,29 +113,42 @@ public class Worker implements Runnable
 					} // while
 				} // synchronized
 
-				Logger.debug("%s doing work", workerLabel);
-				try
+				if (Logger.isDebugEnabled()) Logger.debug("%s doing work", workerLabel);
+				Work next;
+				Throwable failure = manager.runWork(work); // BLOCKING: doing work
+				if (Logger.isDebugEnabled())
 				{
-					work.doWork(); // BLOCKING: doing work
-					Logger.debug("%s completed Work[%d]", workerLabel,
+					Logger.debug(failure == null ? "%s completed Work[%d]" :
+						"%s failed to complete Work[%d]", workerLabel,
 						work.getId());
-					// clear work, then inform manager to avoid race condition
-					synchronized (this)
-					{
-						this.work = null;
-					}
-					manager.workDone(work, id);
 				}
-				catch(Throwable t)
+				// clear work, then inform manager to avoid race condition
+				synchronized (this)
 				{
-					Logger.debug("%s failed to complete Work[%d]", workerLabel,
-						work.getId());
-					// clear work, then inform manager to avoid race condition
+					this.work = null;
+				}
+				if (failure == null)
+				{
+					next = manager.workDone(work, id);
+				}
+				else
+				{
+					next = manager.workNotDone(work, id, failure);
+				}
+
+				// handed off; run it next without waiting on the manager,
+				// unless killed in the meantime
+				if (next != null)
+				{
+					if (Logger.isDebugEnabled())
+					{
+						Logger.debug("Handing off Work[%d] to %s", next.getId(),
+							workerLabel);
+					}
 					synchronized (this)
 					{
-						this.work = null;
+						this.work = next;
 					}
-					manager.workNotDone(work, id, t);
 				}
 			} // for (;;)
 		}
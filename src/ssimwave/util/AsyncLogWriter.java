@@ -0,0 +1,445 @@
+package ssimwave.util;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background log writer used by Logger in asynchronous mode.  Callers claim a
+ * slot in a lock-free, multi-producer ring buffer and store the unformatted
+ * record, with integral arguments kept unboxed; a single writer thread
+ * formats records in batches and writes them through a FileChannel.
+ */
+public class AsyncLogWriter implements Runnable
+{
+	/**
+	 * Default number of records the ring buffer holds
+	 */
+	public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+	private static final int MAX_BATCH = 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final long IDLE_PARK_NANOS = 10 * 1000 * 1000;
+
+	/**
+	 * What a caller does when the ring buffer is full.
+	 */
+	public enum OverflowPolicy
+	{
+		/**
+		 * Wait until the writer frees a slot
+		 */
+		BLOCK,
+
+		/**
+		 * Discard the record
+		 */
+		DROP,
+
+		/**
+		 * Discard the record and log how many were discarded once the writer
+		 *	catches up
+		 */
+		COUNT
+	}
+
+	private final int capacity;
+	private final int mask;
+	private final OverflowPolicy policy;
+
+	// slot contents, made visible to the writer by the published sequence
+	private final AtomicLongArray published;
+	private final long[] times;
+	private final String[] prefixes;
+	private final String[] formats;
+	private final Object[][] args;
+	private final int[] longCounts; // primitive arguments, if args is null
+	private final long[] firstLongs;
+	private final long[] secondLongs;
+	private final Throwable[] throwables;
+
+	private final AtomicLong tail;
+	private final AtomicLong head;
+	private final AtomicLong dropped;
+	private volatile boolean sleeping;
+	private volatile boolean closed;
+
+	// only accessed by the writer thread
+	private final FileChannel channel;
+	private final StringBuilder text;
+	private final Formatter formatter;
+	private final CharsetEncoder encoder;
+	private final ByteBuffer buffer;
+	private final SimpleDateFormat secondFormatter;
+	private final Object[] oneLong;
+	private final Object[] twoLongs;
+	private long cachedSecond;
+	private String cachedSecondText;
+	private long reportedDrops;
+
+	private final Thread thread;
+
+	/**
+	 * Opens the log file and starts the writer thread.
+	 * @param logfile the file to write to
+	 * @param append true to append to, rather than truncate, the file
+	 * @param capacity number of records buffered; rounded up to a power of 2
+	 * @param policy what callers do when the buffer is full
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AsyncLogWriter(String logfile, boolean append, int capacity,
+		OverflowPolicy policy) throws IOException
+	{
+		int size = PowersOfTwo.ceil(capacity);
+		this.capacity = size;
+		this.mask = size - 1;
+		this.policy = policy;
+
+		published = new AtomicLongArray(size);
+		for (int i = 0 ; i < size ; i++) published.set(i, -1);
+		times = new long[size];
+		prefixes = new String[size];
+		formats = new String[size];
+		args = new Object[size][];
+		longCounts = new int[size];
+		firstLongs = new long[size];
+		secondLongs = new long[size];
+		throwables = new Throwable[size];
+
+		tail = new AtomicLong(0);
+		head = new AtomicLong(0);
+		dropped = new AtomicLong(0);
+
+		channel = append ?
+			FileChannel.open(Paths.get(logfile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND) :
+			FileChannel.open(Paths.get(logfile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		text = new StringBuilder(BUFFER_SIZE);
+		formatter = new Formatter(text);
+		encoder = StandardCharsets.UTF_8.newEncoder();
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		secondFormatter = new SimpleDateFormat("[yyyy-MM-dd:HH:mm:ss.");
+		oneLong = new Object[1];
+		twoLongs = new Object[2];
+		cachedSecond = -1;
+
+		thread = new Thread(this, "AsyncLogWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Buffers a record for the writer thread.  Arguments are formatted later,
+	 * so they must not be modified after this call.
+	 * @param prefix level prefix, such as "ERR: "
+	 * @param format message format that can be filled in with args
+	 * @param t throwable whose message and stack are appended; may be null
+	 * @param args arguments for format
+	 * @return false if the record was discarded
+	 */
+	public boolean append(String prefix, String format, Throwable t, Object[] args)
+	{
+		long seq = claim();
+		if (seq < 0) return false;
+
+		int slot = (int)(seq & mask);
+		times[slot] = System.currentTimeMillis();
+		prefixes[slot] = prefix;
+		formats[slot] = format;
+		this.args[slot] = args;
+		longCounts[slot] = 0;
+		throwables[slot] = t;
+		publish(slot, seq);
+		return true;
+	}
+
+	/**
+	 * Buffers a record with one or two integral arguments.  They are stored
+	 * in the slot and only boxed by the writer thread, so the caller
+	 * allocates nothing.
+	 * @param prefix level prefix, such as "ERR: "
+	 * @param format message format that can be filled in with the arguments
+	 * @param count number of arguments, 1 or 2
+	 * @param first first argument
+	 * @param second second argument; ignored if count is 1
+	 * @return false if the record was discarded
+	 */
+	public boolean append(String prefix, String format, int count, long first,
+		long second)
+	{
+		long seq = claim();
+		if (seq < 0) return false;
+
+		int slot = (int)(seq & mask);
+		times[slot] = System.currentTimeMillis();
+		prefixes[slot] = prefix;
+		formats[slot] = format;
+		args[slot] = null;
+		longCounts[slot] = count;
+		firstLongs[slot] = first;
+		secondLongs[slot] = second;
+		throwables[slot] = null;
+		publish(slot, seq);
+		return true;
+	}
+
+	/**
+	 * @return sequence of the slot claimed, or -1 if the record is to be
+	 *	discarded
+	 */
+	private long claim()
+	{
+		for (;;)
+		{
+			if (closed) return -1;
+			long seq = tail.get();
+			if (seq - head.get() >= capacity)
+			{
+				if (policy != OverflowPolicy.BLOCK)
+				{
+					dropped.incrementAndGet();
+					return -1;
+				}
+				LockSupport.unpark(thread);
+				Thread.yield(); // BLOCKING: wait for the writer to free a slot
+				continue;
+			}
+			if (tail.compareAndSet(seq, seq + 1)) return seq;
+		}
+	}
+
+	private void publish(int slot, long seq)
+	{
+		published.lazySet(slot, seq);
+		if (sleeping) LockSupport.unpark(thread);
+	}
+
+	/**
+	 * @return number of records discarded because the buffer was full
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * Writes all buffered records, stops the writer thread and closes the
+	 * file.  Records appended afterwards are discarded.
+	 */
+	public void close()
+	{
+		closed = true;
+		LockSupport.unpark(thread);
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException ie)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writer loop; formats and writes records until closed and drained.
+	 * @overrides Runnable.run
+	 */
+	public void run()
+	{
+		long next = 0;
+		try
+		{
+			for (;;)
+			{
+				int batch = 0;
+				while (batch < MAX_BATCH && published.get((int)(next & mask)) == next)
+				{
+					format((int)(next & mask));
+					head.lazySet(++next);
+					batch++;
+				}
+
+				if (batch > 0)
+				{
+					reportDrops();
+					write();
+					continue;
+				}
+
+				if (closed && tail.get() == next) break;
+
+				// announce sleeping before the final check so that a
+				// concurrent append() cannot be missed
+				sleeping = true;
+				if (!closed && published.get((int)(next & mask)) != next)
+				{
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+				}
+				sleeping = false;
+			}
+			reportDrops();
+			write();
+		}
+		catch (IOException ioe)
+		{
+			closed = true;
+			System.err.println("AsyncLogWriter failed: " + ioe.getMessage());
+		}
+		finally
+		{
+			try
+			{
+				channel.close();
+			}
+			catch (IOException ioe)
+			{
+				// nothing left to report to
+			}
+		}
+	}
+
+	private void format(int slot)
+	{
+		appendTimestamp(times[slot]);
+		text.append(prefixes[slot]);
+		try
+		{
+			formatter.format(formats[slot], arguments(slot));
+		}
+		catch (IllegalFormatException ife)
+		{
+			text.append(formats[slot]);
+		}
+
+		Throwable t = throwables[slot];
+		if (t != null)
+		{
+			text.append(t.getMessage()).append(System.lineSeparator());
+			PrintWriter pw = new PrintWriter(new TextWriter());
+			t.printStackTrace(pw);
+			pw.flush();
+		}
+		else
+		{
+			text.append(System.lineSeparator());
+		}
+
+		// release references for garbage collection
+		prefixes[slot] = null;
+		formats[slot] = null;
+		args[slot] = null;
+		throwables[slot] = null;
+	}
+
+	/**
+	 * @return the slot's arguments, boxing primitive ones into arrays reused
+	 *	by the writer thread
+	 */
+	private Object[] arguments(int slot)
+	{
+		switch (longCounts[slot])
+		{
+			case 0:
+				return args[slot];
+			case 1:
+				oneLong[0] = firstLongs[slot];
+				return oneLong;
+			default:
+				twoLongs[0] = firstLongs[slot];
+				twoLongs[1] = secondLongs[slot];
+				return twoLongs;
+		}
+	}
+
+	/**
+	 * Formats the date and time only once per second; milliseconds are
+	 * appended directly.
+	 */
+	private void appendTimestamp(long time)
+	{
+		long second = time / 1000;
+		if (second != cachedSecond)
+		{
+			cachedSecond = second;
+			cachedSecondText = secondFormatter.format(new Date(second * 1000));
+		}
+		text.append(cachedSecondText);
+		int millis = (int)(time % 1000);
+		text.append('0');
+		if (millis < 100) text.append('0');
+		if (millis < 10) text.append('0');
+		text.append(millis).append("] ");
+	}
+
+	private void reportDrops()
+	{
+		if (policy != OverflowPolicy.COUNT) return;
+		long drops = dropped.get();
+		if (drops == reportedDrops) return;
+		appendTimestamp(System.currentTimeMillis());
+		text.append("ERR: ").append(drops - reportedDrops)
+			.append(" log records dropped").append(System.lineSeparator());
+		reportedDrops = drops;
+	}
+
+	private void write() throws IOException
+	{
+		CharBuffer chars = CharBuffer.wrap(text);
+		encoder.reset();
+		for (;;)
+		{
+			CoderResult result = encoder.encode(chars, buffer, true);
+			if (result.isOverflow())
+			{
+				drain();
+				continue;
+			}
+			encoder.flush(buffer);
+			break;
+		}
+		drain();
+		text.setLength(0);
+	}
+
+	private void drain() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining()) channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writer over the text buffer so that stack traces are not copied.
+	 */
+	private class TextWriter extends Writer
+	{
+		public void write(char[] cbuf, int off, int len)
+		{
+			text.append(cbuf, off, len);
+		}
+
+		public void flush()
+		{
+		}
+
+		public void close()
+		{
+		}
+	}
+}
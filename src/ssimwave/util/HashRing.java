@@ -0,0 +1,99 @@
+package ssimwave.util;
+
+import java.util.Arrays;
+
+/**
+ * Consistent hash of long keys onto a fixed number of shards.  Each shard
+ * owns many points on a ring of 64 bit hashes and a key belongs to the shard
+ * owning the first point at or after the key's hash, so keys spread evenly
+ * and, were a shard added or removed, only the keys of the points it gains
+ * or loses would move.  Immutable once built, so lookups need no locking.
+ */
+public class HashRing
+{
+	/**
+	 * Default points per shard; keeps each shard's share of keys within
+	 * about a tenth of the mean
+	 */
+	public static final int DEFAULT_POINTS_PER_SHARD = 512;
+
+	/**
+	 * Most shards a ring can have
+	 */
+	public static final int MAX_SHARDS = 1 << 16;
+
+	private final int numberOfShards;
+	private final long[] points; // ascending
+	private final int[] shards; // owner of each point
+
+	/**
+	 * @param numberOfShards shards keys are spread over
+	 */
+	public HashRing(int numberOfShards)
+	{
+		this(numberOfShards, DEFAULT_POINTS_PER_SHARD);
+	}
+
+	/**
+	 * @param numberOfShards shards keys are spread over
+	 * @param pointsPerShard points each shard owns on the ring
+	 * @throws IllegalArgumentException if either is less than 1, or there
+	 *	are more than MAX_SHARDS shards
+	 */
+	public HashRing(int numberOfShards, int pointsPerShard)
+	{
+		if (numberOfShards < 1 || numberOfShards > MAX_SHARDS || pointsPerShard < 1)
+		{
+			throw new IllegalArgumentException("numberOfShards must be from 1 to " +
+				MAX_SHARDS + " and pointsPerShard at least 1");
+		}
+		this.numberOfShards = numberOfShards;
+		long[] hashes = new long[numberOfShards * pointsPerShard];
+		for (int shard = 0, i = 0 ; shard < numberOfShards ; shard++)
+		{
+			for (int point = 0 ; point < pointsPerShard ; point++)
+			{
+				// the shard replaces the low bits of its point's hash, so
+				// sorting orders the points and keeps their owners
+				long hash = hash(((long)shard << 32) | point);
+				hashes[i++] = hash & -MAX_SHARDS | shard;
+			}
+		}
+		Arrays.sort(hashes);
+		points = hashes;
+		shards = new int[hashes.length];
+		for (int i = 0 ; i < hashes.length ; i++)
+		{
+			shards[i] = (int)(hashes[i] & (MAX_SHARDS - 1));
+		}
+	}
+
+	/**
+	 * @param key any key; equal keys always map to the same shard
+	 * @return the shard owning key, from 0 to numberOfShards - 1
+	 */
+	public int get(long key)
+	{
+		int i = Arrays.binarySearch(points, hash(key));
+		if (i < 0) i = -i - 1; // first point after the hash
+		return shards[i == points.length ? 0 : i];
+	}
+
+	/**
+	 * @return number of shards keys are spread over
+	 */
+	public int size()
+	{
+		return numberOfShards;
+	}
+
+	private static long hash(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
@@ -0,0 +1,147 @@
+package ssimwave.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-memory, lock-free histogram of non-negative long values.  Values are
+ * counted in log-linear buckets: each power of two is split into
+ * SUB_BUCKETS equal sub-buckets, so recorded values keep a relative precision
+ * of about 3% across the whole long range.
+ */
+public class Histogram
+{
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 - SUB_BUCKET_BITS + 1;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong totalCount;
+	private final AtomicLong totalValue;
+	private final AtomicLong maxValue;
+
+	public Histogram()
+	{
+		counts = new AtomicLongArray(BUCKETS * SUB_BUCKETS);
+		totalCount = new AtomicLong();
+		totalValue = new AtomicLong();
+		maxValue = new AtomicLong();
+	}
+
+	/**
+	 * Records a value; negative values are recorded as 0.
+	 * @param value the value to record
+	 */
+	public void record(long value)
+	{
+		if (value < 0) value = 0;
+		counts.incrementAndGet(indexOf(value));
+		totalCount.incrementAndGet();
+		totalValue.addAndGet(value);
+		long max = maxValue.get();
+		while (value > max && !maxValue.compareAndSet(max, value))
+		{
+			max = maxValue.get();
+		}
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount()
+	{
+		return totalCount.get();
+	}
+
+	/**
+	 * @return largest recorded value, or 0 if none
+	 */
+	public long getMax()
+	{
+		return maxValue.get();
+	}
+
+	/**
+	 * @return mean of recorded values, or 0 if none
+	 */
+	public double getMean()
+	{
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double)totalValue.get() / count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value equivalent to the bucket holding the
+	 *	percentile, never above getMax(); 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long count = totalCount.get();
+		if (count == 0) return 0;
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0 ; i < counts.length() ; i++)
+		{
+			seen += counts.get(i);
+			if (seen >= target) return Math.min(highestValueOf(i), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return a copy of this histogram; values recorded during the copy may
+	 *	or may not be included
+	 */
+	public Histogram copy()
+	{
+		Histogram copy = new Histogram();
+		for (int i = 0 ; i < counts.length() ; i++)
+		{
+			copy.counts.set(i, counts.get(i));
+		}
+		copy.totalCount.set(totalCount.get());
+		copy.totalValue.set(totalValue.get());
+		copy.maxValue.set(maxValue.get());
+		return copy;
+	}
+
+	/**
+	 * Adds the values recorded by other to this histogram, as if they had
+	 * been recorded here.
+	 * @param other histogram to add; values recorded meanwhile may or may not
+	 *	be included
+	 */
+	public void add(Histogram other)
+	{
+		for (int i = 0 ; i < counts.length() ; i++)
+		{
+			long count = other.counts.get(i);
+			if (count != 0) counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalValue.addAndGet(other.totalValue.get());
+		long otherMax = other.maxValue.get();
+		long max = maxValue.get();
+		while (otherMax > max && !maxValue.compareAndSet(max, otherMax))
+		{
+			max = maxValue.get();
+		}
+	}
+
+	private static int indexOf(long value)
+	{
+		if (value < SUB_BUCKETS) return (int)value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int)(value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long highestValueOf(int index)
+	{
+		if (index < SUB_BUCKETS) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
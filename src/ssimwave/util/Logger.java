@@ -1,20 +1,25 @@
 package ssimwave.util;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.function.Supplier;
 
 /**
  * Synchronized logging API, uses PrintStream to output information.
  * It is advisable to call Logger.init() at beginning of application.
+ * Alternatively, Logger.initAsync() hands records to a background writer so
+ * that callers never take the Logger monitor.
  */
 public class Logger
 {
-	private static Logger logger;
+	private static volatile Logger logger;
+	private static volatile boolean printDebug = false;
 
 	private PrintStream ps;
-	private boolean printDebug = false;
 	private SimpleDateFormat dateFormatter;
+	private AsyncLogWriter async;
 
 	private Logger(PrintStream ps)
 	{
@@ -23,6 +28,11 @@ public class Logger
 		dateFormatter = new SimpleDateFormat("[yyyy-MM-dd:HH:mm:ss.SSSS] ");
 	}
 
+	private Logger(AsyncLogWriter async)
+	{
+		this.async = async;
+	}
+
 	private static Logger getLogger()
 	{
 		if (logger == null) logger = new Logger(System.out);
@@ -42,19 +52,63 @@ public class Logger
 	 */
 	public static void init(PrintStream ps)
 	{
+		close();
 		logger = new Logger(ps);
 	}
 
+	/**
+	 * Initializes Logger in asynchronous mode.  Records are buffered in a
+	 * ring buffer and written to the file by a background thread, which is
+	 * flushed on JVM shutdown or by close().
+	 * @param logfile the file to write to
+	 * @param append true to append to, rather than truncate, the file
+	 * @param capacity number of records that can be buffered
+	 * @param policy what callers do when the buffer is full
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static void initAsync(String logfile, boolean append, int capacity,
+		AsyncLogWriter.OverflowPolicy policy) throws IOException
+	{
+		close();
+		final AsyncLogWriter writer = new AsyncLogWriter(logfile, append,
+			capacity, policy);
+		logger = new Logger(writer);
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writer.close();
+			}
+		}));
+	}
+
+	/**
+	 * Flushes and stops the asynchronous writer, if any.  Later records are
+	 * discarded until Logger is initialized again.
+	 */
+	public static void close()
+	{
+		Logger current = logger;
+		if (current != null && current.async != null) current.async.close();
+	}
+
+	/**
+	 * @return number of records discarded by the asynchronous writer because
+	 *	its buffer was full; 0 in synchronous mode
+	 */
+	public static long getDroppedCount()
+	{
+		AsyncLogWriter async = getLogger().async;
+		return async == null ? 0 : async.getDroppedCount();
+	}
+
 	/**
 	 * Sets the debug mode.
 	 * @param debug if true, debug messages will be printed
 	 */
 	public static void setDebug(boolean debug)
 	{
-		synchronized (getLogger())
-		{
-			logger.printDebug = debug;
-		}
+		printDebug = debug;
 	}
 
 	/**
@@ -62,10 +116,29 @@ public class Logger
 	 */
 	public static boolean getDebug()
 	{
-		synchronized (getLogger())
-		{
-			return logger.printDebug;
-		}
+		return printDebug;
+	}
+
+	/**
+	 * Cheap check for guarding debug calls on hot paths, so that neither
+	 * the varargs array nor boxed arguments are created when debug is off:
+	 * <pre>if (Logger.isDebugEnabled()) Logger.debug("%d", id);</pre>
+	 * @return true if debug mode is set
+	 */
+	public static boolean isDebugEnabled()
+	{
+		return printDebug;
+	}
+
+	/**
+	 * Write debug level logs; the message is only built if debug mode is
+	 * set.
+	 * @param message supplies the complete message
+	 */
+	public static void debug(Supplier<String> message)
+	{
+		if (!printDebug) return;
+		debug("%s", message.get());
 	}
 
 	/**
@@ -74,10 +147,16 @@ public class Logger
 	 */
 	public static void debug(String format, Object... args)
 	{
-		synchronized (getLogger())
+		if (!printDebug) return;
+		Logger current = getLogger();
+		if (current.async != null)
 		{
-			if (!logger.printDebug) return;
-			logger.log("DBG: " + format, args);
+			current.async.append("DBG: ", format, null, args);
+			return;
+		}
+		synchronized (current)
+		{
+			current.log("DBG: " + format, args);
 		}
 	}
 
@@ -87,9 +166,56 @@ public class Logger
 	 */
 	public static void info(String format, Object... args)
 	{
-		synchronized (getLogger())
+		Logger current = getLogger();
+		if (current.async != null)
+		{
+			current.async.append("", format, null, args);
+			return;
+		}
+		synchronized (current)
+		{
+			current.log(format, args);
+		}
+	}
+
+	/**
+	 * Write info level logs with one integral argument.  In asynchronous
+	 * mode the caller allocates nothing, so this suits per-job records.
+	 * @param format message format that can be filled in with arg
+	 * @param arg the argument
+	 */
+	public static void info(String format, long arg)
+	{
+		Logger current = getLogger();
+		if (current.async != null)
 		{
-			logger.log(format, args);
+			current.async.append("", format, 1, arg, 0);
+			return;
+		}
+		synchronized (current)
+		{
+			current.log(format, arg);
+		}
+	}
+
+	/**
+	 * Write info level logs with two integral arguments.  In asynchronous
+	 * mode the caller allocates nothing, so this suits per-job records.
+	 * @param format message format that can be filled in with the arguments
+	 * @param first the first argument
+	 * @param second the second argument
+	 */
+	public static void info(String format, long first, long second)
+	{
+		Logger current = getLogger();
+		if (current.async != null)
+		{
+			current.async.append("", format, 2, first, second);
+			return;
+		}
+		synchronized (current)
+		{
+			current.log(format, first, second);
 		}
 	}
 
@@ -99,9 +225,15 @@ public class Logger
 	 */
 	public static void error(String format, Object... args)
 	{
-		synchronized (getLogger())
+		Logger current = getLogger();
+		if (current.async != null)
 		{
-			logger.log("ERR: " + format, args);
+			current.async.append("ERR: ", format, null, args);
+			return;
+		}
+		synchronized (current)
+		{
+			current.log("ERR: " + format, args);
 		}
 	}
 
@@ -111,10 +243,16 @@ public class Logger
 	 */
 	public static void throwable(String format, Throwable t, Object... args)
 	{
-		synchronized (getLogger())
+		Logger current = getLogger();
+		if (current.async != null)
+		{
+			current.async.append("ERR: ", format, t, args);
+			return;
+		}
+		synchronized (current)
 		{
-			logger.log("ERR: " + format + t.getMessage(), args );
-			t.printStackTrace(logger.ps);
+			current.log("ERR: " + format + t.getMessage(), args );
+			t.printStackTrace(current.ps);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package ssimwave.util;
+
+/**
+ * Sizing for tables indexed by masking, whose length must be a power of 2.
+ */
+public final class PowersOfTwo
+{
+	private static final int MAX = 1 << 30;
+
+	private PowersOfTwo()
+	{
+	}
+
+	/**
+	 * @param n requested size
+	 * @return the smallest power of 2 at least n; 1 if n is less than 2
+	 * @throws IllegalArgumentException if n is more than 2^30
+	 */
+	public static int ceil(int n)
+	{
+		if (n > MAX) throw new IllegalArgumentException("more than 2^30: " + n);
+		return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+	}
+}
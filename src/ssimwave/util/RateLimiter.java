@@ -0,0 +1,53 @@
+package ssimwave.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free limit on how many times per second something may happen, such
+ * as logging a stack trace.  Permits refill at the start of each second;
+ * denied attempts are counted so that they can be reported later.
+ */
+public class RateLimiter
+{
+	private final int permitsPerSecond;
+	private final AtomicLong window; // second the permits were last refilled
+	private final AtomicLong used;
+	private final AtomicLong denied;
+
+	/**
+	 * @param permitsPerSecond how many calls to tryAcquire() succeed each
+	 *	second
+	 */
+	public RateLimiter(int permitsPerSecond)
+	{
+		this.permitsPerSecond = permitsPerSecond;
+		window = new AtomicLong(System.nanoTime() / 1000000000L);
+		used = new AtomicLong(0);
+		denied = new AtomicLong(0);
+	}
+
+	/**
+	 * @return true if a permit was granted; otherwise the attempt is counted
+	 *	as denied
+	 */
+	public boolean tryAcquire()
+	{
+		long second = System.nanoTime() / 1000000000L;
+		long current = window.get();
+		if (second != current && window.compareAndSet(current, second))
+		{
+			used.set(0);
+		}
+		if (used.incrementAndGet() <= permitsPerSecond) return true;
+		denied.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * @return number of attempts denied since the last call
+	 */
+	public long takeDenied()
+	{
+		return denied.getAndSet(0);
+	}
+}
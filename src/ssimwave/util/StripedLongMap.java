@@ -0,0 +1,267 @@
+package ssimwave.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Concurrent map from primitive long keys to non-null values.  Keys are
+ * spread over independently locked stripes, each an open-addressing table
+ * with linear probing, so no per-entry objects are allocated and keys are
+ * never boxed.  Removal shifts later entries back rather than leaving
+ * tombstones, and a stripe shrinks again once mostly empty.
+ */
+public class StripedLongMap<V>
+{
+	private static final int DEFAULT_STRIPES = 64;
+	private static final int MIN_STRIPE_CAPACITY = 16;
+
+	private final Stripe[] stripes;
+	private final int stripeMask;
+
+	public StripedLongMap()
+	{
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes number of independently locked stripes; rounded up to a
+	 *	power of 2
+	 */
+	public StripedLongMap(int stripes)
+	{
+		int size = PowersOfTwo.ceil(stripes);
+		this.stripes = new Stripe[size];
+		for (int i = 0 ; i < size ; i++)
+		{
+			this.stripes[i] = new Stripe();
+		}
+		// stripes are chosen by the upper half of the hash, slots by the lower
+		stripeMask = size - 1;
+	}
+
+	/**
+	 * Associates value with key, replacing any previous value.
+	 * @return the previous value, or null if there was none
+	 * @throws IllegalArgumentException if value is null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value)
+	{
+		if (value == null) throw new IllegalArgumentException("value is null");
+		long hash = hash(key);
+		return (V)stripeOf(hash).put(key, (int)hash, value, true);
+	}
+
+	/**
+	 * Associates value with key unless key already has a value.
+	 * @return the value already associated with key, which is kept, or null
+	 *	if value was associated
+	 * @throws IllegalArgumentException if value is null
+	 */
+	@SuppressWarnings("unchecked")
+	public V putIfAbsent(long key, V value)
+	{
+		if (value == null) throw new IllegalArgumentException("value is null");
+		long hash = hash(key);
+		return (V)stripeOf(hash).put(key, (int)hash, value, false);
+	}
+
+	/**
+	 * @return the value associated with key, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key)
+	{
+		long hash = hash(key);
+		return (V)stripeOf(hash).get(key, (int)hash);
+	}
+
+	/**
+	 * Removes the value associated with key.
+	 * @return the removed value, or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key)
+	{
+		long hash = hash(key);
+		return (V)stripeOf(hash).remove(key, (int)hash, null);
+	}
+
+	/**
+	 * Removes key only if it is associated with value, compared by identity.
+	 * @return true if removed
+	 */
+	public boolean remove(long key, V value)
+	{
+		if (value == null) return false;
+		long hash = hash(key);
+		return stripeOf(hash).remove(key, (int)hash, value) != null;
+	}
+
+	/**
+	 * @return number of entries; not a consistent snapshot while the map is
+	 *	modified concurrently
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Stripe stripe : stripes)
+		{
+			size += stripe.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the values, copied stripe by stripe; not a consistent snapshot
+	 *	while the map is modified concurrently
+	 */
+	@SuppressWarnings("unchecked")
+	public List<V> values()
+	{
+		List<V> values = new ArrayList<V>();
+		for (Stripe stripe : stripes)
+		{
+			stripe.addValuesTo((Collection<Object>)values);
+		}
+		return values;
+	}
+
+	private Stripe stripeOf(long hash)
+	{
+		return stripes[(int)(hash >>> 32) & stripeMask];
+	}
+
+	/**
+	 * MurmurHash3 finalizer; sequential job IDs must spread over all stripes
+	 * and slots.
+	 */
+	private static long hash(long key)
+	{
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	/**
+	 * One open-addressing table; a slot is empty when its value is null.
+	 */
+	private static final class Stripe
+	{
+		private long[] keys;
+		private Object[] values;
+		private int size;
+
+		Stripe()
+		{
+			keys = new long[MIN_STRIPE_CAPACITY];
+			values = new Object[MIN_STRIPE_CAPACITY];
+		}
+
+		synchronized int size()
+		{
+			return size;
+		}
+
+		synchronized void addValuesTo(Collection<Object> out)
+		{
+			for (Object value : values)
+			{
+				if (value != null) out.add(value);
+			}
+		}
+
+		synchronized Object get(long key, int hash)
+		{
+			int mask = keys.length - 1;
+			for (int i = hash & mask ; values[i] != null ; i = (i + 1) & mask)
+			{
+				if (keys[i] == key) return values[i];
+			}
+			return null;
+		}
+
+		/**
+		 * @param replace whether to replace a value key already has
+		 */
+		synchronized Object put(long key, int hash, Object value, boolean replace)
+		{
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			for ( ; values[i] != null ; i = (i + 1) & mask)
+			{
+				if (keys[i] == key)
+				{
+					Object previous = values[i];
+					if (replace) values[i] = value;
+					return previous;
+				}
+			}
+			keys[i] = key;
+			values[i] = value;
+			// keep at most half full so probe sequences stay short
+			if (++size > keys.length >> 1) resize(keys.length << 1);
+			return null;
+		}
+
+		/**
+		 * @param expected value key must map to, or null to remove any value
+		 */
+		synchronized Object remove(long key, int hash, Object expected)
+		{
+			int mask = keys.length - 1;
+			int i = hash & mask;
+			for ( ; values[i] != null ; i = (i + 1) & mask)
+			{
+				if (keys[i] == key) break;
+			}
+			Object removed = values[i];
+			if (removed == null || (expected != null && removed != expected))
+			{
+				return null;
+			}
+
+			// shift back later entries of the probe run into the hole
+			int hole = i;
+			for (i = (i + 1) & mask ; values[i] != null ; i = (i + 1) & mask)
+			{
+				int home = (int)hash(keys[i]) & mask;
+				// move unless the entry's home lies cyclically in (hole, i]
+				if (hole <= i ? (home <= hole || home > i) : (home <= hole && home > i))
+				{
+					keys[hole] = keys[i];
+					values[hole] = values[i];
+					hole = i;
+				}
+			}
+			values[hole] = null;
+
+			if (--size < keys.length >> 3 && keys.length > MIN_STRIPE_CAPACITY)
+			{
+				resize(keys.length >> 1);
+			}
+			return removed;
+		}
+
+		private void resize(int capacity)
+		{
+			long[] oldKeys = keys;
+			Object[] oldValues = values;
+			keys = new long[capacity];
+			values = new Object[capacity];
+			int mask = capacity - 1;
+			for (int j = 0 ; j < oldKeys.length ; j++)
+			{
+				if (oldValues[j] == null) continue;
+				int i = (int)hash(oldKeys[j]) & mask;
+				while (values[i] != null) i = (i + 1) & mask;
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package ssimwave.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timer wheel: tasks are hashed into one of wheelSize buckets by
+ * their deadline tick, so scheduling and cancelling are O(1) regardless of
+ * how many tasks are pending.  A single daemon thread advances the wheel
+ * every tick and runs expired tasks itself, so tasks must be short and must
+ * not block.  Deadlines are rounded up to the next tick.  The thread parks
+ * while no task is pending.
+ */
+public class TimerWheel
+{
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+
+	// handed from scheduling threads to the wheel thread
+	private final ConcurrentLinkedQueue<Timeout> added;
+	private final AtomicInteger pending;
+	private final Thread thread;
+	private final long start;
+	private volatile boolean stopped;
+
+	// only accessed by the wheel thread
+	private long tick;
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	public static final class Timeout
+	{
+		private final Runnable task;
+		private final long deadline; // tick
+		private long rounds;
+		private Timeout prev;
+		private Timeout next;
+		private Bucket bucket;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable task, long deadline)
+		{
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Prevents the task from running if it has not run yet; the wheel
+		 * drops it when its bucket is next visited.
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+		}
+
+		/**
+		 * @return true if cancel() was called
+		 */
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Doubly linked list of the Timeouts hashed to one slot.
+	 */
+	private static final class Bucket
+	{
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout)
+		{
+			timeout.bucket = this;
+			timeout.prev = tail;
+			if (tail == null) head = timeout;
+			else tail.next = timeout;
+			tail = timeout;
+		}
+
+		void remove(Timeout timeout)
+		{
+			if (timeout.prev == null) head = timeout.next;
+			else timeout.prev.next = timeout.next;
+			if (timeout.next == null) tail = timeout.prev;
+			else timeout.next.prev = timeout.prev;
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+	}
+
+	/**
+	 * Starts the wheel's thread.
+	 * @param name name of the wheel's thread
+	 * @param tickMillis resolution of the wheel
+	 * @param wheelSize number of buckets; rounded up to a power of 2.  Tasks
+	 *	due more than tickMillis * wheelSize ahead wait for the wheel to
+	 *	turn more than once
+	 */
+	public TimerWheel(String name, long tickMillis, int wheelSize)
+	{
+		tickNanos = Math.max(1, tickMillis) * 1000000L;
+		int size = PowersOfTwo.ceil(wheelSize);
+		wheel = new Bucket[size];
+		for (int i = 0 ; i < size ; i++)
+		{
+			wheel[i] = new Bucket();
+		}
+		mask = size - 1;
+		added = new ConcurrentLinkedQueue<Timeout>();
+		pending = new AtomicInteger(0);
+		start = System.nanoTime();
+		tick = 0;
+
+		thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				turn();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Runs task on the wheel's thread once delayMillis have passed.
+	 * @param task short, non-blocking task
+	 * @param delayMillis time to wait; rounded up to the wheel's resolution
+	 * @return handle to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delayMillis)
+	{
+		long elapsed = System.nanoTime() - start;
+		long deadline = (elapsed + Math.max(0, delayMillis) * 1000000L +
+			tickNanos - 1) / tickNanos;
+		Timeout timeout = new Timeout(task, deadline);
+		added.add(timeout);
+		if (pending.getAndIncrement() == 0) LockSupport.unpark(thread);
+		return timeout;
+	}
+
+	/**
+	 * @return number of tasks scheduled and not yet run or dropped
+	 */
+	public int getPending()
+	{
+		return pending.get();
+	}
+
+	/**
+	 * Stops the wheel's thread; pending tasks never run.
+	 */
+	public void stop()
+	{
+		stopped = true;
+		LockSupport.unpark(thread);
+	}
+
+	private void turn()
+	{
+		while (!stopped)
+		{
+			if (pending.get() == 0)
+			{
+				LockSupport.park(this); // BLOCKING: waiting for a task
+				// the wheel does not turn while parked; catch up to now
+				tick = Math.max(tick, (System.nanoTime() - start) / tickNanos);
+				continue;
+			}
+
+			long wait = (tick + 1) * tickNanos - (System.nanoTime() - start);
+			if (wait > 0)
+			{
+				LockSupport.parkNanos(this, wait); // BLOCKING: waiting for the next tick
+				continue;
+			}
+
+			tick++;
+			transferAdded();
+			expire(wheel[(int)(tick & mask)]);
+		}
+	}
+
+	/**
+	 * Moves newly scheduled Timeouts into their buckets.  Those already due
+	 * go into the current tick's bucket.
+	 */
+	private void transferAdded()
+	{
+		Timeout timeout;
+		while ((timeout = added.poll()) != null)
+		{
+			if (timeout.cancelled)
+			{
+				pending.decrementAndGet();
+				continue;
+			}
+			long due = Math.max(timeout.deadline, tick);
+			timeout.rounds = (due - tick) / wheel.length;
+			wheel[(int)(due & mask)].add(timeout);
+		}
+	}
+
+	private void expire(Bucket bucket)
+	{
+		Timeout timeout = bucket.head;
+		while (timeout != null)
+		{
+			Timeout next = timeout.next;
+			if (timeout.cancelled)
+			{
+				bucket.remove(timeout);
+				pending.decrementAndGet();
+			}
+			else if (timeout.rounds > 0)
+			{
+				timeout.rounds--;
+			}
+			else
+			{
+				bucket.remove(timeout);
+				pending.decrementAndGet();
+				try
+				{
+					timeout.task.run();
+				}
+				catch (Throwable t)
+				{
+					Logger.throwable("%s task failed: ", t, thread.getName());
+				}
+			}
+			timeout = next;
+		}
+	}
+}
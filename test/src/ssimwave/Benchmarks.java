@@ -0,0 +1,61 @@
+package ssimwave;
+
+import ssimwave.job.impl.ActiveWorkBenchmark;
+import ssimwave.job.impl.AgingBenchmark;
+import ssimwave.job.impl.BacklogBenchmark;
+import ssimwave.job.impl.BatchDispatchBenchmark;
+import ssimwave.job.impl.DeadlineBenchmark;
+import ssimwave.job.impl.DispatchBenchmark;
+import ssimwave.job.impl.ElasticBenchmark;
+import ssimwave.job.impl.IdleWorkerBenchmark;
+import ssimwave.job.impl.JournalBenchmark;
+import ssimwave.job.impl.PolicyBenchmark;
+import ssimwave.job.impl.RemoteBenchmark;
+import ssimwave.job.impl.RetryStormBenchmark;
+import ssimwave.job.impl.ShardBenchmark;
+import ssimwave.job.impl.WakeupBenchmark;
+import ssimwave.job.impl.WorkTreeBenchmark;
+import ssimwave.util.DebugLoggingBenchmark;
+
+/**
+ * Runs every benchmark with its default arguments; 'ant bench' runs this
+ * unless another class is selected with -Dbench.
+ */
+public class Benchmarks
+{
+	public static void main(String[] args) throws Exception
+	{
+		System.out.println("== WorkTreeBenchmark");
+		WorkTreeBenchmark.main(new String[0]);
+		System.out.println("== DispatchBenchmark");
+		DispatchBenchmark.main(new String[0]);
+		System.out.println("== WakeupBenchmark");
+		WakeupBenchmark.main(new String[0]);
+		System.out.println("== BatchDispatchBenchmark");
+		BatchDispatchBenchmark.main(new String[0]);
+		System.out.println("== ActiveWorkBenchmark");
+		ActiveWorkBenchmark.main(new String[0]);
+		System.out.println("== BacklogBenchmark");
+		BacklogBenchmark.main(new String[] { "1000000" });
+		System.out.println("== IdleWorkerBenchmark");
+		IdleWorkerBenchmark.main(new String[0]);
+		System.out.println("== JournalBenchmark");
+		JournalBenchmark.main(new String[0]);
+		System.out.println("== RetryStormBenchmark");
+		RetryStormBenchmark.main(new String[0]);
+		System.out.println("== AgingBenchmark");
+		AgingBenchmark.main(new String[0]);
+		System.out.println("== DeadlineBenchmark");
+		DeadlineBenchmark.main(new String[0]);
+		System.out.println("== PolicyBenchmark");
+		PolicyBenchmark.main(new String[0]);
+		System.out.println("== ElasticBenchmark");
+		ElasticBenchmark.main(new String[0]);
+		System.out.println("== RemoteBenchmark");
+		RemoteBenchmark.main(new String[0]);
+		System.out.println("== ShardBenchmark");
+		ShardBenchmark.main(new String[0]);
+		System.out.println("== DebugLoggingBenchmark");
+		DebugLoggingBenchmark.main(new String[0]);
+	}
+}
@@ -0,0 +1,35 @@
+package ssimwave;
+
+import ssimwave.job.impl.CancelCheck;
+import ssimwave.job.impl.EdfWorkQueueCheck;
+import ssimwave.job.impl.FifoWorkQueueCheck;
+import ssimwave.job.impl.JournalCheck;
+import ssimwave.job.impl.OffHeapWorkQueueCheck;
+import ssimwave.job.impl.WeightedFairWorkQueueCheck;
+import ssimwave.util.StripedLongMapCheck;
+
+/**
+ * Runs every behavioral check with its default arguments; 'ant test' runs
+ * this unless another class is selected with -Dcheck.  A failed check
+ * throws, so the run stops and exits with an error.
+ */
+public class Checks
+{
+	public static void main(String[] args) throws Exception
+	{
+		System.out.println("== StripedLongMapCheck");
+		StripedLongMapCheck.main(new String[0]);
+		System.out.println("== OffHeapWorkQueueCheck");
+		OffHeapWorkQueueCheck.main(new String[0]);
+		System.out.println("== EdfWorkQueueCheck");
+		EdfWorkQueueCheck.main(new String[0]);
+		System.out.println("== FifoWorkQueueCheck");
+		FifoWorkQueueCheck.main(new String[0]);
+		System.out.println("== WeightedFairWorkQueueCheck");
+		WeightedFairWorkQueueCheck.main(new String[0]);
+		System.out.println("== JournalCheck");
+		JournalCheck.main(new String[0]);
+		System.out.println("== CancelCheck");
+		CancelCheck.main(new String[0]);
+	}
+}
@@ -0,0 +1,167 @@
+package ssimwave.job.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+import ssimwave.util.StripedLongMap;
+
+/**
+ * Compares the publisher's former in-flight index, a WorkTree keyed by work
+ * length, with StripedLongMap keyed by job ID.  Reports the heap retained
+ * per in-flight job, then the throughput and allocation of threads that each
+ * complete one job and activate another against that steady population.
+ * Usage: ActiveWorkBenchmark [inFlight [threads,... [millis]]]
+ */
+public class ActiveWorkBenchmark
+{
+	/**
+	 * The operations the publisher performs on its in-flight index.
+	 */
+	private interface ActiveSet
+	{
+		void put(Work work);
+
+		boolean remove(Work work);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int inFlight = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int[] threadCounts = BenchSupport.parseInts(
+			args.length > 1 ? args[1] : "1,4");
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+
+		Work[] works = new Work[inFlight];
+		for (int i = 0 ; i < works.length ; i++)
+		{
+			works[i] = new NoOpWork(i % 5000);
+			works[i].setId(i);
+		}
+
+		System.out.printf("inFlight=%d millis=%d%n", inFlight, millis);
+		for (String name : new String[] { "WorkTree", "StripedLongMap" })
+		{
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			long before = liveHeap(memory);
+			ActiveSet set = create(name);
+			for (Work work : works) set.put(work);
+			long retained = liveHeap(memory) - before;
+			System.out.printf("%-14s retained %6.1f bytes/job%n", name,
+				(double)retained / inFlight);
+
+			for (int threads : threadCounts)
+			{
+				churn(set, works, threads, 200); // warm up
+				AtomicLong bytes = new AtomicLong();
+				long ops = churn(set, works, threads, millis, bytes);
+				System.out.printf("%-14s threads=%-2d %12.0f remove+put pairs/s " +
+					"%6.1f bytes allocated/pair%n", name, threads,
+					ops * 1000.0 / millis, (double)bytes.get() / ops);
+			}
+		}
+	}
+
+	private static ActiveSet create(String name)
+	{
+		if ("WorkTree".equals(name))
+		{
+			final WorkTree tree = new WorkTree();
+			return new ActiveSet()
+			{
+				public void put(Work work)
+				{
+					tree.put(work.getWorkLength(), work);
+				}
+
+				public boolean remove(Work work)
+				{
+					return tree.remove(work.getWorkLength(), work);
+				}
+			};
+		}
+		final StripedLongMap<Work> map = new StripedLongMap<Work>();
+		return new ActiveSet()
+		{
+			public void put(Work work)
+			{
+				map.put(work.getId(), work);
+			}
+
+			public boolean remove(Work work)
+			{
+				return map.remove(work.getId(), work);
+			}
+		};
+	}
+
+	private static long churn(ActiveSet set, Work[] works, int threads,
+		long millis) throws InterruptedException
+	{
+		return churn(set, works, threads, millis, new AtomicLong());
+	}
+
+	/**
+	 * Each thread repeatedly removes one of its own share of the in-flight
+	 * jobs and puts it back, as a completion followed by a dispatch.
+	 */
+	private static long churn(final ActiveSet set, final Work[] works,
+		final int threads, final long millis, final AtomicLong bytes)
+		throws InterruptedException
+	{
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0 ; t < threads ; t++)
+		{
+			final int offset = t;
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					com.sun.management.ThreadMXBean mx =
+						(com.sun.management.ThreadMXBean)
+						ManagementFactory.getThreadMXBean();
+					long threadId = Thread.currentThread().getId();
+					long localOps = 0;
+					try
+					{
+						start.await();
+						long allocated = mx.getThreadAllocatedBytes(threadId);
+						long end = System.nanoTime() + millis * 1000000L;
+						int i = offset;
+						while ((localOps & 1023) != 0 || System.nanoTime() < end)
+						{
+							Work work = works[i];
+							if (!set.remove(work)) throw new IllegalStateException(
+								"Work[" + work.getId() + "] not in flight");
+							set.put(work);
+							i += threads;
+							if (i >= works.length) i = offset;
+							localOps++;
+						}
+						bytes.addAndGet(mx.getThreadAllocatedBytes(threadId) - allocated);
+					}
+					catch (InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+					}
+					ops.addAndGet(localOps);
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+
+	private static long liveHeap(MemoryMXBean memory)
+	{
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,124 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Keeps a publisher slightly overloaded with the console's job mix, lengths
+ * 1 to 5000, and reports the 99th percentile queue wait of each work length
+ * band for several aging rates.  Jobs sleep for 1/100th of their length so
+ * a run takes seconds; 10 workers then finish about 400 jobs per second,
+ * and jobs arrive 10% faster than that.  Without aging, short jobs wait
+ * until the arrivals stop.
+ * Usage: AgingBenchmark [seconds [rates,...]]
+ */
+public class AgingBenchmark
+{
+	private static final int WORKERS = 10;
+	private static final int MAX_LENGTH = 5000;
+	private static final int SCALE = 100;
+	private static final double OVERLOAD = 1.1;
+	private static final long PACE_MILLIS = 10;
+
+	public static void main(String[] args) throws Exception
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		String[] rates = (args.length > 1 ? args[1] : "0,1000,5000").split(",");
+
+		BenchSupport.discardLogging();
+		double capacity = WORKERS * 1000.0 * SCALE * 2 / MAX_LENGTH;
+		System.out.printf("seconds=%d workers=%d arrivals=%.0f jobs/s%n",
+			seconds, WORKERS, capacity * OVERLOAD);
+		for (String rate : rates)
+		{
+			run(Double.parseDouble(rate.trim()), seconds, capacity * OVERLOAD);
+		}
+	}
+
+	private static void run(double agingRate, int seconds, double arrivalRate)
+		throws Exception
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(1);
+		options.setNumberOfWorkersPerManager(WORKERS);
+		options.setAgingRate(agingRate);
+		JobPublisher publisher = JobPublisher.getJobPublisher(options);
+
+		Random random = new Random(42);
+		List<CompletableFuture<Work>> futures = new ArrayList<CompletableFuture<Work>>();
+		long begin = System.nanoTime();
+		long end = begin + seconds * 1000000000L;
+		long submitted = 0;
+		for (long now = begin ; now < end ; now = System.nanoTime())
+		{
+			long due = (long)((now - begin) / 1e9 * arrivalRate);
+			List<Work> batch = new ArrayList<Work>();
+			for ( ; submitted < due ; submitted++)
+			{
+				batch.add(new ScaledWork(1 + random.nextInt(MAX_LENGTH)));
+			}
+			futures.addAll(publisher.submitAll(batch));
+			Thread.sleep(PACE_MILLIS);
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		long elapsed = System.nanoTime() - begin;
+		MetricsSnapshot metrics = publisher.getMetrics();
+		((JobPublisherImpl)publisher).kill();
+
+		StringBuilder bands = new StringBuilder();
+		for (int i = 0 ; i < metrics.getLengthBands() ; i++)
+		{
+			long limit = metrics.getLengthBandLimit(i);
+			bands.append(String.format("  %s p99=%7.0fms",
+				limit == Long.MAX_VALUE ? "rest  " : String.format("<=%-4d", limit),
+				metrics.getWaitByLength(i).getP99() / 1e6));
+		}
+		System.out.printf("agingRate=%-6s jobs=%-5d %6.1fs  mean wait %6.0fms%s%n",
+			agingRate == 0 ? "off" : String.format("%.0f", agingRate),
+			futures.size(), elapsed / 1e9, metrics.getWait().getMean() / 1e6,
+			bands);
+	}
+
+	/**
+	 * Work that parks for 1/SCALE of its length in milliseconds.
+	 */
+	private static class ScaledWork implements Work
+	{
+		private final long workLength;
+		private int id;
+
+		ScaledWork(long workLength)
+		{
+			this.workLength = workLength;
+		}
+
+		public void doWork()
+		{
+			LockSupport.parkNanos(workLength * 1000000 / SCALE);
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return workLength;
+		}
+	}
+}
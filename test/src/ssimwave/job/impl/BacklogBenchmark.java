@@ -0,0 +1,83 @@
+package ssimwave.job.impl;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import ssimwave.job.Work;
+
+/**
+ * Fills each WorkQueue with a large backlog of SleepWork, as the console's
+ * enqueueJobs does, and then drains it.  Reports the heap the backlog
+ * retains and the time spent enqueuing, draining and in garbage collection.
+ * Large backlogs need a large heap for WorkTree, for example:
+ *	ant bench -Dbench=ssimwave.job.impl.BacklogBenchmark -Dargs=20000000 -Djvmargs=-Xmx4g
+ * Usage: BacklogBenchmark [jobs]
+ */
+public class BacklogBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+
+		System.out.printf("jobs=%d%n", jobs);
+		for (String name : new String[] { "WorkTree", "OffHeapWorkQueue" })
+		{
+			run(name, jobs / 10, false); // warm up
+			run(name, jobs, true);
+		}
+	}
+
+	private static void run(String name, int jobs, boolean report)
+	{
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long before = liveHeap(memory);
+		long gcBefore = gcMillis();
+
+		WorkQueue queue = "WorkTree".equals(name) ?
+			new WorkTree() : new OffHeapWorkQueue(SleepWork.CODEC);
+		long started = System.nanoTime();
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			Work work = new SleepWork(1 + (i * 7919L) % 5000);
+			work.setId(i);
+			queue.put(work.getWorkLength(), work);
+		}
+		long enqueued = System.nanoTime();
+		long gcEnqueue = gcMillis() - gcBefore;
+		long retained = liveHeap(memory) - before;
+
+		long gcDrain = gcMillis();
+		long drainStarted = System.nanoTime();
+		long checksum = 0;
+		Work work;
+		while ((work = queue.removeHighest()) != null)
+		{
+			checksum += work.getId();
+		}
+		long drained = System.nanoTime();
+		gcDrain = gcMillis() - gcDrain;
+
+		if (!report) return;
+		System.out.printf("%-16s heap %6.1f bytes/job  enqueue %6.0fms (gc %5dms)  " +
+			"drain %6.0fms (gc %5dms)  checksum %d%n", name,
+			(double)retained / jobs, (enqueued - started) / 1e6, gcEnqueue,
+			(drained - drainStarted) / 1e6, gcDrain, checksum);
+	}
+
+	private static long gcMillis()
+	{
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			millis += Math.max(0, gc.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static long liveHeap(MemoryMXBean memory)
+	{
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,96 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Compares claiming and completing Work one item at a time against the batch
+ * getWork/workDone API, with the queue pre-filled with short jobs.
+ * Usage: BatchDispatchBenchmark [jobs [threads [batch [rounds]]]]
+ */
+public class BatchDispatchBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int batch = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+
+		BenchSupport.discardLogging();
+
+		System.out.printf("jobs=%d threads=%d batch=%d%n", jobs, threads, batch);
+		for (int round = 1 ; round <= rounds ; round++)
+		{
+			run("single", jobs, threads, 1, round);
+			run("batch", jobs, threads, batch, round);
+		}
+	}
+
+	private static void run(String label, int jobs, int threads,
+		final int batch, int round) throws InterruptedException
+	{
+		final JobPublisherImpl publisher = new JobPublisherImpl(0, 0);
+		Random random = new Random(round);
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			publisher.enqueue(new NoOpWork(1 + random.nextInt(100)));
+		}
+
+		final AtomicLong calls = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0 ; t < threads ; t++)
+		{
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					long localCalls = 0;
+					List<Work> works = new ArrayList<Work>(batch);
+					try
+					{
+						start.await();
+						for (;;)
+						{
+							localCalls++;
+							if (batch == 1)
+							{
+								Work work = publisher.getWork();
+								if (work == null) break;
+								publisher.workDone(work);
+							}
+							else
+							{
+								if (publisher.getWork(batch, works) == 0) break;
+								publisher.workDone(works);
+								works.clear();
+							}
+							localCalls++;
+						}
+					}
+					catch (InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+					}
+					calls.addAndGet(localCalls);
+					done.countDown();
+				}
+			}).start();
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+
+		System.out.printf("round %d %-6s %10.0f jobs/s %8.3f publisher calls/job%n",
+			round, label, jobs * 1e9 / elapsed, (double)calls.get() / jobs);
+	}
+}
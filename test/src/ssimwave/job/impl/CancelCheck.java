@@ -0,0 +1,306 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.RetryPolicy;
+import ssimwave.job.TimeLimitedWork;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks the handshake between cancel() and dispatch, time limits and
+ * completion, under every manager type.  A seeded random mix of instant,
+ * short and long jobs, some with a time limit shorter than they run, is
+ * submitted in batches without retries, a few pools' worth at a time; the
+ * submitting thread cancels some jobs as soon as they are queued, while a
+ * second thread keeps cancelling jobs at random, mostly around the newest
+ * job started, so as to catch them dispatched, running, timing out or just
+ * finished.
+ * Every future must complete exactly once, and only as done, cancelled or
+ * failed with a TimeoutException, no job may run twice, and the metrics'
+ * done, cancelled, timed out and dead lettered counts must match the
+ * futures, the number of cancel() calls that returned true and each other.
+ * Usage: CancelCheck [jobs [seed]]
+ */
+public class CancelCheck
+{
+	private static final int MANAGERS = 2;
+	private static final int WORKERS = 4;
+	private static final long TIME_LIMIT_MILLIS = 10;
+	private static final int MAX_OUTSTANDING = 8 * MANAGERS * WORKERS;
+	private static final long FINISH_SECONDS = 60;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		BenchSupport.discardLogging();
+		for (JobPublisher.ManagerType managerType : JobPublisher.ManagerType.values())
+		{
+			check(managerType, jobs, seed);
+		}
+	}
+
+	private static void check(JobPublisher.ManagerType managerType, int jobs,
+		long seed) throws Exception
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(MANAGERS);
+		options.setNumberOfWorkersPerManager(WORKERS);
+		options.setManagerType(managerType);
+		options.setRetryPolicy(new RetryPolicy(0, 0, 0));
+		final JobPublisher publisher = JobPublisher.getJobPublisher(options);
+
+		Random random = new Random(seed);
+		final AtomicInteger newestStarted = new AtomicInteger();
+		final RacingWork[] works = new RacingWork[jobs];
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			works[i] = new RacingWork(random, i, newestStarted);
+		}
+		List<CompletableFuture<Work>> futures =
+			new ArrayList<CompletableFuture<Work>>(jobs);
+		final AtomicInteger completions = new AtomicInteger();
+		final AtomicLong cancelled = new AtomicLong(); // cancel() returned true
+		final AtomicInteger submitted = new AtomicInteger(); // IDs assigned
+		final AtomicBoolean stop = new AtomicBoolean(false);
+
+		// races cancel() against whatever the jobs are doing meanwhile
+		final long cancellerSeed = random.nextLong();
+		Thread canceller = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				Random random = new Random(cancellerSeed);
+				while (!stop.get())
+				{
+					int count = submitted.get();
+					if (count == 0)
+					{
+						Thread.yield();
+						continue;
+					}
+					int i;
+					int pick = random.nextInt(4);
+					if (pick == 0)
+					{
+						i = random.nextInt(count); // mostly finished
+					}
+					else if (pick == 1)
+					{
+						i = count - 1 - random.nextInt(Math.min(count, 20)); // queued
+					}
+					else
+					{
+						// around the newest started, likely in flight
+						i = newestStarted.get() + MANAGERS * WORKERS -
+							random.nextInt(3 * MANAGERS * WORKERS);
+						i = Math.max(0, Math.min(count - 1, i));
+					}
+					if (publisher.cancel(works[i].getId())) cancelled.incrementAndGet();
+					if (random.nextInt(8) == 0) Thread.yield();
+				}
+			}
+		}, "Canceller");
+
+		BiConsumer<Work,Throwable> counter = new BiConsumer<Work,Throwable>()
+		{
+			public void accept(Work work, Throwable t)
+			{
+				completions.incrementAndGet();
+			}
+		};
+		List<Work> batch = new ArrayList<Work>();
+		canceller.start();
+		try
+		{
+			while (futures.size() < jobs)
+			{
+				int first = futures.size();
+				int size = Math.min(jobs - first, 1 + random.nextInt(20));
+				for (int i = first ; i < first + size ; i++)
+				{
+					batch.add(works[i]);
+				}
+				for (CompletableFuture<Work> future : publisher.submitAll(batch))
+				{
+					future.whenComplete(counter);
+					futures.add(future);
+				}
+				batch.clear();
+				submitted.set(futures.size());
+				// cancel a few while they are likely still queued
+				for (int i = first ; i < first + size ; i++)
+				{
+					if (random.nextInt(10) == 0 && publisher.cancel(works[i].getId()))
+					{
+						cancelled.incrementAndGet();
+					}
+				}
+				while (futures.size() - completions.get() > MAX_OUTSTANDING)
+				{
+					Thread.sleep(1);
+				}
+			}
+			long deadline = System.nanoTime() + FINISH_SECONDS * 1000000000L;
+			for (CompletableFuture<Work> future : futures)
+			{
+				try
+				{
+					future.get(Math.max(0, deadline - System.nanoTime()),
+						TimeUnit.NANOSECONDS);
+				}
+				catch (ExecutionException ee)
+				{
+					// counted below
+				}
+				catch (CancellationException ce)
+				{
+					// counted below
+				}
+				catch (TimeoutException te)
+				{
+					break; // reported below as never finished
+				}
+			}
+		}
+		finally
+		{
+			stop.set(true);
+			canceller.join();
+		}
+
+		String what = managerType + ": ";
+		long done = 0, cancelledFutures = 0, timedOut = 0;
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			RacingWork work = works[i];
+			CompletableFuture<Work> future = futures.get(i);
+			String job = what + "job " + work.getId();
+			BenchSupport.check(future.isDone(), job + " never finished");
+			BenchSupport.check(work.runs.get() <= 1, job + " ran " +
+				work.runs.get() + " times");
+			BenchSupport.check(!publisher.cancel(work.getId()), job +
+				" cancelled once finished");
+			if (future.isCancelled())
+			{
+				cancelledFutures++;
+				continue;
+			}
+			try
+			{
+				BenchSupport.check(future.get() == work, job + " completed with " +
+					"other work");
+				BenchSupport.check(work.runs.get() == 1, job + " done without " +
+					"running");
+				done++;
+			}
+			catch (ExecutionException ee)
+			{
+				BenchSupport.check(ee.getCause() instanceof TimeoutException, job +
+					" failed with " + ee.getCause());
+				BenchSupport.check(work.timeLimitMillis > 0, job +
+					" timed out without a time limit");
+				timedOut++;
+			}
+		}
+		// callbacks run on the completing thread, after get() returns
+		for (int waited = 0 ; completions.get() < jobs && waited < 1000 ; waited++)
+		{
+			Thread.sleep(1);
+		}
+		BenchSupport.check(completions.get() == jobs, what + completions.get() +
+			" completions of " + jobs + " futures");
+
+		MetricsSnapshot metrics = publisher.getMetrics();
+		BenchSupport.check(metrics.getDone() == done, what + "done " +
+			metrics.getDone() + ", futures " + done);
+		BenchSupport.check(metrics.getCancelled() == cancelledFutures, what +
+			"cancelled " + metrics.getCancelled() + ", futures " + cancelledFutures);
+		BenchSupport.check(cancelled.get() == cancelledFutures, what +
+			cancelled.get() + " cancel() calls returned true, futures " +
+			cancelledFutures);
+		BenchSupport.check(metrics.getTimedOut() == timedOut, what + "timed out " +
+			metrics.getTimedOut() + ", futures " + timedOut);
+		BenchSupport.check(metrics.getDeadLettered() == timedOut, what +
+			"dead lettered " + metrics.getDeadLettered() + ", timed out " + timedOut);
+		BenchSupport.check(metrics.getRetries() == 0, what + "retries " +
+			metrics.getRetries());
+		int left = publisher.shutdown(JobPublisher.ShutdownMode.DRAIN,
+			FINISH_SECONDS * 1000).get(FINISH_SECONDS, TimeUnit.SECONDS);
+		BenchSupport.check(left == 0, what + left + " jobs not done at shutdown");
+		System.out.printf("%-8s %d jobs: %d done, %d cancelled, %d timed out: PASSED%n",
+			managerType, jobs, done, cancelledFutures, timedOut);
+	}
+
+	/**
+	 * Work that sleeps for a random time, some of it longer than its own
+	 * time limit, and counts its runs.
+	 */
+	private static final class RacingWork implements TimeLimitedWork
+	{
+		private final long lengthMillis;
+		private final long timeLimitMillis;
+		private final int index; // in submission order
+		private final AtomicInteger newestStarted;
+		private final AtomicInteger runs;
+		private volatile int id;
+
+		RacingWork(Random random, int index, AtomicInteger newestStarted)
+		{
+			this.index = index;
+			this.newestStarted = newestStarted;
+			int kind = random.nextInt(10);
+			lengthMillis = kind < 5 ? 0 : kind < 9 ? 1 + random.nextInt(3) :
+				2 * TIME_LIMIT_MILLIS + random.nextInt(20);
+			timeLimitMillis = random.nextInt(3) == 0 ? TIME_LIMIT_MILLIS : 0;
+			runs = new AtomicInteger();
+		}
+
+		public void doWork() throws Exception
+		{
+			runs.incrementAndGet();
+			int newest = newestStarted.get();
+			while (index > newest && !newestStarted.compareAndSet(newest, index))
+			{
+				newest = newestStarted.get();
+			}
+			if (lengthMillis > 0) Thread.sleep(lengthMillis);
+		}
+
+		public long getTimeoutMillis()
+		{
+			return timeLimitMillis;
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return lengthMillis;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.DeadlineWork;
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisher.SchedulingPolicy;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Compares scheduling policies on a mixed workload with deadlines.  Jobs run
+ * for their work length, 1 to 50ms, and must be done within their length
+ * plus a slack of 0 to 300ms of arriving.  Jobs arrive at a fraction of
+ * what 10 workers can finish; for each load the deadlines met and missed
+ * are reported per policy.
+ * Usage: DeadlineBenchmark [seconds [loads,... [policies,...]]]
+ */
+public class DeadlineBenchmark
+{
+	private static final int WORKERS = 10;
+	private static final int MAX_LENGTH = 50;
+	private static final int MAX_SLACK = 300;
+	private static final long PACE_MILLIS = 5;
+
+	public static void main(String[] args) throws Exception
+	{
+		int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		String[] loads = (args.length > 1 ? args[1] : "0.9,1.05").split(",");
+		String[] policies = (args.length > 2 ? args[2] :
+			"LONGEST_FIRST,EARLIEST_DEADLINE_FIRST").split(",");
+
+		BenchSupport.discardLogging();
+		double capacity = WORKERS * 1000.0 * 2 / (MAX_LENGTH + 1);
+		System.out.printf("seconds=%d workers=%d capacity=%.0f jobs/s%n",
+			seconds, WORKERS, capacity);
+		for (String load : loads)
+		{
+			for (String policy : policies)
+			{
+				run(SchedulingPolicy.valueOf(policy.trim()), seconds,
+					Double.parseDouble(load.trim()), capacity);
+			}
+		}
+	}
+
+	private static void run(SchedulingPolicy policy, int seconds, double load,
+		double capacity) throws Exception
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(1);
+		options.setNumberOfWorkersPerManager(WORKERS);
+		options.setSchedulingPolicy(policy);
+		JobPublisher publisher = JobPublisher.getJobPublisher(options);
+
+		Random random = new Random(42);
+		List<CompletableFuture<Work>> futures = new ArrayList<CompletableFuture<Work>>();
+		long begin = System.nanoTime();
+		long end = begin + seconds * 1000000000L;
+		long submitted = 0;
+		for (long now = begin ; now < end ; now = System.nanoTime())
+		{
+			long due = (long)((now - begin) / 1e9 * capacity * load);
+			long arrived = System.currentTimeMillis();
+			List<Work> batch = new ArrayList<Work>();
+			for ( ; submitted < due ; submitted++)
+			{
+				int length = 1 + random.nextInt(MAX_LENGTH);
+				batch.add(new TimedDeadlineWork(length,
+					arrived + length + random.nextInt(MAX_SLACK + 1)));
+			}
+			futures.addAll(publisher.submitAll(batch));
+			Thread.sleep(PACE_MILLIS);
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		MetricsSnapshot metrics = publisher.getMetrics();
+		((JobPublisherImpl)publisher).kill();
+
+		long deadlines = metrics.getDeadlinesMet() + metrics.getDeadlinesMissed();
+		System.out.printf("load=%-5s %-23s jobs=%-5d met %5.1f%%  missed=%-5d " +
+			"deprioritized=%-5d wait mean=%6.1fms p99=%7.1fms%n", load, policy,
+			futures.size(), 100.0 * metrics.getDeadlinesMet() / deadlines,
+			metrics.getDeadlinesMissed(), metrics.getInfeasible(),
+			metrics.getWait().getMean() / 1e6, metrics.getWait().getP99() / 1e6);
+	}
+
+	/**
+	 * Work that parks for its length in milliseconds.
+	 */
+	private static class TimedDeadlineWork implements DeadlineWork
+	{
+		private final long workLength;
+		private final long deadline;
+		private int id;
+
+		TimedDeadlineWork(long workLength, long deadline)
+		{
+			this.workLength = workLength;
+			this.deadline = deadline;
+		}
+
+		public long getDeadline()
+		{
+			return deadline;
+		}
+
+		public void doWork()
+		{
+			LockSupport.parkNanos(workLength * 1000000);
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return workLength;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ssimwave.job.JobPublisher.ManagerType;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Measures end-to-end dispatch through a JobPublisherImpl using Work that
+ * returns immediately, so only scheduler overhead is measured.  For each
+ * manager type and manager/worker count it reports:
+ *	burst - throughput and enqueue-to-doWork latency for a pre-queued burst
+ *	idle  - enqueue-to-doWork latency of one job at a time on an idle system
+ * Usage: DispatchBenchmark [jobs [types,... [managers,... [workers,...]]]]
+ */
+public class DispatchBenchmark
+{
+	private static final int IDLE_SAMPLES = 2000;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		String[] types = (args.length > 1 ? args[1] : "THREADED,HANDOFF,EXECUTOR").split(",");
+		int[] managerCounts = BenchSupport.parseInts(args.length > 2 ? args[2] : "1,3,8");
+		int[] workerCounts = BenchSupport.parseInts(args.length > 3 ? args[3] : "10,50");
+
+		BenchSupport.discardLogging();
+		System.out.printf("jobs=%d%n", jobs);
+		for (String type : types)
+		{
+			ManagerType managerType = ManagerType.valueOf(type.trim());
+			for (int managers : managerCounts)
+			{
+				for (int workers : workerCounts)
+				{
+					burst(managerType, managers, workers, jobs);
+					idle(managerType, managers, workers);
+				}
+			}
+		}
+	}
+
+	private static void burst(ManagerType type, int managers, int workers,
+		int jobs) throws InterruptedException
+	{
+		Samples samples = new Samples(jobs);
+		JobPublisherImpl publisher = new JobPublisherImpl(managers, workers, type);
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			publisher.enqueue(new TimedWork(samples, i % 5000));
+		}
+		publisher.signalManagers(jobs);
+		boolean finished = samples.await();
+		long elapsed = System.nanoTime() - begin;
+		publisher.kill();
+
+		System.out.printf("%-9s managers=%-3d workers=%-4d burst %10.0f jobs/s " +
+			"p50=%8.1fus p99=%8.1fus%s%n", type, managers, workers,
+			samples.count() * 1e9 / elapsed, samples.percentile(50) / 1e3,
+			samples.percentile(99) / 1e3, finished ? "" : " (timed out)");
+	}
+
+	private static void idle(ManagerType type, int managers, int workers)
+		throws InterruptedException
+	{
+		Samples samples = new Samples(IDLE_SAMPLES);
+		JobPublisherImpl publisher = new JobPublisherImpl(managers, workers, type);
+		Thread.sleep(50); // let manager threads park
+		for (int i = 0 ; i < IDLE_SAMPLES ; i++)
+		{
+			publisher.enqueue(new TimedWork(samples, i % 5000));
+			publisher.signalManagers(1);
+			while (samples.count() <= i) Thread.yield();
+		}
+		publisher.kill();
+
+		System.out.printf("%-9s managers=%-3d workers=%-4d idle  " +
+			"p50=%8.1fus p99=%8.1fus%n", type, managers, workers,
+			samples.percentile(50) / 1e3, samples.percentile(99) / 1e3);
+	}
+
+	/**
+	 * Enqueue-to-start latencies, indexed by Work ID.
+	 */
+	private static final class Samples
+	{
+		private final long[] latencies;
+		private final CountDownLatch started;
+
+		Samples(int jobs)
+		{
+			latencies = new long[jobs];
+			started = new CountDownLatch(jobs);
+		}
+
+		void record(int id, long latency)
+		{
+			latencies[id] = latency;
+			started.countDown();
+		}
+
+		int count()
+		{
+			return (int)(latencies.length - started.getCount());
+		}
+
+		boolean await() throws InterruptedException
+		{
+			return started.await(5, TimeUnit.MINUTES);
+		}
+
+		long percentile(double percentile)
+		{
+			return BenchSupport.percentile(latencies.clone(), count(), percentile);
+		}
+	}
+
+	/**
+	 * No-op Work that records the time between construction and doWork().
+	 */
+	private static final class TimedWork implements Work
+	{
+		private final Samples samples;
+		private final long workLength;
+		private final long enqueued;
+		private int id;
+
+		TimedWork(Samples samples, long workLength)
+		{
+			this.samples = samples;
+			this.workLength = workLength;
+			this.enqueued = System.nanoTime();
+		}
+
+		public void doWork()
+		{
+			samples.record(id, System.nanoTime() - enqueued);
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return workLength;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ssimwave.job.DeadlineWorkAdapter;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks EdfWorkQueue against three TreeMaps ordered by deadline and then
+ * ID: work that can meet its deadline, work that cannot and work without
+ * one.  A seeded random run of put, removeHighest and remove(id), with few
+ * distinct deadlines so that ties are broken by ID.  Deadlines are whole
+ * minutes from the start, in the past or the future, and work is either
+ * shorter than a second or longer than any deadline is away, so whether
+ * work can meet its deadline does not change while the check runs.  Every
+ * removal must return the work the model does: feasible first, then late,
+ * then without a deadline.
+ * Usage: EdfWorkQueueCheck [operations [seed]]
+ */
+public class EdfWorkQueueCheck
+{
+	private static final long MINUTE_MILLIS = 60 * 1000;
+	private static final int DEADLINES = 64; // minutes either side of now
+	private static final long LONG_MILLIS = 2 * DEADLINES * MINUTE_MILLIS;
+
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		Random random = new Random(seed);
+		long now = System.currentTimeMillis();
+		EdfWorkQueue queue = new EdfWorkQueue();
+		Comparator<long[]> order = new Comparator<long[]>()
+		{
+			public int compare(long[] a, long[] b)
+			{
+				if (a[0] != b[0]) return Long.compare(a[0], b[0]);
+				return Long.compare(a[1], b[1]);
+			}
+		};
+		List<TreeMap<long[],Work>> expected = new ArrayList<TreeMap<long[],Work>>();
+		for (int i = 0 ; i < 3 ; i++)
+		{
+			expected.add(new TreeMap<long[],Work>(order)); // feasible, late, none
+		}
+		Map<Integer,long[]> keys = new HashMap<Integer,long[]>();
+		Map<Integer,TreeMap<long[],Work>> where =
+			new HashMap<Integer,TreeMap<long[],Work>>();
+		List<Integer> ids = new ArrayList<Integer>();
+		int nextId = 0;
+		int size = 0;
+		int[] dispatched = new int[3];
+
+		for (int i = 0 ; i < operations ; i++)
+		{
+			// grow for the first half, drain for the second
+			int putOdds = i < operations / 2 ? 60 : 35;
+			int op = random.nextInt(100);
+			String what = "op " + i;
+			if (op < putOdds || size == 0)
+			{
+				boolean shortWork = random.nextInt(4) != 0;
+				Work work = new SleepWork(shortWork ? random.nextInt(1000) :
+					LONG_MILLIS + random.nextInt(1000));
+				int kind = random.nextInt(10);
+				long deadline = Long.MAX_VALUE;
+				if (kind < 8)
+				{
+					int minutes = random.nextInt(2 * DEADLINES) - DEADLINES;
+					deadline = now + (minutes < 0 ? minutes : minutes + 1) *
+						MINUTE_MILLIS;
+					work = new DeadlineWorkAdapter(work, deadline);
+				}
+				work.setId(nextId++);
+				long[] key = new long[] { deadline, work.getId() };
+				TreeMap<long[],Work> map = deadline == Long.MAX_VALUE ?
+					expected.get(2) : shortWork && deadline > now ?
+					expected.get(0) : expected.get(1);
+				queue.put(random.nextLong(), work); // the key is ignored
+				map.put(key, work);
+				keys.put(work.getId(), key);
+				where.put(work.getId(), map);
+				ids.add(work.getId());
+				size++;
+			}
+			else if (op < 90)
+			{
+				int band = 0;
+				while (expected.get(band).isEmpty()) band++;
+				Work next = expected.get(band).pollFirstEntry().getValue();
+				keys.remove(next.getId());
+				where.remove(next.getId());
+				size--;
+				dispatched[band]++;
+				check(queue.removeHighest(), next, what + " removeHighest");
+			}
+			else
+			{
+				// a queued ID, or one already removed
+				int id = ids.get(random.nextInt(ids.size()));
+				long[] key = keys.remove(id);
+				Work removed = queue.remove(id);
+				if (key == null)
+				{
+					BenchSupport.check(removed == null, what + " remove " + id +
+						" not queued");
+				}
+				else
+				{
+					check(removed, where.remove(id).remove(key), what + " remove " + id);
+					size--;
+				}
+			}
+			if (size > 0)
+			{
+				BenchSupport.check(!queue.isEmpty(), what + " empty with " + size +
+					" queued");
+			}
+		}
+		for (TreeMap<long[],Work> map : expected)
+		{
+			while (!map.isEmpty())
+			{
+				check(queue.removeHighest(), map.pollFirstEntry().getValue(),
+					"final removeHighest");
+			}
+		}
+		BenchSupport.check(queue.removeHighest() == null && queue.isEmpty(),
+			"queue not empty");
+		BenchSupport.check(dispatched[0] > 0 && dispatched[1] > 0 &&
+			dispatched[2] > 0, "not every kind of work was dispatched");
+		System.out.printf("%d operations, dispatched %d feasible, %d late, " +
+			"%d without a deadline: PASSED%n", operations, dispatched[0],
+			dispatched[1], dispatched[2]);
+	}
+
+	private static void check(Work actual, Work expected, String what)
+	{
+		BenchSupport.check(actual == expected, what + " returned " +
+			(actual == null ? "null" : String.valueOf(actual.getId())) +
+			", expected " + expected.getId());
+	}
+}
@@ -0,0 +1,141 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.ElasticPolicy;
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Ramps the arrival rate of 20ms jobs from quiet to a burst and back, and
+ * compares a fixed pool of 64 workers with an elastic pool of 2 to 64 that
+ * retires idle workers after 1 second.  For each phase it reports the 99th
+ * percentile wait from submitting a job to it starting, and the mean and
+ * most threads alive.
+ * Usage: ElasticBenchmark [phaseSeconds [rates,...]]
+ */
+public class ElasticBenchmark
+{
+	private static final int MAX_WORKERS = 64;
+	private static final int MIN_WORKERS = 2;
+	private static final long KEEP_ALIVE_MILLIS = 1000;
+	private static final long JOB_MILLIS = 20;
+	private static final long PACE_MILLIS = 10;
+
+	public static void main(String[] args) throws Exception
+	{
+		int phaseSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+		String[] rates = (args.length > 1 ? args[1] :
+			"50,500,2000,500,50").split(",");
+
+		BenchSupport.discardLogging();
+		System.out.printf("phase=%ds job=%dms capacity=%d jobs/s%n", phaseSeconds,
+			JOB_MILLIS, MAX_WORKERS * 1000 / JOB_MILLIS);
+		run("fixed", null, phaseSeconds, rates);
+		run("elastic", new ElasticPolicy(MIN_WORKERS, KEEP_ALIVE_MILLIS,
+			ElasticPolicy.DEFAULT_GROW_AFTER_MILLIS), phaseSeconds, rates);
+	}
+
+	private static void run(String name, ElasticPolicy elastic,
+		int phaseSeconds, String[] rates) throws Exception
+	{
+		int baseline = Thread.activeCount();
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(1);
+		options.setNumberOfWorkersPerManager(MAX_WORKERS);
+		options.setElasticPolicy(elastic);
+		JobPublisher publisher = JobPublisher.getJobPublisher(options);
+
+		for (String rate : rates)
+		{
+			double arrivalRate = Double.parseDouble(rate.trim());
+			List<TimedWork> jobs = new ArrayList<TimedWork>();
+			List<CompletableFuture<Work>> futures = new ArrayList<CompletableFuture<Work>>();
+			long threads = 0;
+			int samples = 0;
+			int mostThreads = 0;
+			long begin = System.nanoTime();
+			long end = begin + phaseSeconds * 1000000000L;
+			long submitted = 0;
+			for (long now = begin ; now < end ; now = System.nanoTime())
+			{
+				long due = (long)((now - begin) / 1e9 * arrivalRate);
+				List<Work> batch = new ArrayList<Work>();
+				for ( ; submitted < due ; submitted++)
+				{
+					TimedWork work = new TimedWork();
+					jobs.add(work);
+					batch.add(work);
+				}
+				futures.addAll(publisher.submitAll(batch));
+				int alive = Thread.activeCount() - baseline;
+				threads += alive;
+				samples++;
+				mostThreads = Math.max(mostThreads, alive);
+				Thread.sleep(PACE_MILLIS);
+			}
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+			long[] waits = new long[jobs.size()];
+			for (int i = 0 ; i < waits.length ; i++)
+			{
+				waits[i] = jobs.get(i).started - jobs.get(i).submitted;
+			}
+			Arrays.sort(waits);
+			System.out.printf("%-7s rate=%-5s jobs=%-5d wait p99=%7.1fms  " +
+				"threads mean=%5.1f max=%d%n", name, rate.trim(), waits.length,
+				waits.length == 0 ? 0 : waits[(int)(waits.length * 0.99)] / 1e6,
+				(double)threads / samples, mostThreads);
+		}
+		((JobPublisherImpl)publisher).kill();
+		// let the threads exit, so the next run's baseline leaves them out
+		for (int waited = 0 ; Thread.activeCount() > baseline && waited < 5000 ;
+			waited += PACE_MILLIS)
+		{
+			Thread.sleep(PACE_MILLIS);
+		}
+	}
+
+	/**
+	 * Work that parks for JOB_MILLIS and records when it was submitted and
+	 * started.
+	 */
+	private static class TimedWork implements Work
+	{
+		private final long submitted;
+		private volatile long started;
+		private int id;
+
+		TimedWork()
+		{
+			submitted = System.nanoTime();
+		}
+
+		public void doWork()
+		{
+			started = System.nanoTime();
+			LockSupport.parkNanos(JOB_MILLIS * 1000000);
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return JOB_MILLIS;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package ssimwave.job.impl;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+import ssimwave.job.JobPublisher.ManagerType;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Stress check for EXECUTOR managers: queues a large backlog of Work at once
+ * and, while it drains, verifies that no manager ever has more tasks in its
+ * executor than it has threads and that live heap does not grow beyond what
+ * the queued Work itself needed.  Exits with status 1 on a violation.
+ * Needs a heap large enough for the backlog; 10M jobs fit in -Xmx3g:
+ *	ant bench -Dbench=ssimwave.job.impl.ExecutorStress -Djvmargs=-Xmx3g
+ * Usage: ExecutorStress [jobs [seconds [managers [workers]]]]
+ */
+public class ExecutorStress
+{
+	private static final double HEAP_SLACK = 1.05;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int managers = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		int workers = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+		BenchSupport.discardLogging();
+		JobPublisherImpl publisher = new JobPublisherImpl(managers, workers,
+			ManagerType.EXECUTOR);
+		JobManager[] jobManagers = publisher.getManagers();
+
+		long baseline = liveHeap();
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			publisher.enqueue(new NoOpWork(i % 5000));
+		}
+		long queued = liveHeap();
+		System.out.printf("jobs=%d managers=%d workers=%d queued heap=%dMB " +
+			"(backlog %dMB)%n", jobs, managers, workers, queued >> 20,
+			(queued - baseline) >> 20);
+
+		long start = System.nanoTime();
+		publisher.signalManagers(jobs);
+		boolean failed = false;
+		long maxHeap = 0;
+		int maxQueued = 0;
+		while (System.nanoTime() - start < seconds * 1000000000L)
+		{
+			for (int t = 0 ; t < 20 ; t++)
+			{
+				Thread.sleep(50);
+				for (JobManager manager : jobManagers)
+				{
+					JobManagerExecutor executor = (JobManagerExecutor)manager;
+					maxQueued = Math.max(maxQueued, executor.getQueuedTasks());
+					if (executor.getBusyWorkers() > workers ||
+						executor.getQueuedTasks() > workers)
+					{
+						failed = true;
+					}
+				}
+			}
+			long heap = liveHeap();
+			maxHeap = Math.max(maxHeap, heap);
+			System.out.printf("%4ds done=%-9d live heap=%dMB%n",
+				(System.nanoTime() - start) / 1000000000L,
+				publisher.getJobMetrics().snapshot().getDone(), heap >> 20);
+		}
+		publisher.kill();
+
+		int peak = 0;
+		for (JobManager manager : jobManagers)
+		{
+			peak = Math.max(peak, ((JobManagerExecutor)manager).getPeakInFlight());
+		}
+		if (peak > workers) failed = true;
+		if (maxHeap > queued * HEAP_SLACK) failed = true;
+
+		System.out.printf("peak in flight=%d/%d max executor queue=%d " +
+			"max live heap=%dMB%n", peak, workers, maxQueued, maxHeap >> 20);
+		System.out.println(failed ? "FAILED" : "PASSED");
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * @return heap in use right after a full collection; unlike the current
+	 *	usage, this excludes garbage allocated since by the running jobs
+	 */
+	private static long liveHeap()
+	{
+		System.gc();
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && usage != null)
+			{
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+}
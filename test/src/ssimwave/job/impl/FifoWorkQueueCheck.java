@@ -0,0 +1,94 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks FifoWorkQueue against a LinkedHashMap in enqueue order: a seeded
+ * random run of put, removeHighest and remove(id), with random keys, which
+ * the queue ignores, and with IDs removed more than once.  The backlog
+ * first grows, then drains.  Every removal must return the work the model
+ * does, and the queue must not be empty while the model is not.
+ * Usage: FifoWorkQueueCheck [operations [seed]]
+ */
+public class FifoWorkQueueCheck
+{
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		Random random = new Random(seed);
+		FifoWorkQueue queue = new FifoWorkQueue();
+		LinkedHashMap<Integer,Work> expected = new LinkedHashMap<Integer,Work>();
+		List<Integer> ids = new ArrayList<Integer>();
+		int nextId = 0;
+		int largest = 0;
+
+		for (int i = 0 ; i < operations ; i++)
+		{
+			// grow for the first half, drain for the second
+			int putOdds = i < operations / 2 ? 60 : 35;
+			int op = random.nextInt(100);
+			String what = "op " + i;
+			if (op < putOdds || expected.isEmpty())
+			{
+				Work work = new NoOpWork(random.nextInt(5000));
+				work.setId(nextId++);
+				queue.put(random.nextLong(), work); // the key is ignored
+				expected.put(work.getId(), work);
+				ids.add(work.getId());
+			}
+			else if (op < 80)
+			{
+				Iterator<Work> oldest = expected.values().iterator();
+				Work next = oldest.next();
+				oldest.remove();
+				check(queue.removeHighest(), next, what + " removeHighest");
+			}
+			else
+			{
+				// a queued ID, or one already removed
+				int id = ids.get(random.nextInt(ids.size()));
+				Work removed = queue.remove(id);
+				Work queued = expected.remove(id);
+				if (queued == null)
+				{
+					BenchSupport.check(removed == null, what + " remove " + id +
+						" not queued");
+				}
+				else
+				{
+					check(removed, queued, what + " remove " + id);
+				}
+			}
+			if (!expected.isEmpty())
+			{
+				BenchSupport.check(!queue.isEmpty(), what + " empty with " +
+					expected.size() + " queued");
+			}
+			largest = Math.max(largest, expected.size());
+		}
+		for (Work next : expected.values())
+		{
+			check(queue.removeHighest(), next, "final removeHighest");
+		}
+		BenchSupport.check(queue.removeHighest() == null && queue.isEmpty(),
+			"queue not empty");
+		System.out.printf("%d operations, backlog up to %d: PASSED%n",
+			operations, largest);
+	}
+
+	private static void check(Work actual, Work expected, String what)
+	{
+		BenchSupport.check(actual == expected, what + " returned " +
+			(actual == null ? "null" : String.valueOf(actual.getId())) +
+			", expected " + expected.getId());
+	}
+}
@@ -0,0 +1,165 @@
+package ssimwave.job.impl;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.util.BenchSupport;
+
+/**
+ * Compares the cost of claiming and releasing a worker as the number of
+ * workers per manager grows: the former linear scan of a busy array under the
+ * manager's monitor against IdleWorkerStack.  All but one worker per thread
+ * are busy, scattered at random, as in a manager under full load.
+ * Usage: IdleWorkerBenchmark [workers,... [threads,... [millis]]]
+ */
+public class IdleWorkerBenchmark
+{
+	/**
+	 * A way of tracking which workers are free.
+	 */
+	private interface Tracker
+	{
+		int claim();
+
+		void release(int index);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		int[] workerCounts = BenchSupport.parseInts(
+			args.length > 0 ? args[0] : "10,100,1000,2000,10000");
+		int[] threadCounts = BenchSupport.parseInts(
+			args.length > 1 ? args[1] : "1,4");
+		long millis = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+
+		System.out.printf("millis=%d; ns per claim+release%n", millis);
+		for (int threads : threadCounts)
+		{
+			for (int workers : workerCounts)
+			{
+				if (workers < threads) continue;
+				run(new ScanTracker(workers, threads), threads, 200); // warm up
+				double scan = run(new ScanTracker(workers, threads), threads, millis);
+				run(newStackTracker(workers, threads), threads, 200); // warm up
+				double stack = run(newStackTracker(workers, threads), threads, millis);
+				System.out.printf("threads=%-2d workers=%-6d scan %10.1f   stack %8.1f%n",
+					threads, workers, scan, stack);
+			}
+		}
+	}
+
+	/**
+	 * @return average nanoseconds per claim+release pair across threads
+	 */
+	private static double run(final Tracker tracker, int threads,
+		final long millis) throws InterruptedException
+	{
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0 ; t < threads ; t++)
+		{
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					long localOps = 0;
+					try
+					{
+						start.await();
+						long end = System.nanoTime() + millis * 1000000L;
+						while ((localOps & 1023) != 0 || System.nanoTime() < end)
+						{
+							int index = tracker.claim();
+							if (index >= 0)
+							{
+								tracker.release(index);
+							}
+							localOps++;
+						}
+					}
+					catch (InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+					}
+					ops.addAndGet(localOps);
+					done.countDown();
+				}
+			}).start();
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		done.await();
+		return (double)(System.nanoTime() - started) * threads / ops.get();
+	}
+
+	/**
+	 * @return random, repeatable choice of which workers start free
+	 */
+	private static boolean[] randomBusy(int workers, int free)
+	{
+		boolean[] busy = new boolean[workers];
+		for (int i = 0 ; i < workers ; i++) busy[i] = true;
+		Random random = new Random(workers);
+		while (free > 0)
+		{
+			int i = random.nextInt(workers);
+			if (!busy[i]) continue;
+			busy[i] = false;
+			free--;
+		}
+		return busy;
+	}
+
+	private static Tracker newStackTracker(int workers, int free)
+	{
+		final IdleWorkerStack stack = new IdleWorkerStack(workers);
+		boolean[] busy = randomBusy(workers, free);
+		for (int i = 0 ; i < workers ; i++)
+		{
+			if (!busy[i]) stack.push(i);
+		}
+		return new Tracker()
+		{
+			public int claim()
+			{
+				return stack.pop();
+			}
+
+			public void release(int index)
+			{
+				stack.push(index);
+			}
+		};
+	}
+
+	/**
+	 * The tracking JobManagerImpl used before IdleWorkerStack.
+	 */
+	private static class ScanTracker implements Tracker
+	{
+		private final boolean[] busy;
+
+		ScanTracker(int workers, int free)
+		{
+			busy = randomBusy(workers, free);
+		}
+
+		public synchronized int claim()
+		{
+			for (int i = 0 ; i < busy.length ; i++)
+			{
+				if (busy[i]) continue;
+				busy[i] = true;
+				return i;
+			}
+			return -1;
+		}
+
+		public synchronized void release(int index)
+		{
+			busy[index] = false;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package ssimwave.job.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Measures how many events per second threads can append to a Journal,
+ * each job logging enqueue, dispatch and done as the publisher does, and
+ * then checks recovery: a second Journal opened on the same directory
+ * without closing the first, as after a crash, must recover exactly the
+ * jobs left unfinished.  Small segments make the compactor run meanwhile.
+ * Usage: JournalBenchmark [threads,... [millis [segmentSize]]]
+ */
+public class JournalBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int[] threadCounts = BenchSupport.parseInts(
+			args.length > 0 ? args[0] : "1,4");
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int segmentSize = args.length > 2 ? Integer.parseInt(args[2]) :
+			Journal.DEFAULT_SEGMENT_SIZE;
+
+		BenchSupport.discardLogging();
+		System.out.printf("millis=%d segmentSize=%d commit=%dms%n", millis,
+			segmentSize, Journal.DEFAULT_COMMIT_INTERVAL_MILLIS);
+		for (int threads : threadCounts)
+		{
+			throughput(threads, millis, segmentSize);
+		}
+		recovery(1000000, 2 * 1024 * 1024);
+	}
+
+	private static void throughput(int threads, final long millis,
+		int segmentSize) throws Exception
+	{
+		Path directory = Files.createTempDirectory("journal");
+		final Journal journal = new Journal(directory.toString(),
+			SleepWork.CODEC, segmentSize, Journal.DEFAULT_COMMIT_INTERVAL_MILLIS);
+		final AtomicLong ids = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0 ; t < threads ; t++)
+		{
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						start.await();
+						long end = System.nanoTime() + millis * 1000000L;
+						long jobs = 0;
+						while ((jobs & 255) != 0 || System.nanoTime() < end)
+						{
+							Work work = new SleepWork(1 + jobs % 5000);
+							work.setId((int)ids.getAndIncrement());
+							journal.enqueued(work);
+							journal.dispatched(work);
+							journal.done(work);
+							jobs++;
+						}
+					}
+					catch (InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		long started = System.nanoTime();
+		start.countDown();
+		done.await();
+		long elapsed = System.nanoTime() - started;
+		journal.close();
+		System.out.printf("threads=%-2d %12.0f events/s%n", threads,
+			journal.getAppended() * 1e9 / elapsed);
+		delete(directory);
+	}
+
+	/**
+	 * Journals jobs of which every fourth is done and every other is
+	 * dispatched, abandons the journal and recovers it.
+	 */
+	private static void recovery(int jobs, int segmentSize) throws Exception
+	{
+		Path directory = Files.createTempDirectory("journal");
+		Journal crashed = new Journal(directory.toString(), SleepWork.CODEC,
+			segmentSize, Journal.DEFAULT_COMMIT_INTERVAL_MILLIS);
+		int expectedInFlight = 0;
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			Work work = new SleepWork(1 + i % 5000);
+			work.setId(i);
+			crashed.enqueued(work);
+			if (i % 2 == 0)
+			{
+				crashed.dispatched(work);
+				if (i % 4 == 0) crashed.done(work);
+				else expectedInFlight++;
+			}
+		}
+		Thread.sleep(200); // let the compactor catch up with the rolls
+
+		long started = System.nanoTime();
+		Journal recovered = new Journal(directory.toString(), SleepWork.CODEC,
+			segmentSize, Journal.DEFAULT_COMMIT_INTERVAL_MILLIS);
+		long elapsed = System.nanoTime() - started;
+		int expected = jobs - (jobs + 3) / 4;
+		boolean ok = recovered.getRecovered().size() == expected &&
+			recovered.getRecoveredInFlight() == expectedInFlight &&
+			recovered.getNextId() == jobs;
+		for (Work work : recovered.getRecovered())
+		{
+			if (work.getId() % 4 == 0 || work.getWorkLength() != 1 + work.getId() % 5000)
+			{
+				ok = false;
+			}
+		}
+		System.out.printf("recovered %d/%d jobs (%d/%d in flight) in %.0fms " +
+			"from %d segment files: %s%n", recovered.getRecovered().size(),
+			expected, recovered.getRecoveredInFlight(), expectedInFlight,
+			elapsed / 1e6, countFiles(directory) - 1, ok ? "PASSED" : "FAILED");
+		crashed.close();
+		recovered.close();
+		delete(directory);
+	}
+
+	private static int countFiles(Path directory) throws IOException
+	{
+		int count = 0;
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try
+		{
+			for (Path file : files) count++;
+		}
+		finally
+		{
+			files.close();
+		}
+		return count;
+	}
+
+	private static void delete(Path directory) throws IOException
+	{
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try
+		{
+			for (Path file : files) Files.delete(file);
+		}
+		finally
+		{
+			files.close();
+		}
+		Files.delete(directory);
+	}
+}
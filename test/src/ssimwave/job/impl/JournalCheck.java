@@ -0,0 +1,310 @@
+package ssimwave.job.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks that a Journal recovers exactly the pending Work a model of the
+ * same events leaves.  A seeded random run of enqueue, dispatch, done, not
+ * done and dead letter events rolls many small segments, so the compactor
+ * replaces them with snapshots meanwhile; it must keep up, and reopening
+ * must recover the model's pending Work in enqueue order, with the same
+ * lengths, in-flight count and next ID.  Then, round after round, a few
+ * more events are journaled, the journal is closed and its newest segment
+ * damaged as a crash mid-write could leave it: truncated partway through a
+ * record, zeroed from partway through a record to its end, or with one
+ * record's type and ID surviving but the rest of it zeroed.  Reopening
+ * must recover the model as it was before the damaged record.
+ * Usage: JournalCheck [events [rounds [seed]]]
+ */
+public class JournalCheck
+{
+	private static final int RECORD_SIZE = 32;
+	private static final int SEGMENT_SIZE = 256 * RECORD_SIZE;
+	private static final int ROUND_EVENTS = 200; // fits in one segment
+	private static final int MAX_FILES = 5; // 4 sealed trigger compaction
+
+	public static void main(String[] args) throws Exception
+	{
+		int events = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+		BenchSupport.discardLogging();
+		Random random = new Random(seed);
+		Path directory = Files.createTempDirectory("journal");
+		try
+		{
+			Model model = new Model();
+			Journal journal = open(directory);
+			for (int i = 0 ; i < events ; i++)
+			{
+				model.apply(journal, random);
+			}
+			int files = countFiles(directory);
+			for (int waited = 0 ; files > MAX_FILES && waited < 10000 ; waited += 10)
+			{
+				Thread.sleep(10);
+				files = countFiles(directory);
+			}
+			BenchSupport.check(files <= MAX_FILES, "compaction fell behind: " +
+				files + " segment files");
+			journal.close();
+			System.out.printf("%d events, %d segment files left, pending %d: ", events, files, model.pending.size());
+			journal = verify(directory, model, "after compaction");
+			System.out.println("PASSED");
+
+			for (int round = 0 ; round < rounds ; round++)
+			{
+				List<Model> prefixes = new ArrayList<Model>(ROUND_EVENTS + 1);
+				prefixes.add(model.copy());
+				for (int i = 0 ; i < ROUND_EVENTS ; i++)
+				{
+					model.apply(journal, random);
+					prefixes.add(model.copy());
+				}
+				journal.close();
+
+				// keep the first kept records and part of the next one
+				int kept = random.nextInt(ROUND_EVENTS);
+				long torn = kept * RECORD_SIZE;
+				Path segment = newestSegment(directory);
+				String damage;
+				switch (round % 3)
+				{
+				case 0:
+					damage = "truncated";
+					truncate(segment, torn + 1 + random.nextInt(RECORD_SIZE - 1));
+					break;
+				case 1:
+					damage = "zeroed tail";
+					zero(segment, torn + 1 + random.nextInt(RECORD_SIZE - 1),
+						Files.size(segment));
+					break;
+				default:
+					// type and ID survive; records after it are left intact
+					damage = "zeroed after type and ID";
+					zero(segment, torn + 8, torn + RECORD_SIZE);
+					break;
+				}
+				model = prefixes.get(kept);
+				journal = verify(directory, model, "round " + round + " " +
+					damage + " after " + kept + " records");
+			}
+			journal.close();
+			System.out.printf("%d rounds damaged mid-record: PASSED%n", rounds);
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	private static Journal open(Path directory) throws IOException
+	{
+		return new Journal(directory.toString(), SleepWork.CODEC, SEGMENT_SIZE, 1);
+	}
+
+	/**
+	 * Reopens the journal and compares what it recovers with the model.
+	 * @return the reopened journal
+	 */
+	private static Journal verify(Path directory, Model model, String when)
+		throws IOException
+	{
+		Journal journal = open(directory);
+		List<Work> recovered = journal.getRecovered();
+		BenchSupport.check(recovered.size() == model.pending.size(), when +
+			": recovered " + recovered.size() + " jobs, expected " +
+			model.pending.size());
+		int i = 0;
+		for (Work expected : model.pending.values())
+		{
+			Work work = recovered.get(i++);
+			BenchSupport.check(work.getId() == expected.getId() &&
+				work.getWorkLength() == expected.getWorkLength(), when +
+				": recovered job " + work.getId() + " where " +
+				expected.getId() + " was expected");
+		}
+		BenchSupport.check(journal.getRecoveredInFlight() == model.inFlight.size(),
+			when + ": " + journal.getRecoveredInFlight() + " in flight, expected " +
+			model.inFlight.size());
+		BenchSupport.check(journal.getNextId() == model.maxId + 1, when +
+			": next ID " + journal.getNextId() + ", expected " + (model.maxId + 1));
+		model.nextId = journal.getNextId();
+		return journal;
+	}
+
+	private static Path newestSegment(Path directory) throws IOException
+	{
+		List<Path> segments = new ArrayList<Path>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+			"journal-*.log");
+		try
+		{
+			for (Path file : files) segments.add(file);
+		}
+		finally
+		{
+			files.close();
+		}
+		Collections.sort(segments); // names are zero padded
+		return segments.get(segments.size() - 1);
+	}
+
+	private static void truncate(Path file, long size) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try
+		{
+			channel.truncate(size);
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static void zero(Path file, long from, long to) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try
+		{
+			ByteBuffer zeros = ByteBuffer.allocate((int)(to - from));
+			while (zeros.hasRemaining())
+			{
+				channel.write(zeros, from + zeros.position());
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private static int countFiles(Path directory) throws IOException
+	{
+		int count = 0;
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+			"journal-*.log");
+		try
+		{
+			for (Path file : files) count++;
+		}
+		finally
+		{
+			files.close();
+		}
+		return count;
+	}
+
+	private static void delete(Path directory) throws IOException
+	{
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory);
+		try
+		{
+			for (Path file : files) Files.delete(file);
+		}
+		finally
+		{
+			files.close();
+		}
+		Files.delete(directory);
+	}
+
+	/**
+	 * Pending Work as the journal's events leave it, in enqueue order.
+	 */
+	private static final class Model
+	{
+		private LinkedHashMap<Integer,Work> pending = new LinkedHashMap<Integer,Work>();
+		private Set<Integer> inFlight = new HashSet<Integer>();
+		private int maxId = -1;
+		private int nextId;
+
+		Model copy()
+		{
+			Model copy = new Model();
+			copy.pending = new LinkedHashMap<Integer,Work>(pending);
+			copy.inFlight = new HashSet<Integer>(inFlight);
+			copy.maxId = maxId;
+			copy.nextId = nextId;
+			return copy;
+		}
+
+		/**
+		 * Journals one random event and applies it to the model.  Dispatch
+		 * picks queued work; done, not done and dead letter pick work in
+		 * flight, as the publisher would.  Work is enqueued a little faster
+		 * than it finishes, so later snapshots carry more pending work.
+		 */
+		void apply(Journal journal, Random random)
+		{
+			int event = random.nextInt(100);
+			if (event < 30 || pending.isEmpty())
+			{
+				Work work = new SleepWork(1 + random.nextInt(5000));
+				work.setId(nextId++);
+				journal.enqueued(work);
+				pending.put(work.getId(), work);
+				maxId = Math.max(maxId, work.getId());
+				return;
+			}
+
+			boolean dispatch = event < 50;
+			if (dispatch && inFlight.size() == pending.size()) dispatch = false;
+			if (!dispatch && inFlight.isEmpty()) dispatch = true;
+			Work work = pick(random, !dispatch);
+			if (dispatch)
+			{
+				journal.dispatched(work);
+				inFlight.add(work.getId());
+			}
+			else if (event < 65)
+			{
+				journal.notDone(work);
+				inFlight.remove(work.getId());
+			}
+			else
+			{
+				if (event < 90) journal.done(work);
+				else journal.deadLettered(work);
+				pending.remove(work.getId());
+				inFlight.remove(work.getId());
+			}
+		}
+
+		/**
+		 * @return random pending work, in flight or not, of which there is
+		 *	at least one
+		 */
+		private Work pick(Random random, boolean dispatched)
+		{
+			List<Work> candidates = new ArrayList<Work>();
+			for (Map.Entry<Integer,Work> entry : pending.entrySet())
+			{
+				if (inFlight.contains(entry.getKey()) == dispatched)
+				{
+					candidates.add(entry.getValue());
+				}
+			}
+			return candidates.get(random.nextInt(candidates.size()));
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package ssimwave.job.impl;
+
+import ssimwave.job.Work;
+
+/**
+ * Work that returns immediately so that only scheduler overhead is measured.
+ */
+public class NoOpWork implements Work
+{
+	private int id;
+	private long workLength;
+
+	/**
+	 * @param workLength priority reported by getWorkLength()
+	 */
+	public NoOpWork(long workLength)
+	{
+		this.workLength = workLength;
+	}
+
+	public void doWork()
+	{
+	}
+
+	public void setId(int id)
+	{
+		this.id = id;
+	}
+
+	public int getId()
+	{
+		return id;
+	}
+
+	public long getWorkLength()
+	{
+		return workLength;
+	}
+}
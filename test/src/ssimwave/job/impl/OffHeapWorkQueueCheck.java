@@ -0,0 +1,120 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks OffHeapWorkQueue against a TreeMap ordered as WorkQueue requires,
+ * highest key first and then lowest ID: a seeded random run of put,
+ * removeHighest and remove(id), with few distinct keys so that ties are
+ * broken by ID, and with both encoded SleepWork and NoOpWork kept in the
+ * side table.  The backlog first grows past one heap segment, then drains.
+ * Every removal must return the work the TreeMap does, with its length.
+ * Usage: OffHeapWorkQueueCheck [operations [seed]]
+ */
+public class OffHeapWorkQueueCheck
+{
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		Random random = new Random(seed);
+		OffHeapWorkQueue queue = new OffHeapWorkQueue(SleepWork.CODEC);
+		TreeMap<long[],Work> expected = new TreeMap<long[],Work>(
+			new Comparator<long[]>()
+			{
+				public int compare(long[] a, long[] b)
+				{
+					if (a[0] != b[0]) return a[0] > b[0] ? -1 : 1;
+					return Long.compare(a[1], b[1]);
+				}
+			});
+		Map<Integer,long[]> keys = new TreeMap<Integer,long[]>();
+		List<Integer> ids = new ArrayList<Integer>();
+		int nextId = 0;
+		int largest = 0;
+
+		for (int i = 0 ; i < operations ; i++)
+		{
+			// grow for the first half, drain for the second
+			int putOdds = i < operations / 2 ? 70 : 30;
+			int op = random.nextInt(100);
+			String what = "op " + i;
+			if (op < putOdds || expected.isEmpty())
+			{
+				long key = random.nextInt(64) - 8;
+				Work work = random.nextInt(4) == 0 ? new NoOpWork(key) :
+					new SleepWork(key);
+				work.setId(nextId++);
+				long[] composite = new long[] { key, work.getId() };
+				queue.put(key, work);
+				expected.put(composite, work);
+				keys.put(work.getId(), composite);
+				ids.add(work.getId());
+			}
+			else if (op < 90)
+			{
+				Map.Entry<long[],Work> highest = expected.pollFirstEntry();
+				keys.remove(highest.getValue().getId());
+				check(queue.removeHighest(), highest.getValue(), what +
+					" removeHighest");
+			}
+			else
+			{
+				// a queued ID, or one already removed
+				int id = ids.get(random.nextInt(ids.size()));
+				long[] composite = keys.remove(id);
+				Work removed = queue.remove(id);
+				if (composite == null)
+				{
+					BenchSupport.check(removed == null, what + " remove " + id +
+						" not queued");
+				}
+				else
+				{
+					check(removed, expected.remove(composite), what + " remove " + id);
+				}
+			}
+			BenchSupport.check(queue.size() == expected.size(), what + " size " +
+				queue.size() + " expected " + expected.size());
+			largest = Math.max(largest, expected.size());
+		}
+		while (!expected.isEmpty())
+		{
+			check(queue.removeHighest(), expected.pollFirstEntry().getValue(),
+				"final removeHighest");
+		}
+		BenchSupport.check(queue.isEmpty() && queue.removeHighest() == null,
+			"queue not empty");
+		BenchSupport.check(largest > 65536, "backlog never left the first " +
+			"segment: " + largest);
+		System.out.printf("%d operations, backlog up to %d: PASSED%n",
+			operations, largest);
+	}
+
+	/**
+	 * Encoded work comes back as a new SleepWork, so it is compared by ID
+	 * and length; work in the side table must be the same instance.
+	 */
+	private static void check(Work actual, Work expected, String what)
+	{
+		BenchSupport.check(actual != null, what + " returned null, expected " +
+			expected.getId());
+		BenchSupport.check(actual.getId() == expected.getId() &&
+			actual.getWorkLength() == expected.getWorkLength() &&
+			actual.getClass() == expected.getClass(), what + " returned " +
+			actual.getId() + ", expected " + expected.getId());
+		if (expected instanceof NoOpWork)
+		{
+			BenchSupport.check(actual == expected, what + " not the same NoOpWork");
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package ssimwave.job.impl;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.LockSupport;
+
+import ssimwave.job.JobPublisher.SchedulingPolicy;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Compares scheduling policies.  For each policy it reports:
+ *	queue      - cost of enqueuing, claiming and completing a backlog on one
+ *	             thread, without managers
+ *	burst      - throughput through a publisher of Work that returns
+ *	             immediately
+ *	completion - mean, p99 and last completion time of a batch of jobs with
+ *	             lengths 1 to 5000, parked for 1/100th of their length on
+ *	             10 workers
+ * Usage: PolicyBenchmark [jobs [batch [policies,...]]]
+ */
+public class PolicyBenchmark
+{
+	private static final int WORKERS = 10;
+	private static final int MAX_LENGTH = 5000;
+	private static final int SCALE = 100;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int batch = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		String[] policies = (args.length > 2 ? args[2] :
+			"LONGEST_FIRST,SHORTEST_FIRST,FIFO,WEIGHTED_FAIR,EARLIEST_DEADLINE_FIRST").split(",");
+
+		BenchSupport.discardLogging();
+		System.out.printf("jobs=%d batch=%d workers=%d%n", jobs, batch, WORKERS);
+		for (String name : policies)
+		{
+			SchedulingPolicy policy = SchedulingPolicy.valueOf(name.trim());
+			queue(policy, jobs / 10); // warm up
+			burst(policy, jobs / 10);
+			double queueNanos = queue(policy, jobs);
+			double perSecond = burst(policy, jobs);
+			long[] completed = completion(policy, batch);
+			System.out.printf("%-23s queue %6.0f ns/job  burst %8.0f jobs/s  " +
+				"completion mean=%6.0fms p99=%6.0fms last=%6.0fms%n", policy,
+				queueNanos, perSecond, mean(completed) / 1e6,
+				completed[(int)(completed.length * 0.99)] / 1e6,
+				completed[completed.length - 1] / 1e6);
+		}
+	}
+
+	private static JobPublisherImpl publisher(SchedulingPolicy policy)
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(1);
+		options.setNumberOfWorkersPerManager(WORKERS);
+		options.setSchedulingPolicy(policy);
+		return new JobPublisherImpl(options);
+	}
+
+	/**
+	 * @return nanoseconds per job to enqueue, claim and complete
+	 */
+	private static double queue(SchedulingPolicy policy, int jobs)
+	{
+		JobPublisherImpl publisher = publisher(policy);
+		publisher.kill(); // only the queue is measured
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			publisher.enqueue(new NoOpWork(1 + (i * 7919L) % MAX_LENGTH));
+		}
+		int dispatched = 0;
+		Work work;
+		while ((work = publisher.getWork()) != null)
+		{
+			publisher.workDone(work);
+			dispatched++;
+		}
+		long elapsed = System.nanoTime() - begin;
+		if (dispatched != jobs) throw new IllegalStateException("lost work");
+		return (double)elapsed / jobs;
+	}
+
+	/**
+	 * @return jobs per second dispatched through the publisher's managers
+	 */
+	private static double burst(SchedulingPolicy policy, int jobs)
+		throws InterruptedException
+	{
+		final CountDownLatch done = new CountDownLatch(jobs);
+		JobPublisherImpl publisher = publisher(policy);
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			publisher.enqueue(new NoOpWork(1 + (i * 7919L) % MAX_LENGTH)
+			{
+				@Override
+				public void doWork()
+				{
+					done.countDown();
+				}
+			});
+		}
+		publisher.signalManagers(jobs);
+		done.await();
+		long elapsed = System.nanoTime() - begin;
+		publisher.kill();
+		return jobs * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return sorted nanoseconds from submitting the batch to each job's
+	 *	completion
+	 */
+	private static long[] completion(SchedulingPolicy policy, int batch)
+		throws InterruptedException
+	{
+		CountDownLatch done = new CountDownLatch(batch);
+		long[] completed = new long[batch];
+		JobPublisherImpl publisher = publisher(policy);
+		Random random = new Random(42);
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < batch ; i++)
+		{
+			publisher.enqueue(new ScaledWork(1 + random.nextInt(MAX_LENGTH),
+				begin, completed, i, done));
+		}
+		publisher.signalManagers(batch);
+		done.await();
+		publisher.kill();
+		Arrays.sort(completed);
+		return completed;
+	}
+
+	private static double mean(long[] values)
+	{
+		double sum = 0;
+		for (long value : values)
+		{
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/**
+	 * Work that parks for 1/SCALE of its length in milliseconds and records
+	 * when it completed.
+	 */
+	private static class ScaledWork implements Work
+	{
+		private final long workLength;
+		private final long begin;
+		private final long[] completed;
+		private final int index;
+		private final CountDownLatch done;
+		private int id;
+
+		ScaledWork(long workLength, long begin, long[] completed, int index,
+			CountDownLatch done)
+		{
+			this.workLength = workLength;
+			this.begin = begin;
+			this.completed = completed;
+			this.index = index;
+			this.done = done;
+		}
+
+		public void doWork()
+		{
+			LockSupport.parkNanos(workLength * 1000000 / SCALE);
+			completed[index] = System.nanoTime() - begin;
+			done.countDown();
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return workLength;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package ssimwave.job.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Runs a coordinator without local managers and RemoteNode processes on
+ * this host, connected over loopback.  For each number of nodes it reports
+ * the throughput of jobs that return at once, which measures leasing and
+ * completion overhead, and of jobs that sleep, which measures how well
+ * nodes are kept busy.  It then freezes one node with SIGSTOP mid-batch and
+ * reports how long the batch takes with that node's jobs requeued once its
+ * lease expires.
+ * Usage: RemoteBenchmark [jobs [nodes,... [workersPerNode]]]
+ */
+public class RemoteBenchmark
+{
+	private static final long LEASE_MILLIS = 1000;
+	private static final long SLEEP_MILLIS = 10;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int[] nodeCounts = BenchSupport.parseInts(args.length > 1 ? args[1] : "1,2,4");
+		int workers = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		BenchSupport.discardLogging();
+		System.out.printf("jobs=%d workersPerNode=%d lease=%dms%n", jobs,
+			workers, LEASE_MILLIS);
+		for (int nodes : nodeCounts)
+		{
+			JobPublisherImpl publisher = publisher();
+			List<Process> processes = startNodes(publisher, nodes, workers);
+			run(publisher, 1000, 0); // warm up
+			double noOp = run(publisher, jobs, 0);
+			int sleeping = (int)Math.min(jobs, nodes * workers * 2000 / SLEEP_MILLIS);
+			double slept = run(publisher, sleeping, SLEEP_MILLIS);
+			double capacity = nodes * workers * 1000.0 / SLEEP_MILLIS;
+			System.out.printf("nodes=%d  0ms jobs %8.0f/s  %dms jobs %6.0f/s " +
+				"(%.0f%% of capacity)%n", nodes, noOp, SLEEP_MILLIS, slept,
+				slept * 100 / capacity);
+			stop(publisher, processes);
+		}
+
+		// freeze a node holding a full lease of jobs
+		int nodes = Math.max(2, nodeCounts[nodeCounts.length - 1]);
+		JobPublisherImpl publisher = publisher();
+		List<Process> processes = startNodes(publisher, nodes, workers);
+		int batch = (int)(nodes * workers * 1000 / SLEEP_MILLIS); // about 1s
+		List<CompletableFuture<Work>> futures = submit(publisher, batch,
+			SLEEP_MILLIS);
+		long begin = System.nanoTime();
+		Thread.sleep(200);
+		signal("STOP", processes.get(0));
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		System.out.printf("nodes=%d  one frozen: %d jobs in %.0fms, %d requeued%n",
+			nodes, batch, (System.nanoTime() - begin) / 1e6,
+			publisher.getMetrics().getRetries());
+		signal("CONT", processes.get(0));
+		stop(publisher, processes);
+	}
+
+	private static JobPublisherImpl publisher()
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(0);
+		options.setCoordinatorPort(0);
+		options.setLeaseMillis(LEASE_MILLIS);
+		return new JobPublisherImpl(options);
+	}
+
+	private static List<Process> startNodes(JobPublisherImpl publisher,
+		int nodes, int workers) throws Exception
+	{
+		JobManager[] managers = publisher.getManagers();
+		JobCoordinator coordinator = (JobCoordinator)managers[managers.length - 1];
+		String java = System.getProperty("java.home") + File.separator + "bin" +
+			File.separator + "java";
+		List<Process> processes = new ArrayList<Process>();
+		for (int i = 0 ; i < nodes ; i++)
+		{
+			processes.add(new ProcessBuilder(java, "-cp",
+				System.getProperty("java.class.path"), "ssimwave.Main",
+				"-n127.0.0.1:" + coordinator.getPort(), "-l/dev/null",
+				"3", Integer.toString(workers)).start());
+		}
+		while (coordinator.getNumberOfWorkers() < nodes * workers)
+		{
+			Thread.sleep(10);
+		}
+		return processes;
+	}
+
+	/**
+	 * @return jobs per second
+	 */
+	private static double run(JobPublisherImpl publisher, int jobs,
+		long sleepMillis) throws Exception
+	{
+		long begin = System.nanoTime();
+		List<CompletableFuture<Work>> futures = submit(publisher, jobs,
+			sleepMillis);
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		return jobs * 1e9 / (System.nanoTime() - begin);
+	}
+
+	private static List<CompletableFuture<Work>> submit(
+		JobPublisherImpl publisher, int jobs, long sleepMillis)
+	{
+		List<Work> works = new ArrayList<Work>(jobs);
+		for (int i = 0 ; i < jobs ; i++)
+		{
+			works.add(new SleepWork(sleepMillis));
+		}
+		return publisher.submitAll(works);
+	}
+
+	private static void signal(String signal, Process process) throws Exception
+	{
+		new ProcessBuilder("kill", "-" + signal,
+			Long.toString(process.pid())).start().waitFor();
+	}
+
+	private static void stop(JobPublisherImpl publisher, List<Process> processes)
+		throws Exception
+	{
+		publisher.kill(); // nodes disconnect and exit
+		for (Process process : processes)
+		{
+			process.waitFor();
+		}
+	}
+}
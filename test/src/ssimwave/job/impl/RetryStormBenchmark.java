@@ -0,0 +1,211 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.MetricsSnapshot;
+import ssimwave.job.RetryPolicy;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+import ssimwave.util.TimerWheel;
+
+/**
+ * Checks that work whose doWork() always throws cannot starve other work.
+ * Poison jobs outnumbering the workers are queued at the highest priority
+ * ahead of good jobs that sleep 1ms each; the time to finish the good jobs
+ * is compared to a run without poison for several retry limits, along with
+ * how often poison ran and how much was dead lettered once it gave up.  Also reports the
+ * cost of scheduling on a TimerWheel as the number of pending tasks grows.
+ * Usage: RetryStormBenchmark [goodJobs [poisonJobs [retries,...]]]
+ */
+public class RetryStormBenchmark
+{
+	private static final int WORKERS = 10;
+	private static final long TIMEOUT_SECONDS = 60;
+
+	public static void main(String[] args) throws Exception
+	{
+		int good = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int poison = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		int[] retries = BenchSupport.parseInts(args.length > 2 ? args[2] : "0,3,6");
+
+		BenchSupport.discardLogging();
+		System.out.printf("good=%d poison=%d workers=%d%n", good, poison, WORKERS);
+		storm(good, 0, RetryPolicy.DEFAULT_MAX_RETRIES, false); // warm up
+		storm(good, 0, RetryPolicy.DEFAULT_MAX_RETRIES, true);
+		for (int maxRetries : retries)
+		{
+			storm(good, poison, maxRetries, true);
+		}
+
+		for (int pending : new int[] { 1000, 100000, 1000000 })
+		{
+			timers(pending);
+		}
+	}
+
+	private static void storm(int good, int poison, int maxRetries,
+		boolean report) throws Exception
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(1);
+		options.setNumberOfWorkersPerManager(WORKERS);
+		options.setRetryPolicy(new RetryPolicy(maxRetries,
+			RetryPolicy.DEFAULT_INITIAL_DELAY_MILLIS,
+			RetryPolicy.DEFAULT_MAX_DELAY_MILLIS));
+		JobPublisher publisher = JobPublisher.getJobPublisher(options);
+
+		AtomicLong poisonRuns = new AtomicLong();
+		List<Work> poisonWork = new ArrayList<Work>(poison);
+		for (int i = 0 ; i < poison ; i++)
+		{
+			poisonWork.add(new PoisonWork(poisonRuns));
+		}
+		List<Work> goodWork = new ArrayList<Work>(good);
+		for (int i = 0 ; i < good ; i++)
+		{
+			goodWork.add(new GoodWork(1 + i % 1000));
+		}
+
+		long begin = System.nanoTime();
+		List<CompletableFuture<Work>> poisoned = publisher.submitAll(poisonWork);
+		List<CompletableFuture<Work>> futures = publisher.submitAll(goodWork);
+		boolean finished = true;
+		try
+		{
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+				.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		}
+		catch (TimeoutException te)
+		{
+			finished = false;
+		}
+		long elapsed = System.nanoTime() - begin;
+		// poison gives up after retries whose delays double each time
+		long failed = 0;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		for (CompletableFuture<Work> future : poisoned)
+		{
+			while (!future.isDone() && System.nanoTime() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			if (future.isCompletedExceptionally()) failed++;
+		}
+		MetricsSnapshot metrics = publisher.getMetrics();
+		int deadLetters = publisher.drainDeadLetters().size();
+		((JobPublisherImpl)publisher).kill();
+
+		if (!report) return;
+		System.out.printf("poison=%-4d retries=%-3d good jobs %8.0fms  " +
+			"poison runs=%-5d retried=%-5d dead lettered=%-4d (drained %d, " +
+			"failed futures %d)%s%n", poison, maxRetries, elapsed / 1e6,
+			poisonRuns.get(), metrics.getRetries(), metrics.getDeadLettered(),
+			deadLetters, failed, finished ? "" : " (timed out)");
+	}
+
+	/**
+	 * Schedules tasks far in the future until pending are outstanding, then
+	 * times scheduling and cancelling more.
+	 */
+	private static void timers(int pending)
+	{
+		final int measured = 200000;
+		TimerWheel wheel = new TimerWheel("BenchTimer", 10, 512);
+		Runnable task = new Runnable()
+		{
+			public void run()
+			{
+			}
+		};
+		for (int i = 0 ; i < pending ; i++)
+		{
+			wheel.schedule(task, 600000 + i % 60000);
+		}
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < measured ; i++)
+		{
+			wheel.schedule(task, 600000 + i % 60000).cancel();
+		}
+		long elapsed = System.nanoTime() - begin;
+		wheel.stop();
+
+		System.out.printf("TimerWheel pending=%-8d schedule+cancel %6.1f ns/op%n",
+			pending, (double)elapsed / measured);
+	}
+
+	/**
+	 * Work that sleeps 1ms.
+	 */
+	private static class GoodWork implements Work
+	{
+		private final long workLength;
+		private int id;
+
+		GoodWork(long workLength)
+		{
+			this.workLength = workLength;
+		}
+
+		public void doWork() throws Exception
+		{
+			Thread.sleep(1);
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return workLength;
+		}
+	}
+
+	/**
+	 * Highest priority work that always throws.
+	 */
+	private static class PoisonWork implements Work
+	{
+		private final AtomicLong runs;
+		private int id;
+
+		PoisonWork(AtomicLong runs)
+		{
+			this.runs = runs;
+		}
+
+		public void doWork() throws Exception
+		{
+			runs.incrementAndGet();
+			throw new IllegalStateException("poison");
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return Long.MAX_VALUE;
+		}
+	}
+}
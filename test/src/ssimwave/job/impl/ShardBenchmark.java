@@ -0,0 +1,142 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import ssimwave.job.JobPublisher;
+import ssimwave.job.JobPublisherOptions;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Splits the same managers over more and more shards and measures aggregate
+ * dispatch throughput: producer threads, by default one per processor,
+ * submit Work that returns at once in batches, so the run is bound by
+ * enqueueing, dispatch and completion bookkeeping.  For each shard count it
+ * reports jobs per second and how many jobs were stolen.  It then submits
+ * sleeping jobs all with one affinity key, so they land on one shard, and
+ * reports how long they take with the other shards stealing them, against
+ * the time every worker, or only that shard's, would take.
+ * Usage: ShardBenchmark [jobs [shards,... [producers [managers [workers]]]]]
+ */
+public class ShardBenchmark
+{
+	private static final int BATCH = 100;
+	private static final int SKEWED_JOBS = 2000;
+	private static final long SKEWED_MILLIS = 5;
+
+	public static void main(String[] args) throws Exception
+	{
+		int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 400000;
+		int[] shardCounts = BenchSupport.parseInts(args.length > 1 ? args[1] : "1,2,4,8");
+		int producers = args.length > 2 ? Integer.parseInt(args[2]) :
+			Math.max(2, Runtime.getRuntime().availableProcessors());
+		int managers = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+		int workers = args.length > 4 ? Integer.parseInt(args[4]) : 8;
+
+		BenchSupport.discardLogging();
+		System.out.printf("jobs=%d producers=%d managers=%d workers=%d cpus=%d%n",
+			jobs, producers, managers, workers,
+			Runtime.getRuntime().availableProcessors());
+		for (int shards : shardCounts)
+		{
+			JobPublisher publisher = publisher(shards, managers, workers);
+			run(publisher, producers, jobs / 10); // warm up
+			long stolenBefore = stolen(publisher);
+			double rate = run(publisher, producers, jobs);
+			System.out.printf("shards=%-2d %10.0f jobs/s  stolen=%d%n", shards,
+				rate, stolen(publisher) - stolenBefore);
+			kill(publisher);
+		}
+
+		int shards = shardCounts[shardCounts.length - 1];
+		JobPublisher publisher = publisher(shards, managers, workers);
+		List<CompletableFuture<Work>> futures = new ArrayList<CompletableFuture<Work>>();
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < SKEWED_JOBS ; i++)
+		{
+			SleepWork work = new SleepWork(SKEWED_MILLIS);
+			futures.add(publisher instanceof ShardedJobPublisher ?
+				((ShardedJobPublisher)publisher).submit(work, "hot") :
+				publisher.submit(work));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		int perShard = (managers + shards - 1) / shards * workers;
+		System.out.printf("shards=%-2d one key: %d %dms jobs in %.0fms, %d stolen " +
+			"(all workers %dms, one shard %dms)%n", shards, SKEWED_JOBS,
+			SKEWED_MILLIS, (System.nanoTime() - begin) / 1e6, stolen(publisher),
+			SKEWED_JOBS * SKEWED_MILLIS / (managers * workers),
+			SKEWED_JOBS * SKEWED_MILLIS / perShard);
+		kill(publisher);
+	}
+
+	private static JobPublisher publisher(int shards, int managers, int workers)
+	{
+		JobPublisherOptions options = new JobPublisherOptions();
+		options.setNumberOfManagers(managers);
+		options.setNumberOfWorkersPerManager(workers);
+		options.setNumberOfShards(shards);
+		return JobPublisher.getJobPublisher(options);
+	}
+
+	/**
+	 * Submits jobs from the producer threads and waits for all of them.
+	 * @return jobs per second
+	 */
+	private static double run(final JobPublisher publisher, int producers,
+		final int jobs) throws Exception
+	{
+		final long done = publisher.getMetrics().getDone();
+		Thread[] threads = new Thread[producers];
+		long begin = System.nanoTime();
+		for (int p = 0 ; p < producers ; p++)
+		{
+			final int share = jobs / producers + (p < jobs % producers ? 1 : 0);
+			threads[p] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					List<Work> batch = new ArrayList<Work>(BATCH);
+					for (int i = 0 ; i < share ; i++)
+					{
+						batch.add(new NoOpWork(i % 5000));
+						if (batch.size() == BATCH || i == share - 1)
+						{
+							publisher.submitAll(batch);
+							batch.clear();
+						}
+					}
+				}
+			}, "Producer-" + p);
+			threads[p].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		while (publisher.getMetrics().getDone() - done < jobs)
+		{
+			Thread.sleep(1);
+		}
+		return jobs * 1e9 / (System.nanoTime() - begin);
+	}
+
+	private static long stolen(JobPublisher publisher)
+	{
+		return publisher instanceof ShardedJobPublisher ?
+			((ShardedJobPublisher)publisher).getStolen() : 0;
+	}
+
+	private static void kill(JobPublisher publisher)
+	{
+		if (publisher instanceof ShardedJobPublisher)
+		{
+			((ShardedJobPublisher)publisher).kill();
+		}
+		else
+		{
+			((JobPublisherImpl)publisher).kill();
+		}
+	}
+}
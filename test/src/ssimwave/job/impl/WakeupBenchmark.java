@@ -0,0 +1,135 @@
+package ssimwave.job.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import ssimwave.job.JobPublisher.ManagerType;
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Compares waking every manager for each burst of new work ("broadcast")
+ * against the WakeupScheduler waking only managers whose spare capacity is
+ * needed ("targeted").  Each burst is enqueued on an idle system and run to
+ * completion before the next.  Context switches are summed over all threads
+ * from /proc/self/task (Linux only).
+ * Usage: WakeupBenchmark [managers [workers [bursts [burstSizes,...]]]]
+ */
+public class WakeupBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int managers = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int bursts = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int[] burstSizes = BenchSupport.parseInts(args.length > 3 ? args[3] : "1,4,16");
+
+		BenchSupport.discardLogging();
+		System.out.printf("managers=%d workers=%d bursts=%d%n", managers,
+			workers, bursts);
+		for (int burstSize : burstSizes)
+		{
+			run("broadcast", false, managers, workers, bursts, burstSize);
+			run("targeted", true, managers, workers, bursts, burstSize);
+		}
+	}
+
+	private static void run(String label, boolean targeted, int managers,
+		int workers, int bursts, int burstSize) throws InterruptedException
+	{
+		JobPublisherImpl publisher = new JobPublisherImpl(managers, workers,
+			ManagerType.THREADED);
+		Thread.sleep(100); // let manager threads park
+
+		long switches = contextSwitches();
+		long wakeups = publisher.getWakeupScheduler().getWakeups();
+		long begin = System.nanoTime();
+		for (int b = 0 ; b < bursts ; b++)
+		{
+			CountDownLatch done = new CountDownLatch(burstSize);
+			for (int i = 0 ; i < burstSize ; i++)
+			{
+				publisher.enqueue(new LatchWork(done));
+			}
+			if (targeted) publisher.signalManagers(burstSize);
+			else publisher.notifyManagers();
+			done.await();
+		}
+		long elapsed = System.nanoTime() - begin;
+		wakeups = publisher.getWakeupScheduler().getWakeups() - wakeups;
+		switches = switches < 0 ? -1 : contextSwitches() - switches;
+		publisher.kill();
+
+		long jobs = (long)bursts * burstSize;
+		System.out.printf("burst=%-3d %-9s %8.2f manager wakeups/job %8.2f " +
+			"context switches/job %8.1f us/burst%n", burstSize, label,
+			(double)wakeups / jobs, switches < 0 ? Double.NaN :
+			(double)switches / jobs, elapsed / 1e3 / bursts);
+	}
+
+	/**
+	 * @return voluntary plus involuntary context switches of all live
+	 *	threads, or -1 if /proc is unavailable
+	 */
+	private static long contextSwitches()
+	{
+		File[] tasks = new File("/proc/self/task").listFiles();
+		if (tasks == null) return -1;
+		long total = 0;
+		for (File task : tasks)
+		{
+			try (BufferedReader reader = new BufferedReader(
+				new FileReader(new File(task, "status"))))
+			{
+				String line;
+				while ((line = reader.readLine()) != null)
+				{
+					if (!line.contains("ctxt_switches:")) continue;
+					total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+				}
+			}
+			catch (IOException ioe)
+			{
+				// thread exited while reading
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * No-op Work that counts down a latch.
+	 */
+	private static final class LatchWork implements Work
+	{
+		private final CountDownLatch done;
+		private int id;
+
+		LatchWork(CountDownLatch done)
+		{
+			this.done = done;
+		}
+
+		public void doWork()
+		{
+			done.countDown();
+		}
+
+		public void setId(int id)
+		{
+			this.id = id;
+		}
+
+		public int getId()
+		{
+			return id;
+		}
+
+		public long getWorkLength()
+		{
+			return 1;
+		}
+	}
+}
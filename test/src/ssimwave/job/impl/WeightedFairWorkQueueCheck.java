@@ -0,0 +1,292 @@
+package ssimwave.job.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Checks WeightedFairWorkQueue against a plain deficit round robin over one
+ * LinkedHashMap per work length band, from which work removed by ID is
+ * dropped at once rather than claimed in place.  A seeded random run of
+ * put, removeHighest and remove(id), with work lengths spread over every
+ * band and weighted towards some, must dispatch and remove the same work as
+ * the model, under equal and unequal weights.  Then, with every band kept
+ * backlogged, each band's share of the work length dispatched must be
+ * within a few percent of its share of the weights.
+ * Usage: WeightedFairWorkQueueCheck [operations [seed]]
+ */
+public class WeightedFairWorkQueueCheck
+{
+	private static final long QUANTUM = 1000; // as WeightedFairWorkQueue
+	private static final int[][] WEIGHTS = { null, { 1, 2, 4 }, { 5, 1, 3 } };
+	private static final int BACKLOG = 2000; // per band, when fully backlogged
+	private static final double SHARE_TOLERANCE = 0.05;
+
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		for (int[] weights : WEIGHTS)
+		{
+			String name = weights == null ? "equal" : Arrays.toString(weights);
+			int largest = run(weights, operations, seed);
+			double[] shares = backlogged(weights, seed);
+			StringBuilder served = new StringBuilder();
+			for (double share : shares)
+			{
+				served.append(String.format(" %.3f", share));
+			}
+			System.out.printf("weights %-9s %d operations, backlog up to %d, " +
+				"backlogged shares%s: PASSED%n", name, operations, largest, served);
+		}
+	}
+
+	/**
+	 * @return the largest backlog
+	 */
+	private static int run(int[] weights, int operations, long seed)
+	{
+		Random random = new Random(seed);
+		WeightedFairWorkQueue queue = new WeightedFairWorkQueue(weights, null);
+		Model expected = new Model(weights);
+		List<Integer> ids = new ArrayList<Integer>();
+		int nextId = 0;
+		int largest = 0;
+
+		for (int i = 0 ; i < operations ; i++)
+		{
+			// grow for the first half, drain for the second
+			int putOdds = i < operations / 2 ? 60 : 35;
+			int op = random.nextInt(100);
+			String what = "op " + i;
+			if (op < putOdds || expected.size == 0)
+			{
+				Work work = new NoOpWork(lengthOf(random));
+				work.setId(nextId++);
+				queue.put(random.nextLong(), work); // the key is ignored
+				expected.put(work);
+				ids.add(work.getId());
+			}
+			else if (op < 80)
+			{
+				check(queue.removeHighest(), expected.next(), what +
+					" removeHighest");
+			}
+			else
+			{
+				// a queued ID, or one already removed
+				int id = ids.get(random.nextInt(ids.size()));
+				Work removed = queue.remove(id);
+				Work queued = expected.remove(id);
+				if (queued == null)
+				{
+					BenchSupport.check(removed == null, what + " remove " + id +
+						" not queued");
+				}
+				else
+				{
+					check(removed, queued, what + " remove " + id);
+				}
+			}
+			if (expected.size > 0)
+			{
+				BenchSupport.check(!queue.isEmpty(), what + " empty with " +
+					expected.size + " queued");
+			}
+			largest = Math.max(largest, expected.size);
+		}
+		while (expected.size > 0)
+		{
+			check(queue.removeHighest(), expected.next(), "final removeHighest");
+		}
+		BenchSupport.check(queue.removeHighest() == null && queue.isEmpty(),
+			"queue not empty");
+		return largest;
+	}
+
+	/**
+	 * Dispatches from a queue holding BACKLOG jobs per band, refilling each
+	 * band as it is served so that none runs dry, and compares the share of
+	 * the work length each band received with its share of the weights.
+	 * @return each band's share of the work length dispatched
+	 */
+	private static double[] backlogged(int[] weights, long seed)
+	{
+		Random random = new Random(seed);
+		int bands = JobMetrics.LENGTH_BANDS.length + 1;
+		WeightedFairWorkQueue queue = new WeightedFairWorkQueue(weights, null);
+		int nextId = 0;
+		for (int band = 0 ; band < bands ; band++)
+		{
+			for (int i = 0 ; i < BACKLOG ; i++)
+			{
+				Work work = new NoOpWork(lengthIn(band, random));
+				work.setId(nextId++);
+				queue.put(0, work);
+			}
+		}
+		long[] served = new long[bands];
+		long total = 0;
+		for (int i = 0 ; i < 20 * BACKLOG ; i++)
+		{
+			Work work = queue.removeHighest();
+			int band = JobMetrics.bandOf(work.getWorkLength());
+			served[band] += Math.max(1, work.getWorkLength());
+			total += Math.max(1, work.getWorkLength());
+			Work refill = new NoOpWork(lengthIn(band, random));
+			refill.setId(nextId++);
+			queue.put(0, refill);
+		}
+
+		int weightTotal = 0;
+		for (int band = 0 ; band < bands ; band++)
+		{
+			weightTotal += weights == null ? 1 : weights[band];
+		}
+		double[] shares = new double[bands];
+		for (int band = 0 ; band < bands ; band++)
+		{
+			shares[band] = (double)served[band] / total;
+			double expected = (double)(weights == null ? 1 : weights[band]) /
+				weightTotal;
+			BenchSupport.check(Math.abs(shares[band] - expected) <= SHARE_TOLERANCE,
+				"band " + band + " served " + shares[band] + " of the work " +
+				"length, expected " + expected);
+		}
+		return shares;
+	}
+
+	/**
+	 * @return a work length, mostly short, sometimes 0, in any band
+	 */
+	private static long lengthOf(Random random)
+	{
+		int kind = random.nextInt(10);
+		return kind < 5 ? lengthIn(0, random) : kind < 8 ? lengthIn(1, random) :
+			lengthIn(2, random);
+	}
+
+	private static long lengthIn(int band, Random random)
+	{
+		long low = band == 0 ? 0 : JobMetrics.LENGTH_BANDS[band - 1] + 1;
+		long high = band < JobMetrics.LENGTH_BANDS.length ?
+			JobMetrics.LENGTH_BANDS[band] : 5000;
+		return low + (long)(random.nextDouble() * (high - low + 1));
+	}
+
+	private static void check(Work actual, Work expected, String what)
+	{
+		BenchSupport.check(actual == expected, what + " returned " +
+			(actual == null ? "null" : String.valueOf(actual.getId())) +
+			", expected " + expected.getId());
+	}
+
+	/**
+	 * Deficit round robin as WeightedFairWorkQueue documents it: the current
+	 * band is served while its deficit covers the length of its oldest work,
+	 * an empty band's deficit is reset, and once no band can afford its
+	 * oldest work, every band with work is credited the fewest whole rounds
+	 * of quanta that lets one of them dispatch.
+	 */
+	private static final class Model
+	{
+		private final int[] weights;
+		private final List<LinkedHashMap<Integer,Work>> bands;
+		private final long[] deficit;
+		private int current;
+		private int size;
+
+		Model(int[] weights)
+		{
+			int count = JobMetrics.LENGTH_BANDS.length + 1;
+			this.weights = new int[count];
+			bands = new ArrayList<LinkedHashMap<Integer,Work>>();
+			for (int i = 0 ; i < count ; i++)
+			{
+				this.weights[i] = weights == null ? 1 : weights[i];
+				bands.add(new LinkedHashMap<Integer,Work>());
+			}
+			deficit = new long[count];
+		}
+
+		void put(Work work)
+		{
+			bands.get(JobMetrics.bandOf(work.getWorkLength())).put(work.getId(), work);
+			size++;
+		}
+
+		Work remove(int id)
+		{
+			for (LinkedHashMap<Integer,Work> band : bands)
+			{
+				Work work = band.remove(id);
+				if (work != null)
+				{
+					size--;
+					return work;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return the next work to dispatch, of which there is at least one
+		 */
+		Work next()
+		{
+			for (;;)
+			{
+				for (int passed = 0 ; passed < bands.size() ; passed++)
+				{
+					LinkedHashMap<Integer,Work> band = bands.get(current);
+					if (band.isEmpty())
+					{
+						deficit[current] = 0;
+					}
+					else
+					{
+						Iterator<Work> oldest = band.values().iterator();
+						Work head = oldest.next();
+						if (deficit[current] >= costOf(head))
+						{
+							oldest.remove();
+							deficit[current] -= costOf(head);
+							size--;
+							return head;
+						}
+					}
+					current = (current + 1) % bands.size();
+				}
+
+				long rounds = Long.MAX_VALUE;
+				for (int i = 0 ; i < bands.size() ; i++)
+				{
+					if (bands.get(i).isEmpty()) continue;
+					long missing = costOf(bands.get(i).values().iterator().next()) -
+						deficit[i];
+					long quantum = QUANTUM * weights[i];
+					rounds = Math.min(rounds, (missing + quantum - 1) / quantum);
+				}
+				for (int i = 0 ; i < bands.size() ; i++)
+				{
+					if (!bands.get(i).isEmpty())
+					{
+						deficit[i] += Math.max(1, rounds) * QUANTUM * weights[i];
+					}
+				}
+			}
+		}
+
+		private static long costOf(Work work)
+		{
+			return Math.max(1, work.getWorkLength());
+		}
+	}
+}
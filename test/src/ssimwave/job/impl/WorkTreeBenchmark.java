@@ -0,0 +1,81 @@
+package ssimwave.job.impl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ssimwave.job.Work;
+import ssimwave.util.BenchSupport;
+
+/**
+ * Measures WorkTree.put/removeHighest throughput with several threads
+ * hammering the same tree, as managers do on a shared publisher.
+ * Usage: WorkTreeBenchmark [threads,... [millis [prefill]]]
+ */
+public class WorkTreeBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int[] threadCounts = BenchSupport.parseInts(
+			args.length > 0 ? args[0] : "1,2,4,8");
+		long millis = args.length > 1 ? Long.parseLong(args[1]) : 2000;
+		int prefill = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+
+		System.out.printf("millis=%d prefill=%d%n", millis, prefill);
+		for (int threads : threadCounts)
+		{
+			run(threads, 200, prefill); // warm up
+			long ops = run(threads, millis, prefill);
+			System.out.printf("threads=%-3d %12.0f put+removeHighest pairs/s%n",
+				threads, ops * 1000.0 / millis);
+		}
+	}
+
+	private static long run(int threads, final long millis, int prefill)
+		throws InterruptedException
+	{
+		final WorkTree tree = new WorkTree();
+		for (int i = 0 ; i < prefill + threads ; i++)
+		{
+			NoOpWork work = new NoOpWork(i % 5000);
+			work.setId(i);
+			tree.put(work.getWorkLength(), work);
+		}
+
+		final AtomicLong ops = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0 ; t < threads ; t++)
+		{
+			new Thread(new Runnable()
+			{
+				public void run()
+				{
+					long localOps = 0;
+					try
+					{
+						start.await();
+						long end = System.nanoTime() + millis * 1000000L;
+						// each thread holds one work item; ids stay unique
+						Work work = tree.removeHighest();
+						while ((localOps & 1023) != 0 || System.nanoTime() < end)
+						{
+							tree.put(work.getWorkLength(), work);
+							work = tree.removeHighest();
+							localOps++;
+						}
+						tree.put(work.getWorkLength(), work);
+					}
+					catch (InterruptedException ie)
+					{
+						Thread.currentThread().interrupt();
+					}
+					ops.addAndGet(localOps);
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+		return ops.get();
+	}
+}
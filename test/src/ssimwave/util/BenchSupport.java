@@ -0,0 +1,73 @@
+package ssimwave.util;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Helpers shared by the benchmarks and checks under test/src.
+ */
+public class BenchSupport
+{
+	private BenchSupport()
+	{
+	}
+
+	/**
+	 * Sends Logger output nowhere so that benchmarks do not measure I/O.
+	 */
+	public static void discardLogging()
+	{
+		Logger.init(new PrintStream(new OutputStream()
+		{
+			public void write(int b)
+			{
+			}
+
+			public void write(byte[] b, int off, int len)
+			{
+			}
+		}));
+		Logger.setDebug(false);
+	}
+
+	/**
+	 * Sorts the samples in place and returns the requested percentile.
+	 * @param samples the samples; only the first count are considered
+	 * @param count number of valid samples
+	 * @param percentile between 0 and 100
+	 * @return the sample at the percentile, or 0 if there are no samples
+	 */
+	public static long percentile(long[] samples, int count, double percentile)
+	{
+		if (count == 0) return 0;
+		Arrays.sort(samples, 0, count);
+		int index = (int)Math.ceil(percentile / 100.0 * count) - 1;
+		return samples[Math.max(0, Math.min(count - 1, index))];
+	}
+
+	/**
+	 * Fails a check.
+	 * @param condition what the check expects to hold
+	 * @param message describes what went wrong if it does not
+	 * @throws AssertionError if condition is false
+	 */
+	public static void check(boolean condition, String message)
+	{
+		if (!condition) throw new AssertionError(message);
+	}
+
+	/**
+	 * Parses a comma separated list of integers, such as "1,2,4".
+	 */
+	public static int[] parseInts(String list)
+	{
+		String[] parts = list.split(",");
+		int[] values = new int[parts.length];
+		for (int i = 0 ; i < parts.length ; i++)
+		{
+			values[i] = Integer.parseInt(parts[i].trim());
+		}
+		return values;
+	}
+}
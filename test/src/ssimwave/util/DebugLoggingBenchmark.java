@@ -0,0 +1,74 @@
+package ssimwave.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the cost of the debug statements issued for every dispatched job
+ * (Worker.assign, Worker.run and JobManagerImpl.freeWorker) with debug mode
+ * off, in their previous unguarded form and their current guarded form.
+ * Usage: DebugLoggingBenchmark [dispatches [rounds]]
+ */
+public class DebugLoggingBenchmark
+{
+	private static final String LABEL = "Worker[1,2]";
+
+	public static void main(String[] args)
+	{
+		int dispatches = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		BenchSupport.discardLogging();
+
+		for (int round = 1 ; round <= rounds ; round++)
+		{
+			run("unguarded", false, dispatches, round);
+			run("guarded", true, dispatches, round);
+		}
+	}
+
+	private static void run(String label, boolean guarded, int dispatches,
+		int round)
+	{
+		com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)
+			ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+
+		long bytes = mx.getThreadAllocatedBytes(threadId);
+		long begin = System.nanoTime();
+		for (int i = 0 ; i < dispatches ; i++)
+		{
+			if (guarded) dispatchGuarded(3, i & 1023, i);
+			else dispatchUnguarded(3, i & 1023, i);
+		}
+		long elapsed = System.nanoTime() - begin;
+		bytes = mx.getThreadAllocatedBytes(threadId) - bytes;
+
+		System.out.printf("round %d %-9s %8.2f ns/dispatch %8.2f bytes/dispatch%n",
+			round, label, (double)elapsed / dispatches,
+			(double)bytes / dispatches);
+	}
+
+	private static void dispatchUnguarded(int id, int workerId, int workId)
+	{
+		Logger.debug("Assigning Work[%d] to %s", workId, LABEL);
+		Logger.debug("%s synchronizing", LABEL);
+		Logger.debug("%s doing work", LABEL);
+		Logger.debug("%s completed Work[%d]", LABEL, workId);
+		Logger.debug("Manager[%d,%d] synchronizing", id, workerId);
+		Logger.debug("busyworkers[%d,%d]: %d/%d", id, workerId, workId, 2000);
+		Logger.debug("Manager[%d,%d] unsychronizing", id, workerId);
+		Logger.debug(String.format("Manager[%d] waiting", id));
+	}
+
+	private static void dispatchGuarded(int id, int workerId, int workId)
+	{
+		if (Logger.isDebugEnabled()) Logger.debug("Assigning Work[%d] to %s", workId, LABEL);
+		if (Logger.isDebugEnabled()) Logger.debug("%s synchronizing", LABEL);
+		if (Logger.isDebugEnabled()) Logger.debug("%s doing work", LABEL);
+		if (Logger.isDebugEnabled()) Logger.debug("%s completed Work[%d]", LABEL, workId);
+		if (Logger.isDebugEnabled()) Logger.debug("Manager[%d,%d] synchronizing", id, workerId);
+		if (Logger.isDebugEnabled()) Logger.debug("busyworkers[%d,%d]: %d/%d", id, workerId, workId, 2000);
+		if (Logger.isDebugEnabled()) Logger.debug("Manager[%d,%d] unsychronizing", id, workerId);
+		if (Logger.isDebugEnabled()) Logger.debug("Manager[%d] waiting", id);
+	}
+}
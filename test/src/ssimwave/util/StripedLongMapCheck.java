@@ -0,0 +1,104 @@
+package ssimwave.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks StripedLongMap against HashMap: a seeded random run of put,
+ * conditional put, get, remove and conditional remove, with keys drawn from a small range so that
+ * probe chains collide, grow, shift back on removal and shrink.  Every
+ * result, the size and finally the values must match.  Runs with one, a few
+ * and the default number of stripes.
+ * Usage: StripedLongMapCheck [operations [seed]]
+ */
+public class StripedLongMapCheck
+{
+	private static final long[] EDGE_KEYS = { 0, -1, Long.MIN_VALUE, Long.MAX_VALUE };
+
+	public static void main(String[] args)
+	{
+		int operations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+		for (int stripes : new int[] { 1, 3, 64 })
+		{
+			run(stripes, operations, seed);
+			System.out.printf("stripes=%-2d %d operations: PASSED%n", stripes,
+				operations);
+		}
+	}
+
+	private static void run(int stripes, int operations, long seed)
+	{
+		Random random = new Random(seed);
+		StripedLongMap<Long> map = new StripedLongMap<Long>(stripes);
+		Map<Long,Long> expected = new HashMap<Long,Long>();
+		int range = 1024;
+		for (int i = 0 ; i < operations ; i++)
+		{
+			// sweep the key range up and down so that stripes fill and empty
+			if (i % 50000 == 0) range = 16 << random.nextInt(12);
+			long key = random.nextInt(16) == 0 ?
+				EDGE_KEYS[random.nextInt(EDGE_KEYS.length)] :
+				random.nextInt(range) * 0x9E3779B97F4A7C15L;
+			int op = random.nextInt(11);
+			String what = "op " + i + " key " + key;
+			if (op < 4)
+			{
+				Long value = Long.valueOf(random.nextLong());
+				BenchSupport.check(same(map.put(key, value), expected.put(key, value)),
+					what + " put");
+			}
+			else if (op < 7)
+			{
+				BenchSupport.check(same(map.remove(key), expected.remove(key)),
+					what + " remove");
+			}
+			else if (op < 8)
+			{
+				// by identity: only the instance stored matches
+				Long stored = expected.get(key);
+				Long value = stored != null && random.nextBoolean() ?
+					stored : Long.valueOf(random.nextLong());
+				boolean removed = map.remove(key, value);
+				BenchSupport.check(removed == (stored == value), what +
+					" conditional remove");
+				if (removed) expected.remove(key);
+			}
+			else if (op < 9)
+			{
+				Long value = Long.valueOf(random.nextLong());
+				BenchSupport.check(same(map.putIfAbsent(key, value),
+					expected.putIfAbsent(key, value)), what + " conditional put");
+			}
+			else
+			{
+				BenchSupport.check(same(map.get(key), expected.get(key)),
+					what + " get");
+			}
+			BenchSupport.check(map.size() == expected.size(), what + " size " +
+				map.size() + " expected " + expected.size());
+		}
+
+		List<Long> values = new ArrayList<Long>(map.values());
+		BenchSupport.check(values.size() == expected.size(), "values size");
+		Map<Long,Boolean> seen = new IdentityHashMap<Long,Boolean>();
+		for (Long value : values) seen.put(value, Boolean.TRUE);
+		for (Long value : expected.values())
+		{
+			BenchSupport.check(seen.containsKey(value), "values missing " + value);
+		}
+	}
+
+	/**
+	 * @return true if both are null or the same instance
+	 */
+	private static boolean same(Long actual, Long expected)
+	{
+		return actual == expected;
+	}
+}